@@ -44,6 +44,18 @@ public @interface CacheNamespace {
   
   boolean blocking() default false;
 
+  /**
+   * Entries older than this many milliseconds are reloaded in the background while still being returned.
+   * @since 3.4.6
+   */
+  long refreshInterval() default 0;
+
+  /**
+   * Whether the entries are saved to the <code>cacheSnapshotFile</code> on shutdown and loaded back on startup.
+   * @since 3.4.6
+   */
+  boolean snapshot() default false;
+
   /**
    * Property values for a implementation object.
    * @since 3.4.2
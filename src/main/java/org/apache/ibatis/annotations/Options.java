@@ -63,4 +63,16 @@ public @interface Options {
   String keyColumn() default "";
   
   String resultSets() default "";
+
+  /**
+   * Comma separated tables the statement reads or writes, used when the second level cache is invalidated by table.
+   * Found in the SQL when empty.
+   */
+  String tables() default "";
+
+  /**
+   * Parameter properties identifying the row the statement reads or writes, e.g. <code>#{id}</code>.
+   * A write with an invalidation key only invalidates the cached reads with the same key.
+   */
+  String invalidationKey() default "";
 }
@@ -26,7 +26,9 @@ import java.util.Set;
 import java.util.StringTokenizer;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
 import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.impl.OffHeapCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import org.apache.ibatis.executor.ErrorContext;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
@@ -133,14 +135,47 @@ public class MapperBuilderAssistant extends BaseBuilder {
       boolean readWrite,
       boolean blocking,
       Properties props) {
+    return useNewCache(typeClass, evictionClass, flushInterval, size, readWrite, blocking, null, props);
+  }
+
+  public Cache useNewCache(Class<? extends Cache> typeClass,
+      Class<? extends Cache> evictionClass,
+      Long flushInterval,
+      Integer size,
+      boolean readWrite,
+      boolean blocking,
+      Long refreshInterval,
+      Properties props) {
+    return useNewCache(typeClass, evictionClass, flushInterval, size, readWrite, blocking, refreshInterval, false, props);
+  }
+
+  public Cache useNewCache(Class<? extends Cache> typeClass,
+      Class<? extends Cache> evictionClass,
+      Long flushInterval,
+      Integer size,
+      boolean readWrite,
+      boolean blocking,
+      Long refreshInterval,
+      boolean snapshot,
+      Properties props) {
+    CacheStatistics statistics = null;
+    if (configuration.isCacheStatisticsEnabled()) {
+      statistics = new CacheStatistics(currentNamespace);
+      configuration.addCacheStatistics(statistics);
+    }
+    //OFF_HEAP缓存由slab限制内存，未配置过期策略时不再默认加LRU
+    Class<? extends Cache> defaultEvictionClass = OffHeapCache.class.equals(typeClass) ? null : LruCache.class;
     //根据给定参数初始化缓存
     Cache cache = new CacheBuilder(currentNamespace)
         .implementation(valueOrDefault(typeClass, PerpetualCache.class))
-        .addDecorator(valueOrDefault(evictionClass, LruCache.class))
+        .addDecorator(valueOrDefault(evictionClass, defaultEvictionClass))
         .clearInterval(flushInterval)
         .size(size)
         .readWrite(readWrite)
         .blocking(blocking)
+        .refreshInterval(refreshInterval)
+        .snapshot(snapshot ? configuration.getCacheSnapshot() : null)
+        .statistics(statistics)
         .properties(props)
         .build();
     //将缓存添加到配置数据中，可以根据缓存ID从配置数据中获取该缓存
@@ -273,7 +308,9 @@ public class MapperBuilderAssistant extends BaseBuilder {
       String keyColumn,
       String databaseId,
       LanguageDriver lang,
-      String resultSets) {
+      String resultSets,
+      String tables,
+      String invalidationKey) {
 
     if (unresolvedCacheRef) {
       throw new IncompleteElementException("Cache-ref not yet resolved");
@@ -294,6 +331,8 @@ public class MapperBuilderAssistant extends BaseBuilder {
         .lang(lang)
         .resultOrdered(resultOrdered)
         .resultSets(resultSets)
+        .tables(tables)
+        .invalidationKey(invalidationKey)
         .resultMaps(getStatementResultMaps(resultMap, resultType, id))
         .resultSetType(resultSetType)
         .flushCacheRequired(valueOrDefault(flushCache, !isSelect))
@@ -499,6 +538,65 @@ public class MapperBuilderAssistant extends BaseBuilder {
     return configuration.getLanguageRegistry().getDriver(langClass);
   }
 
+  /** Backward compatibility signature */
+  public MappedStatement addMappedStatement(
+      String id,
+      SqlSource sqlSource,
+      StatementType statementType,
+      SqlCommandType sqlCommandType,
+      Integer fetchSize,
+      Integer timeout,
+      String parameterMap,
+      Class<?> parameterType,
+      String resultMap,
+      Class<?> resultType,
+      ResultSetType resultSetType,
+      boolean flushCache,
+      boolean useCache,
+      boolean resultOrdered,
+      KeyGenerator keyGenerator,
+      String keyProperty,
+      String keyColumn,
+      String databaseId,
+      LanguageDriver lang,
+      String resultSets,
+      String tables) {
+    return addMappedStatement(
+      id, sqlSource, statementType, sqlCommandType, fetchSize, timeout,
+      parameterMap, parameterType, resultMap, resultType, resultSetType,
+      flushCache, useCache, resultOrdered, keyGenerator, keyProperty,
+      keyColumn, databaseId, lang, resultSets, tables, null);
+  }
+
+  /** Backward compatibility signature */
+  public MappedStatement addMappedStatement(
+      String id,
+      SqlSource sqlSource,
+      StatementType statementType,
+      SqlCommandType sqlCommandType,
+      Integer fetchSize,
+      Integer timeout,
+      String parameterMap,
+      Class<?> parameterType,
+      String resultMap,
+      Class<?> resultType,
+      ResultSetType resultSetType,
+      boolean flushCache,
+      boolean useCache,
+      boolean resultOrdered,
+      KeyGenerator keyGenerator,
+      String keyProperty,
+      String keyColumn,
+      String databaseId,
+      LanguageDriver lang,
+      String resultSets) {
+    return addMappedStatement(
+      id, sqlSource, statementType, sqlCommandType, fetchSize, timeout,
+      parameterMap, parameterType, resultMap, resultType, resultSetType,
+      flushCache, useCache, resultOrdered, keyGenerator, keyProperty,
+      keyColumn, databaseId, lang, resultSets, null);
+  }
+
   /** Backward compatibility signature */
   public MappedStatement addMappedStatement(
     String id,
@@ -200,10 +200,12 @@ public class MapperAnnotationBuilder {
       Integer size = cacheDomain.size() == 0 ? null : cacheDomain.size();
       //获取缓存刷新频率
       Long flushInterval = cacheDomain.flushInterval() == 0 ? null : cacheDomain.flushInterval();
+      //获取缓存提前刷新间隔
+      Long refreshInterval = cacheDomain.refreshInterval() == 0 ? null : cacheDomain.refreshInterval();
       //解析CacheNamespace配置的属性
       Properties props = convertToProperties(cacheDomain.properties());
       //使用注解配置的数据创建缓存
-      assistant.useNewCache(cacheDomain.implementation(), cacheDomain.eviction(), flushInterval, size, cacheDomain.readWrite(), cacheDomain.blocking(), props);
+      assistant.useNewCache(cacheDomain.implementation(), cacheDomain.eviction(), flushInterval, size, cacheDomain.readWrite(), cacheDomain.blocking(), refreshInterval, cacheDomain.snapshot(), props);
     }
   }
 
@@ -433,7 +435,11 @@ public class MapperAnnotationBuilder {
           null,
           languageDriver,
           // ResultSets
-          options != null ? nullOrEmpty(options.resultSets()) : null);
+          options != null ? nullOrEmpty(options.resultSets()) : null,
+          // Tables
+          options != null ? nullOrEmpty(options.tables()) : null,
+          // InvalidationKey
+          options != null ? nullOrEmpty(options.invalidationKey()) : null);
     }
   }
   
@@ -40,6 +40,7 @@ import org.apache.ibatis.reflection.factory.ObjectFactory;
 import org.apache.ibatis.reflection.wrapper.ObjectWrapperFactory;
 import org.apache.ibatis.session.AutoMappingBehavior;
 import org.apache.ibatis.session.AutoMappingUnknownColumnBehavior;
+import org.apache.ibatis.session.CacheInvalidation;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ExecutorType;
 import org.apache.ibatis.session.LocalCacheScope;
@@ -306,6 +307,12 @@ public class XMLConfigBuilder extends BaseBuilder {
     configuration.setMapUnderscoreToCamelCase(booleanValueOf(props.getProperty("mapUnderscoreToCamelCase"), false));
     configuration.setSafeRowBoundsEnabled(booleanValueOf(props.getProperty("safeRowBoundsEnabled"), false));
     configuration.setLocalCacheScope(LocalCacheScope.valueOf(props.getProperty("localCacheScope", "SESSION")));
+    configuration.setLocalCacheSize(integerValueOf(props.getProperty("localCacheSize"), null));
+    configuration.setLocalCacheMaxBytes(longValueOf(props.getProperty("localCacheMaxBytes"), null));
+    configuration.setCacheInvalidation(CacheInvalidation.valueOf(props.getProperty("cacheInvalidation", "NAMESPACE")));
+    configuration.setCacheSnapshotFile(props.getProperty("cacheSnapshotFile"));
+    configuration.setCacheStatisticsEnabled(booleanValueOf(props.getProperty("cacheStatisticsEnabled"), false));
+    configuration.setCacheStatisticsJmxEnabled(booleanValueOf(props.getProperty("cacheStatisticsJmxEnabled"), false));
     configuration.setJdbcTypeForNull(JdbcType.valueOf(props.getProperty("jdbcTypeForNull", "OTHER")));
     configuration.setLazyLoadTriggerMethods(stringSetValueOf(props.getProperty("lazyLoadTriggerMethods"), "equals,clone,hashCode,toString"));
     configuration.setSafeResultHandlerEnabled(booleanValueOf(props.getProperty("safeResultHandlerEnabled"), true));
@@ -218,8 +218,8 @@ public class XMLMapperBuilder extends BaseBuilder {
       String type = context.getStringAttribute("type", "PERPETUAL");
       //获取type的class
       Class<? extends Cache> typeClass = typeAliasRegistry.resolveAlias(type);
-      //获取配置过期策略，默认值为LRU
-      String eviction = context.getStringAttribute("eviction", "LRU");
+      //获取配置过期策略，未配置时由MapperBuilderAssistant决定默认值
+      String eviction = context.getStringAttribute("eviction");
       Class<? extends Cache> evictionClass = typeAliasRegistry.resolveAlias(eviction);
       //获取配置的刷新间隔
       Long flushInterval = context.getLongAttribute("flushInterval");
@@ -229,8 +229,12 @@ public class XMLMapperBuilder extends BaseBuilder {
       boolean readWrite = !context.getBooleanAttribute("readOnly", false);
       //是否配置了阻塞，默认为false
       boolean blocking = context.getBooleanAttribute("blocking", false);
+      //获取配置的提前刷新间隔
+      Long refreshInterval = context.getLongAttribute("refreshInterval");
+      //是否在重启时保存并恢复缓存数据，默认为false
+      boolean snapshot = context.getBooleanAttribute("snapshot", false);
       Properties props = context.getChildrenAsProperties();
-      builderAssistant.useNewCache(typeClass, evictionClass, flushInterval, size, readWrite, blocking, props);
+      builderAssistant.useNewCache(typeClass, evictionClass, flushInterval, size, readWrite, blocking, refreshInterval, snapshot, props);
     }
   }
 
@@ -15,8 +15,13 @@
  */
 package org.apache.ibatis.cache;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.apache.ibatis.reflection.ArrayUtil;
@@ -28,23 +33,37 @@ public class CacheKey implements Cloneable, Serializable {
 
   private static final long serialVersionUID = 1146682552656046210L;
 
+  // 序列化格式保持为原来的 List<Object> updateList，旧版本写出的 CacheKey 仍可读取，反之亦然
+  private static final ObjectStreamField[] serialPersistentFields = {
+      new ObjectStreamField("multiplier", int.class),
+      new ObjectStreamField("hashcode", int.class),
+      new ObjectStreamField("checksum", long.class),
+      new ObjectStreamField("count", int.class),
+      new ObjectStreamField("updateList", List.class) };
+
   public static final CacheKey NULL_CACHE_KEY = new NullCacheKey();
 
   private static final int DEFAULT_MULTIPLYER = 37;
   private static final int DEFAULT_HASHCODE = 17;
+  private static final int DEFAULT_CAPACITY = 8;
+  private static final Object[] EMPTY = new Object[0];
+  // RowBounds.NO_ROW_LIMIT, not covered by the Integer cache
+  private static final Integer MAX_INT = Integer.MAX_VALUE;
 
-  private final int multiplier;
+  private int multiplier;
   private int hashcode;
   private long checksum;
   private int count;
   // 8/21/2017 - Sonarlint flags this as needing to be marked transient.  While true if content is not serializable, this is not always true and thus should not be marked transient.
-  private List<Object> updateList;
+  private Object[] updateList;
+  // updateList is shared with a clone and has to be copied before the next update
+  private transient boolean shared;
 
   public CacheKey() {
     this.hashcode = DEFAULT_HASHCODE;
     this.multiplier = DEFAULT_MULTIPLYER;
     this.count = 0;
-    this.updateList = new ArrayList<Object>();
+    this.updateList = EMPTY;
   }
 
   public CacheKey(Object[] objects) {
@@ -53,7 +72,24 @@ public class CacheKey implements Cloneable, Serializable {
   }
 
   public int getUpdateCount() {
-    return updateList.size();
+    return count;
+  }
+
+  /*
+   * @return The object of an update, the first one of the key of a statement is the statement id
+   */
+  public Object getUpdate(int index) {
+    if (index >= count) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Update count: " + count);
+    }
+    return updateList[index];
+  }
+
+  /*
+   * Same as update(Integer.valueOf(value)), without boxing the usual offset and limit
+   */
+  public void update(int value) {
+    update(value == Integer.MAX_VALUE ? MAX_INT : Integer.valueOf(value));
   }
 
   public void update(Object object) {
@@ -66,7 +102,12 @@ public class CacheKey implements Cloneable, Serializable {
 
     hashcode = multiplier * hashcode + baseHashCode;
 
-    updateList.add(object);
+    //数组已满或与克隆对象共享时复制一份
+    if (shared || count > updateList.length) {
+      updateList = Arrays.copyOf(updateList, Math.max(DEFAULT_CAPACITY, count * 2));
+      shared = false;
+    }
+    updateList[count - 1] = object;
   }
 
   public void updateAll(Object[] objects) {
@@ -96,9 +137,9 @@ public class CacheKey implements Cloneable, Serializable {
       return false;
     }
 
-    for (int i = 0; i < updateList.size(); i++) {
-      Object thisObject = updateList.get(i);
-      Object thatObject = cacheKey.updateList.get(i);
+    for (int i = 0; i < count; i++) {
+      Object thisObject = updateList[i];
+      Object thatObject = cacheKey.updateList[i];
       if (!ArrayUtil.equals(thisObject, thatObject)) {
         return false;
       }
@@ -114,16 +155,38 @@ public class CacheKey implements Cloneable, Serializable {
   @Override
   public String toString() {
     StringBuilder returnValue = new StringBuilder().append(hashcode).append(':').append(checksum);
-    for (Object object : updateList) {
-      returnValue.append(':').append(ArrayUtil.toString(object));
+    for (int i = 0; i < count; i++) {
+      returnValue.append(':').append(ArrayUtil.toString(updateList[i]));
     }
     return returnValue.toString();
   }
 
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    ObjectOutputStream.PutField fields = out.putFields();
+    fields.put("multiplier", multiplier);
+    fields.put("hashcode", hashcode);
+    fields.put("checksum", checksum);
+    fields.put("count", count);
+    fields.put("updateList", new ArrayList<Object>(Arrays.asList(updateList).subList(0, count)));
+    out.writeFields();
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    ObjectInputStream.GetField fields = in.readFields();
+    multiplier = fields.get("multiplier", DEFAULT_MULTIPLYER);
+    hashcode = fields.get("hashcode", DEFAULT_HASHCODE);
+    checksum = fields.get("checksum", 0L);
+    List<?> updates = (List<?>) fields.get("updateList", null);
+    updateList = updates == null ? EMPTY : updates.toArray();
+    count = updateList.length;
+  }
+
   @Override
   public CacheKey clone() throws CloneNotSupportedException {
+    //克隆对象与原对象共享数组，任一方再次update时才复制
     CacheKey clonedCacheKey = (CacheKey) super.clone();
-    clonedCacheKey.updateList = new ArrayList<Object>(updateList);
+    shared = true;
+    clonedCacheKey.shared = true;
     return clonedCacheKey;
   }
 
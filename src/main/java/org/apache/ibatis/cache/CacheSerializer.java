@@ -0,0 +1,38 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+/**
+ * Turns cached values into bytes and back for read-write caches.
+ * <p>
+ * Implementations need a public no-arg constructor so they can be set by class name on the
+ * <code>serializer</code> property of a <code>&lt;cache&gt;</code>, and must be thread safe.
+ */
+public interface CacheSerializer {
+
+  /**
+   * @param value The result of a select, may be null
+   * @return The bytes to cache
+   */
+  byte[] serialize(Object value);
+
+  /**
+   * @param value Bytes returned by {@link #serialize(Object)}
+   * @return A copy of the serialized value
+   */
+  Object deserialize(byte[] value);
+
+}
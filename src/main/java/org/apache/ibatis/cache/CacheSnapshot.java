@@ -0,0 +1,277 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.ibatis.cache.decorators.SnapshotCache;
+import org.apache.ibatis.cache.serializer.JavaSerializer;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * Writes the entries of the caches declared with <code>snapshot="true"</code> to a file and loads them back,
+ * so that a restarted application does not start with empty second level caches.
+ * <p>
+ * Each cache is saved with a fingerprint of the statements that use it. The entries of a cache whose fingerprint
+ * changed, because its mapper was changed, are discarded on load. The table versions are saved too, so that
+ * versioned keys still match after a restart. The entries keep the time they were put, so a restart neither
+ * extends their flushInterval nor delays their refresh.
+ */
+public class CacheSnapshot {
+
+  private static final Log log = LogFactory.getLog(CacheSnapshot.class);
+
+  private static final int MAGIC = 0x4D425353;
+  private static final int FORMAT_VERSION = 2;
+
+  private final Map<String, SnapshotCache> caches = new LinkedHashMap<String, SnapshotCache>();
+  private final CacheSerializer serializer = new JavaSerializer();
+  private Thread shutdownHook;
+
+  public synchronized void register(SnapshotCache cache) {
+    caches.put(cache.getId(), cache);
+  }
+
+  public synchronized Set<String> getCacheIds() {
+    return new LinkedHashSet<String>(caches.keySet());
+  }
+
+  public synchronized SnapshotCache getCache(String id) {
+    return caches.get(id);
+  }
+
+  /*
+   * @param fingerprints - the fingerprint of each registered cache
+   * @return The number of saved entries
+   */
+  public synchronized int save(File file, Map<String, Long> fingerprints, TableVersions versions) {
+    int saved = 0;
+    File temp = null;
+    DataOutputStream out = null;
+    try {
+      //先在同一目录写唯一的临时文件再改名，避免关闭过程中被中断留下不完整的快照，也避免多个进程互相覆盖
+      temp = File.createTempFile("." + file.getName() + ".", ".tmp", file.getAbsoluteFile().getParentFile());
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      Map<String, Long> tables = versions.getVersions();
+      out.writeInt(tables.size());
+      for (Map.Entry<String, Long> table : tables.entrySet()) {
+        out.writeUTF(table.getKey());
+        out.writeLong(table.getValue());
+      }
+      out.writeInt(caches.size());
+      for (SnapshotCache cache : caches.values()) {
+        List<Entry> entries = encode(cache);
+        out.writeUTF(cache.getId());
+        out.writeLong(fingerprintOf(fingerprints, cache.getId()));
+        out.writeBoolean(cache.isSerialized());
+        out.writeInt(entries.size());
+        for (Entry entry : entries) {
+          writeBytes(out, entry.key);
+          writeBytes(out, entry.value);
+          out.writeLong(entry.putTime);
+        }
+        saved += entries.size();
+      }
+      out.close();
+      out = null;
+      if (file.exists() && !file.delete() || !temp.renameTo(file)) {
+        throw new IOException("Could not replace " + file);
+      }
+    } catch (IOException e) {
+      closeQuietly(out);
+      if (temp != null) {
+        temp.delete();
+      }
+      throw new CacheException("Error saving cache snapshot to " + file + ".  Cause: " + e, e);
+    }
+    return saved;
+  }
+
+  /*
+   * Puts the entries of a snapshot back in the registered caches. A missing, unreadable or outdated snapshot
+   * is ignored.
+   *
+   * @param fingerprints - the fingerprint of each registered cache
+   * @return The number of restored entries
+   */
+  public synchronized int load(File file, Map<String, Long> fingerprints, TableVersions versions) {
+    if (!file.isFile()) {
+      return 0;
+    }
+    int restored = 0;
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+        log.warn("Discarded cache snapshot " + file + " written by another version.");
+        return 0;
+      }
+      int tableCount = in.readInt();
+      for (int i = 0; i < tableCount; i++) {
+        versions.advance(in.readUTF(), in.readLong());
+      }
+      int cacheCount = in.readInt();
+      for (int i = 0; i < cacheCount; i++) {
+        String id = in.readUTF();
+        long fingerprint = in.readLong();
+        boolean serialized = in.readBoolean();
+        int entryCount = in.readInt();
+        SnapshotCache cache = caches.get(id);
+        //映射语句变化后快照中的数据不再可用
+        boolean usable = cache != null && cache.isSerialized() == serialized
+            && fingerprint == fingerprintOf(fingerprints, id);
+        if (!usable) {
+          log.warn("Discarded cache snapshot of " + id + ", its mapper has changed.");
+        }
+        for (int j = 0; j < entryCount; j++) {
+          byte[] key = readBytes(in);
+          byte[] value = readBytes(in);
+          long putTime = in.readLong();
+          if (usable && restore(cache, key, value, putTime)) {
+            restored++;
+          }
+        }
+      }
+    } catch (IOException e) {
+      log.warn("Discarded cache snapshot " + file + ".  Cause: " + e);
+    } finally {
+      closeQuietly(in);
+    }
+    return restored;
+  }
+
+  /*
+   * Saves the snapshot when the JVM shuts down. Only the first call registers a hook, until {@link #close()}
+   * removes it.
+   */
+  public synchronized void saveOnShutdown(final File file, final Map<String, Long> fingerprints, final TableVersions versions) {
+    if (shutdownHook != null) {
+      return;
+    }
+    shutdownHook = new Thread("mybatis-cache-snapshot") {
+      @Override
+      public void run() {
+        try {
+          save(file, fingerprints, versions);
+        } catch (CacheException e) {
+          log.warn(e.getMessage());
+        }
+      }
+    };
+    Runtime.getRuntime().addShutdownHook(shutdownHook);
+  }
+
+  /*
+   * Removes the hook registered by {@link #saveOnShutdown}, so that a discarded configuration is neither
+   * saved on shutdown nor kept alive by the hook.
+   */
+  public synchronized void close() {
+    if (shutdownHook == null) {
+      return;
+    }
+    try {
+      Runtime.getRuntime().removeShutdownHook(shutdownHook);
+    } catch (IllegalStateException e) {
+      // the JVM is already shutting down, the hook is running
+    }
+    shutdownHook = null;
+  }
+
+  private List<Entry> encode(SnapshotCache cache) {
+    List<Entry> encoded = new ArrayList<Entry>();
+    for (Map.Entry<Object, Object> entry : cache.getEntries().entrySet()) {
+      Long putTime = cache.getPutTime(entry.getKey());
+      if (putTime == null) {
+        // removed meanwhile
+        continue;
+      }
+      try {
+        //SerializedCache的值已经是序列化后的byte[]，直接保存
+        byte[] value = cache.isSerialized() ? (byte[]) entry.getValue() : serializer.serialize(entry.getValue());
+        encoded.add(new Entry(serializer.serialize(entry.getKey()), value, putTime));
+      } catch (CacheException e) {
+        // not serializable, not saved
+      }
+    }
+    return encoded;
+  }
+
+  private boolean restore(SnapshotCache cache, byte[] key, byte[] value, long putTime) {
+    try {
+      cache.restore(serializer.deserialize(key), cache.isSerialized() ? value : serializer.deserialize(value), putTime);
+      return true;
+    } catch (CacheException e) {
+      // a class of the key or the value has changed
+      return false;
+    }
+  }
+
+  private static long fingerprintOf(Map<String, Long> fingerprints, String id) {
+    Long fingerprint = fingerprints.get(id);
+    return fingerprint == null ? 0 : fingerprint;
+  }
+
+  private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static byte[] readBytes(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return bytes;
+  }
+
+  private static class Entry {
+    private final byte[] key;
+    private final byte[] value;
+    private final long putTime;
+
+    Entry(byte[] key, byte[] value, long putTime) {
+      this.key = key;
+      this.value = value;
+      this.putTime = putTime;
+    }
+  }
+
+  private static void closeQuietly(Closeable closeable) {
+    if (closeable != null) {
+      try {
+        closeable.close();
+      } catch (IOException e) {
+        // ignore
+      }
+    }
+  }
+
+}
@@ -0,0 +1,259 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.ObjectName;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * Counters of a second level cache, for the whole namespace and for each statement that reads it.
+ * <p>
+ * Hits, misses and load times are recorded by the executor, puts and evictions by the cache itself. The
+ * statement of a put or an eviction is the one the {@link CacheKey} was built for. The counters are striped,
+ * so recording does not make the threads that read the cache contend.
+ */
+public class CacheStatistics implements CacheStatisticsMBean {
+
+  private static final Log log = LogFactory.getLog(CacheStatistics.class);
+
+  private final String id;
+  private final String namespace;
+  //命名空间下每个语句的统计，语句自身的统计为null
+  private final ConcurrentMap<String, CacheStatistics> statements;
+  private final StripedCounter hits = new StripedCounter();
+  private final StripedCounter misses = new StripedCounter();
+  private final StripedCounter puts = new StripedCounter();
+  private final StripedCounter evictions = new StripedCounter();
+  private final StripedCounter entries = new StripedCounter();
+  private final StripedCounter loadTime = new StripedCounter();
+  private volatile Cache cache;
+  private volatile String objectNamePrefix;
+
+  public CacheStatistics(String namespace) {
+    this(namespace, namespace, new ConcurrentHashMap<String, CacheStatistics>());
+  }
+
+  private CacheStatistics(String id, String namespace, ConcurrentMap<String, CacheStatistics> statements) {
+    this.id = id;
+    this.namespace = namespace;
+    this.statements = statements;
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  /*
+   * Sets the cache the entry count of the namespace is read from
+   */
+  public void setCache(Cache cache) {
+    this.cache = cache;
+  }
+
+  /*
+   * @return The statistics of a statement, or null if it did not use the cache yet
+   */
+  public CacheStatistics getStatementStatistics(String statementId) {
+    return statements == null ? null : statements.get(statementId);
+  }
+
+  public Collection<CacheStatistics> getStatementStatistics() {
+    if (statements == null) {
+      return Collections.emptyList();
+    }
+    return Collections.unmodifiableCollection(statements.values());
+  }
+
+  public void recordHit(String statementId) {
+    hits.increment();
+    statement(statementId).hits.increment();
+  }
+
+  /*
+   * @param loadTime - the nanoseconds the statement took to load the missing value
+   */
+  public void recordMiss(String statementId, long loadTime) {
+    misses.increment();
+    this.loadTime.add(loadTime);
+    CacheStatistics statement = statement(statementId);
+    statement.misses.increment();
+    statement.loadTime.add(loadTime);
+  }
+
+  /*
+   * @param added - whether the key was not cached before
+   */
+  public void recordPut(Object key, boolean added) {
+    CacheStatistics statement = statementOf(key);
+    puts.increment();
+    if (statement != null) {
+      statement.puts.increment();
+    }
+    if (added) {
+      entries.increment();
+      if (statement != null) {
+        statement.entries.increment();
+      }
+    }
+  }
+
+  public void recordEviction(Object key) {
+    CacheStatistics statement = statementOf(key);
+    evictions.increment();
+    entries.add(-1);
+    if (statement != null) {
+      statement.evictions.increment();
+      statement.entries.add(-1);
+    }
+  }
+
+  public void recordClear() {
+    entries.reset();
+    for (CacheStatistics statement : getStatementStatistics()) {
+      statement.entries.reset();
+    }
+  }
+
+  @Override
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  @Override
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  @Override
+  public double getHitRatio() {
+    long hitCount = hits.sum();
+    long requestCount = hitCount + misses.sum();
+    return requestCount == 0 ? 0 : (double) hitCount / requestCount;
+  }
+
+  @Override
+  public long getPutCount() {
+    return puts.sum();
+  }
+
+  @Override
+  public long getEvictionCount() {
+    return evictions.sum();
+  }
+
+  @Override
+  public long getEntryCount() {
+    Cache cache = this.cache;
+    return cache != null ? cache.getSize() : Math.max(0, entries.sum());
+  }
+
+  @Override
+  public long getTotalLoadTime() {
+    return loadTime.sum() / 1000000;
+  }
+
+  @Override
+  public double getAverageLoadTime() {
+    long missCount = misses.sum();
+    return missCount == 0 ? 0 : loadTime.sum() / 1000000.0 / missCount;
+  }
+
+  /*
+   * Registers the statistics of the namespace and of its statements with the platform MBean server, including
+   * the statements that use the cache later
+   */
+  public synchronized void registerMBeans() {
+    if (objectNamePrefix != null) {
+      return;
+    }
+    objectNamePrefix = "org.apache.ibatis.cache:type=CacheStatistics,id="
+        + Integer.toHexString(System.identityHashCode(this)) + ",namespace=" + ObjectName.quote(namespace);
+    registerMBean(this, objectNamePrefix);
+    for (CacheStatistics statement : getStatementStatistics()) {
+      registerMBean(statement, objectNamePrefix + ",statement=" + ObjectName.quote(statement.getId()));
+    }
+  }
+
+  /*
+   * Unregisters the MBeans registered by {@link #registerMBeans()}, so that a discarded configuration is not kept
+   * alive by the MBean server
+   */
+  public synchronized void unregisterMBeans() {
+    if (objectNamePrefix == null) {
+      return;
+    }
+    unregisterMBean(objectNamePrefix);
+    for (CacheStatistics statement : getStatementStatistics()) {
+      unregisterMBean(objectNamePrefix + ",statement=" + ObjectName.quote(statement.getId()));
+    }
+    objectNamePrefix = null;
+  }
+
+  private CacheStatistics statementOf(Object key) {
+    if (key instanceof CacheKey) {
+      CacheKey cacheKey = (CacheKey) key;
+      //语句缓存key的第一个元素是语句ID
+      if (cacheKey.getUpdateCount() > 0 && cacheKey.getUpdate(0) instanceof String) {
+        return statement((String) cacheKey.getUpdate(0));
+      }
+    }
+    return null;
+  }
+
+  private CacheStatistics statement(String statementId) {
+    CacheStatistics statement = statements.get(statementId);
+    if (statement == null) {
+      CacheStatistics newStatement = new CacheStatistics(statementId, namespace, null);
+      statement = statements.putIfAbsent(statementId, newStatement);
+      if (statement == null) {
+        statement = newStatement;
+        //与注册和注销互斥，新语句的MBean不会在注销之后才注册
+        synchronized (this) {
+          if (objectNamePrefix != null) {
+            registerMBean(statement, objectNamePrefix + ",statement=" + ObjectName.quote(statementId));
+          }
+        }
+      }
+    }
+    return statement;
+  }
+
+  private static void registerMBean(CacheStatistics statistics, String name) {
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(statistics, new ObjectName(name));
+    } catch (Exception e) {
+      log.warn("Could not register the cache statistics MBean " + name + ": " + e.getMessage());
+    }
+  }
+
+  private static void unregisterMBean(String name) {
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(name));
+    } catch (Exception e) {
+      log.warn("Could not unregister the cache statistics MBean " + name + ": " + e.getMessage());
+    }
+  }
+
+}
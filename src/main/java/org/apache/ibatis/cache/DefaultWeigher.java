@@ -0,0 +1,55 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.Collection;
+
+/**
+ * Weighs a list by its number of rows, the byte array of a read-write cache by its length and any
+ * other value, such as a placeholder or an output parameter, as one row.
+ */
+public class DefaultWeigher implements Weigher {
+
+  // rough cost of the entry, the key and the list itself
+  public static final long ENTRY_OVERHEAD = 128;
+  public static final long ROW_WEIGHT = 512;
+
+  private final long rowWeight;
+
+  public DefaultWeigher() {
+    this(ROW_WEIGHT);
+  }
+
+  /**
+   * @param rowWeight The estimated size in bytes of one row of a result
+   */
+  public DefaultWeigher(long rowWeight) {
+    this.rowWeight = rowWeight;
+  }
+
+  @Override
+  public long weigh(Object key, Object value) {
+    if (value instanceof byte[]) {
+      // serialized by a read-write cache
+      return ENTRY_OVERHEAD + ((byte[]) value).length;
+    }
+    if (value instanceof Collection) {
+      return ENTRY_OVERHEAD + ((Collection<?>) value).size() * rowWeight;
+    }
+    return ENTRY_OVERHEAD + rowWeight;
+  }
+
+}
@@ -0,0 +1,54 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.Collection;
+
+/**
+ * Sends the invalidations of second level caches to the other nodes of a cluster, and applies theirs.
+ * <p>
+ * A cleared cache is identified by its id. Table and invalidation key invalidations are identified by the names
+ * whose {@link TableVersions} were incremented. Invalidations are best effort: the commit has already happened when
+ * they are published, so implementations should log and drop what they fail to deliver instead of throwing.
+ */
+public interface InvalidationBus {
+
+  /**
+   * Called after a cache was cleared by a write of this node.
+   */
+  void publishClear(String cacheId);
+
+  /**
+   * Called after the versions of tables, namespaces or invalidation keys were incremented by a write of this node.
+   */
+  void publishIncrement(Collection<String> names);
+
+  /**
+   * Starts delivering the invalidations published by the other nodes. Own invalidations must not be delivered.
+   */
+  void subscribe(Listener listener);
+
+  void close();
+
+  interface Listener {
+
+    void cleared(String cacheId);
+
+    void incremented(Collection<String> names);
+
+  }
+
+}
@@ -0,0 +1,72 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter that threads update in different cells, so that frequent updates from many threads do not
+ * contend on a single value. Reading it sums the cells.
+ */
+public class StripedCounter {
+
+  private static final int STRIPES = stripes(Runtime.getRuntime().availableProcessors());
+  // longs per cell, so that two cells never share a cache line
+  private static final int PADDING = 8;
+
+  private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+  public void increment() {
+    add(1);
+  }
+
+  public void add(long value) {
+    cells.getAndAdd(cell(), value);
+  }
+
+  public long sum() {
+    long sum = 0;
+    for (int i = 0; i < STRIPES; i++) {
+      sum += cells.get(i * PADDING);
+    }
+    return sum;
+  }
+
+  /*
+   * Not atomic, an update made at the same time may survive
+   */
+  public void reset() {
+    for (int i = 0; i < STRIPES; i++) {
+      cells.set(i * PADDING, 0);
+    }
+  }
+
+  private static int cell() {
+    long id = Thread.currentThread().getId();
+    //打散连续的线程ID
+    int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+    return ((hash >>> 16) & (STRIPES - 1)) * PADDING;
+  }
+
+  private static int stripes(int processors) {
+    int stripes = 1;
+    while (stripes < processors && stripes < 8) {
+      stripes <<= 1;
+    }
+    return stripes;
+  }
+
+}
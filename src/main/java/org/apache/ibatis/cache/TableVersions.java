@@ -0,0 +1,90 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Version of each table, incremented when a transaction that wrote the table commits.
+ * Namespaces and invalidation keys are versioned the same way, under names that cannot be table names.
+ * <p>
+ * Second level cache entries are stored under keys that include the versions of the tables they were read from,
+ * so a write makes the entries that depend on its tables unreachable, and the eviction policy of the cache drops them.
+ */
+public class TableVersions {
+
+  private final ConcurrentMap<String, AtomicLong> versions = new ConcurrentHashMap<String, AtomicLong>();
+
+  public long getVersion(String table) {
+    AtomicLong version = versions.get(table);
+    return version == null ? 0 : version.get();
+  }
+
+  /*
+   * @return Whether no table has been written yet
+   */
+  public boolean isEmpty() {
+    return versions.isEmpty();
+  }
+
+  public void increment(Iterable<String> tables) {
+    for (String table : tables) {
+      AtomicLong version = versions.get(table);
+      if (version == null) {
+        AtomicLong newVersion = new AtomicLong();
+        version = versions.putIfAbsent(table, newVersion);
+        if (version == null) {
+          version = newVersion;
+        }
+      }
+      version.incrementAndGet();
+    }
+  }
+
+  /*
+   * @return A copy of the versions of the tables written so far
+   */
+  public Map<String, Long> getVersions() {
+    Map<String, Long> copy = new HashMap<String, Long>();
+    for (Map.Entry<String, AtomicLong> entry : versions.entrySet()) {
+      copy.put(entry.getKey(), entry.getValue().get());
+    }
+    return copy;
+  }
+
+  /*
+   * Raises the version of a table to the given one, used to restore the versions of a cache snapshot
+   */
+  public void advance(String table, long target) {
+    AtomicLong version = versions.get(table);
+    if (version == null) {
+      AtomicLong newVersion = new AtomicLong(target);
+      version = versions.putIfAbsent(table, newVersion);
+      if (version == null) {
+        return;
+      }
+    }
+    long current = version.get();
+    while (current < target && !version.compareAndSet(current, target)) {
+      current = version.get();
+    }
+  }
+
+}
@@ -15,23 +15,73 @@
  */
 package org.apache.ibatis.cache;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.ibatis.cache.decorators.TransactionalCache;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
 
 /**
  * 事务缓存管理器
  */
 public class TransactionalCacheManager {
 
+  private static final Log log = LogFactory.getLog(TransactionalCacheManager.class);
+
   private final Map<Cache, TransactionalCache> transactionalCaches = new HashMap<Cache, TransactionalCache>();
+  //本事务写过的表，提交时增加其版本
+  private final Set<String> tablesToInvalidateOnCommit = new HashSet<String>();
+  private TableVersions tableVersions;
+  //通知其他节点缓存失效，可以为null
+  private final InvalidationBus invalidationBus;
+
+  public TransactionalCacheManager() {
+    this(null);
+  }
+
+  public TransactionalCacheManager(InvalidationBus invalidationBus) {
+    this.invalidationBus = invalidationBus;
+  }
 
   public void clear(Cache cache) {
     //获取当前事务缓存，并清空
     getTransactionalCache(cache).clear();
   }
 
+  /*
+   * Invalidates the cache entries read from the given tables once the transaction commits
+   */
+  public void invalidate(TableVersions tableVersions, Collection<String> tables) {
+    this.tableVersions = tableVersions;
+    tablesToInvalidateOnCommit.addAll(tables);
+  }
+
+  /*
+   * @return Whether the transaction wrote any table
+   */
+  public boolean isInvalidating() {
+    return !tablesToInvalidateOnCommit.isEmpty();
+  }
+
+  /*
+   * @return Whether the transaction wrote any of the given tables
+   */
+  public boolean isInvalidated(String[] tables) {
+    if (!tablesToInvalidateOnCommit.isEmpty()) {
+      for (String table : tables) {
+        if (tablesToInvalidateOnCommit.contains(table)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
   public Object getObject(Cache cache, CacheKey key) {
     return getTransactionalCache(cache).getObject(key);
   }
@@ -41,23 +91,40 @@ public class TransactionalCacheManager {
   }
 
   public void commit() {
+    //先使依赖写过的表的缓存失效，再提交本事务的缓存
+    if (!tablesToInvalidateOnCommit.isEmpty()) {
+      tableVersions.increment(tablesToInvalidateOnCommit);
+      publishIncrement();
+      tablesToInvalidateOnCommit.clear();
+    }
     for (TransactionalCache txCache : transactionalCaches.values()) {
       txCache.commit();
     }
   }
 
   public void rollback() {
+    tablesToInvalidateOnCommit.clear();
     for (TransactionalCache txCache : transactionalCaches.values()) {
       txCache.rollback();
     }
   }
 
+  private void publishIncrement() {
+    if (invalidationBus != null) {
+      try {
+        invalidationBus.publishIncrement(new ArrayList<String>(tablesToInvalidateOnCommit));
+      } catch (Exception e) {
+        log.warn("Could not publish the invalidation of " + tablesToInvalidateOnCommit + ".  Cause: " + e);
+      }
+    }
+  }
+
   private TransactionalCache getTransactionalCache(Cache cache) {
     //从事务缓存的缓存中获取当前缓存的事务缓存
     TransactionalCache txCache = transactionalCaches.get(cache);
     //如果当前缓存没有事务缓存，则对当前缓存使用事务缓存装饰一下，并存入缓存中
     if (txCache == null) {
-      txCache = new TransactionalCache(cache);
+      txCache = new TransactionalCache(cache, invalidationBus);
       transactionalCaches.put(cache, txCache);
     }
     //返回当前缓存对事务缓存
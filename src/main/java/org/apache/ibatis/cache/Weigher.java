@@ -0,0 +1,33 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+/**
+ * Estimates how much memory a cached value keeps alive.
+ * <p>
+ * Implementations need a public no-arg constructor so they can be set by class name on the
+ * <code>weigher</code> property of a {@link org.apache.ibatis.cache.decorators.WeightedCache}.
+ */
+public interface Weigher {
+
+  /**
+   * @param key The key the value is cached under
+   * @param value The result of a select, may be null. The byte array it was serialized to when the cache is read-write
+   * @return The estimated size in bytes, not negative
+   */
+  long weigh(Object key, Object value);
+
+}
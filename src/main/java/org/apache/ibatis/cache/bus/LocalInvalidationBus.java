@@ -0,0 +1,81 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.bus;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.ibatis.cache.InvalidationBus;
+
+/**
+ * Delivers invalidations to the other buses of the same channel in this JVM, in the publishing thread.
+ * <p>
+ * Meant for tests and for several configurations in one JVM that share a database.
+ */
+public class LocalInvalidationBus implements InvalidationBus {
+
+  private static final ConcurrentMap<String, List<LocalInvalidationBus>> CHANNELS = new ConcurrentHashMap<String, List<LocalInvalidationBus>>();
+
+  private final List<LocalInvalidationBus> buses;
+  private volatile Listener listener;
+
+  public LocalInvalidationBus(String channel) {
+    List<LocalInvalidationBus> buses = CHANNELS.get(channel);
+    if (buses == null) {
+      List<LocalInvalidationBus> newBuses = new CopyOnWriteArrayList<LocalInvalidationBus>();
+      buses = CHANNELS.putIfAbsent(channel, newBuses);
+      if (buses == null) {
+        buses = newBuses;
+      }
+    }
+    buses.add(this);
+    this.buses = buses;
+  }
+
+  @Override
+  public void publishClear(String cacheId) {
+    for (LocalInvalidationBus bus : buses) {
+      Listener other = bus.listener;
+      if (bus != this && other != null) {
+        other.cleared(cacheId);
+      }
+    }
+  }
+
+  @Override
+  public void publishIncrement(Collection<String> names) {
+    for (LocalInvalidationBus bus : buses) {
+      Listener other = bus.listener;
+      if (bus != this && other != null) {
+        other.incremented(names);
+      }
+    }
+  }
+
+  @Override
+  public void subscribe(Listener listener) {
+    this.listener = listener;
+  }
+
+  @Override
+  public void close() {
+    buses.remove(this);
+  }
+
+}
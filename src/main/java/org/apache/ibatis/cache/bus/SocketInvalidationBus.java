@@ -0,0 +1,356 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.bus;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.InvalidationBus;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * Sends invalidations over TCP to a fixed list of peers, and receives theirs on a port of its own.
+ * <p>
+ * Each node listens on its own address and adds the addresses of the other nodes as peers. Invalidations are
+ * queued and sent by a background thread, so a slow or unreachable peer does not hold up commits. A peer that
+ * cannot be reached misses the invalidations published meanwhile and is connected again after a delay that grows
+ * with each failure, so caches should still have a flushInterval as a bound on staleness. Idle connections carry a
+ * heartbeat, and a connection that stays silent longer than the read timeout is dropped.
+ */
+public class SocketInvalidationBus implements InvalidationBus {
+
+  private static final Log log = LogFactory.getLog(SocketInvalidationBus.class);
+
+  private static final byte HEARTBEAT = 0;
+  private static final byte CLEAR = 1;
+  private static final byte INCREMENT = 2;
+  private static final int CONNECT_TIMEOUT = 1000;
+  private static final int HEARTBEAT_INTERVAL = 10000;
+  private static final int READ_TIMEOUT = 3 * HEARTBEAT_INTERVAL;
+  private static final long MIN_RECONNECT_DELAY = 100;
+  private static final long MAX_RECONNECT_DELAY = 30000;
+  private static final int MAX_PENDING_MESSAGES = 10000;
+  private static final int MAX_NAMES = 10000;
+
+  private final ServerSocket serverSocket;
+  private final List<Peer> peers = new CopyOnWriteArrayList<Peer>();
+  private final BlockingQueue<Message> pending = new LinkedBlockingQueue<Message>(MAX_PENDING_MESSAGES);
+  private final Set<Socket> accepted = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+  private final Thread sender;
+  private volatile Listener listener;
+  private volatile boolean closed;
+
+  /**
+   * Listens on the loopback address, for nodes on the same host.
+   *
+   * @param port - the port to listen on, 0 for any free port
+   */
+  public SocketInvalidationBus(int port) {
+    this(loopback(port));
+  }
+
+  public SocketInvalidationBus(InetSocketAddress address) {
+    try {
+      serverSocket = new ServerSocket();
+      serverSocket.bind(address);
+    } catch (IOException e) {
+      throw new CacheException("Could not listen for cache invalidations on " + address + ".  Cause: " + e, e);
+    }
+    Thread acceptor = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        accept();
+      }
+    }, "SocketInvalidationBus-" + serverSocket.getLocalPort());
+    acceptor.setDaemon(true);
+    acceptor.start();
+    sender = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        send();
+      }
+    }, "SocketInvalidationBus-" + serverSocket.getLocalPort() + "-sender");
+    sender.setDaemon(true);
+    sender.start();
+  }
+
+  public int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  public void addPeer(InetSocketAddress peer) {
+    peers.add(new Peer(peer));
+  }
+
+  @Override
+  public void publishClear(String cacheId) {
+    publish(CLEAR, Collections.singletonList(cacheId));
+  }
+
+  @Override
+  public void publishIncrement(Collection<String> names) {
+    publish(INCREMENT, names);
+  }
+
+  @Override
+  public void subscribe(Listener listener) {
+    this.listener = listener;
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    sender.interrupt();
+    closeQuietly(serverSocket);
+    for (Socket socket : accepted) {
+      closeQuietly(socket);
+    }
+    for (Peer peer : peers) {
+      peer.disconnect();
+    }
+    peers.clear();
+  }
+
+  private void publish(byte type, Collection<String> names) {
+    if (closed) {
+      return;
+    }
+    if (!pending.offer(new Message(type, new ArrayList<String>(names)))) {
+      log.warn("Dropped cache invalidation of " + names + ", " + MAX_PENDING_MESSAGES + " invalidations are waiting to be sent.");
+    }
+  }
+
+  private void send() {
+    Message heartbeat = new Message(HEARTBEAT, Collections.<String>emptyList());
+    while (!closed) {
+      Message message;
+      try {
+        message = pending.poll(HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        return;
+      }
+      for (Peer peer : peers) {
+        peer.send(message == null ? heartbeat : message);
+      }
+    }
+  }
+
+  private void accept() {
+    while (!closed) {
+      final Socket socket;
+      try {
+        socket = serverSocket.accept();
+        socket.setSoTimeout(READ_TIMEOUT);
+      } catch (IOException e) {
+        if (!closed) {
+          log.warn("Stopped accepting cache invalidations.  Cause: " + e);
+        }
+        return;
+      }
+      accepted.add(socket);
+      Thread reader = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            receive(socket);
+          } finally {
+            accepted.remove(socket);
+            closeQuietly(socket);
+          }
+        }
+      }, "SocketInvalidationBus-" + serverSocket.getLocalPort() + "-" + socket.getPort());
+      reader.setDaemon(true);
+      reader.start();
+    }
+  }
+
+  private void receive(Socket socket) {
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      while (true) {
+        byte type = in.readByte();
+        int size = in.readInt();
+        if (size < 0 || size > MAX_NAMES) {
+          throw new IOException("Invalid number of names " + size + " in cache invalidation.");
+        }
+        List<String> names = new ArrayList<String>(size);
+        for (int i = 0; i < size; i++) {
+          names.add(in.readUTF());
+        }
+        if (type != HEARTBEAT) {
+          deliver(type, names);
+        }
+      }
+    } catch (EOFException e) {
+      // the peer closed its connection
+    } catch (SocketTimeoutException e) {
+      log.warn("Dropped silent connection from " + socket.getRemoteSocketAddress() + ".");
+    } catch (IOException e) {
+      if (!closed) {
+        log.warn("Stopped receiving cache invalidations from " + socket.getRemoteSocketAddress() + ".  Cause: " + e);
+      }
+    }
+  }
+
+  private void deliver(byte type, List<String> names) {
+    Listener current = listener;
+    if (current == null) {
+      return;
+    }
+    try {
+      if (type == CLEAR) {
+        for (String cacheId : names) {
+          current.cleared(cacheId);
+        }
+      } else {
+        current.incremented(names);
+      }
+    } catch (RuntimeException e) {
+      log.warn("Could not apply cache invalidation of " + names + ".  Cause: " + e);
+    }
+  }
+
+  private static InetSocketAddress loopback(int port) {
+    try {
+      return new InetSocketAddress(InetAddress.getByName(null), port);
+    } catch (UnknownHostException e) {
+      throw new CacheException("Could not find the loopback address.  Cause: " + e, e);
+    }
+  }
+
+  private static void closeQuietly(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException e) {
+      // ignore
+    }
+  }
+
+  private static void closeQuietly(ServerSocket serverSocket) {
+    try {
+      serverSocket.close();
+    } catch (IOException e) {
+      // ignore
+    }
+  }
+
+  private static class Message {
+    private final byte type;
+    private final List<String> names;
+
+    Message(byte type, List<String> names) {
+      this.type = type;
+      this.names = names;
+    }
+  }
+
+  /**
+   * A peer and its connection, only used by the sender thread except for disconnect().
+   */
+  private static class Peer {
+    private final InetSocketAddress address;
+    private volatile Socket socket;
+    private volatile DataOutputStream out;
+    private long reconnectDelay;
+    private long nextConnect;
+
+    Peer(InetSocketAddress address) {
+      this.address = address;
+    }
+
+    void send(Message message) {
+      DataOutputStream current = out;
+      if (current == null) {
+        if (System.currentTimeMillis() < nextConnect) {
+          // still backing off, the peer misses this message
+          return;
+        }
+        try {
+          current = connect();
+        } catch (IOException e) {
+          backOff(e);
+          return;
+        }
+      }
+      try {
+        current.writeByte(message.type);
+        current.writeInt(message.names.size());
+        for (String name : message.names) {
+          current.writeUTF(name);
+        }
+        current.flush();
+      } catch (IOException e) {
+        disconnect();
+        backOff(e);
+      }
+    }
+
+    private DataOutputStream connect() throws IOException {
+      Socket newSocket = new Socket();
+      try {
+        newSocket.connect(address, CONNECT_TIMEOUT);
+        newSocket.setTcpNoDelay(true);
+        newSocket.setKeepAlive(true);
+        DataOutputStream newOut = new DataOutputStream(new BufferedOutputStream(newSocket.getOutputStream()));
+        socket = newSocket;
+        out = newOut;
+        reconnectDelay = 0;
+        return newOut;
+      } catch (IOException e) {
+        closeQuietly(newSocket);
+        throw e;
+      }
+    }
+
+    private void backOff(IOException e) {
+      reconnectDelay = reconnectDelay == 0 ? MIN_RECONNECT_DELAY : Math.min(reconnectDelay * 2, MAX_RECONNECT_DELAY);
+      nextConnect = System.currentTimeMillis() + reconnectDelay;
+      log.warn("Could not send cache invalidation to " + address + ", retrying in " + reconnectDelay + " ms.  Cause: " + e);
+    }
+
+    void disconnect() {
+      Socket current = socket;
+      if (current != null) {
+        closeQuietly(current);
+      }
+      socket = null;
+      out = null;
+    }
+  }
+
+}
@@ -16,10 +16,9 @@
 package org.apache.ibatis.cache.decorators;
 
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
@@ -27,8 +26,10 @@ import org.apache.ibatis.cache.CacheException;
 /**
  * 简单阻塞装饰器
  *
- * 当前缓存中不存在时对缓存缓存的key加锁，其它线程就只能一直等到这个元素保存到缓存中
- * 由于对每个key都保存了锁对象，如果在大量查询中使用可能存在OOM都风险
+ * 缓存中不存在时第一个线程负责加载，同一个key的其它线程等待这次加载，直到它放入缓存或放弃
+ * 加载结束后等待对象即被删除，只有正在加载的key占用内存
+ * 加载放弃时（回滚）等待的线程立刻被唤醒，由其中一个线程重新加载，而不是等到超时
+ * 加载失败时（failLoad）等待的线程立刻抛出同一个异常，不会一个接一个地重新执行失败的查询
  * @author Eduardo Macarron
  *
  */
@@ -37,12 +38,12 @@ public class BlockingCache implements Cache {
   private long timeout;
   //委派代表
   private final Cache delegate;
-  //缓存key和锁的映射关系
-  private final ConcurrentHashMap<Object, ReentrantLock> locks;
+  //正在加载的key和加载的映射关系
+  private final ConcurrentHashMap<Object, Load> loads;
 
   public BlockingCache(Cache delegate) {
     this.delegate = delegate;
-    this.locks = new ConcurrentHashMap<Object, ReentrantLock>();
+    this.loads = new ConcurrentHashMap<Object, Load>();
   }
 
   //获取ID，直接委派给delegate处理
@@ -56,38 +57,71 @@ public class BlockingCache implements Cache {
     return delegate.getSize();
   }
 
-  //放置缓存，结束后释放锁； 注意在方缓存前是没有加锁的
-  //该处设置是和获取缓存有很大关系
+  //放置缓存，结束后唤醒等待的线程，任何线程放入的值都可以结束加载
   @Override
   public void putObject(Object key, Object value) {
     try {
       delegate.putObject(key, value);
     } finally {
-      releaseLock(key);
+      Load load = loads.get(key);
+      if (load != null) {
+        finishLoad(key, load);
+      }
     }
   }
 
   @Override
   public Object getObject(Object key) {
-    //获取锁
-    acquireLock(key);
-    //获取缓存数据
-    Object value = delegate.getObject(key);
-    //如果缓存数据存在则释放锁，否则返回，注意，此时锁没有释放；下一个线程获取的时候是没有办法
-    //获取锁，只能等待；记住 put结束的时候会释放锁，这里就是为什么put之前没有获取锁，但是结束后要释放锁的原因
-    if (value != null) {
-      releaseLock(key);
-    }        
-    return value;
+    while (true) {
+      Object value = delegate.getObject(key);
+      if (value != null) {
+        return value;
+      }
+      Load load = new Load();
+      Load inFlight = loads.putIfAbsent(key, load);
+      if (inFlight == null) {
+        //成为加载线程前再查一次，值可能在两次操作之间被放入
+        value = delegate.getObject(key);
+        if (value != null) {
+          finishLoad(key, load);
+        }
+        //返回null，当前线程负责加载并在之后调用putObject或removeObject
+        return value;
+      }
+      if (inFlight.loader == Thread.currentThread()) {
+        //同一线程再次读取正在加载的key，不能等待自己
+        return null;
+      }
+      awaitLoad(key, inFlight);
+      if (inFlight.failure != null) {
+        throw new CacheException("Loading the key " + key + " of the cache " + delegate.getId()
+            + " failed in another thread.  Cause: " + inFlight.failure, inFlight.failure);
+      }
+    }
   }
 
   @Override
   public Object removeObject(Object key) {
-    // despite of its name, this method is called only to release locks
-    releaseLock(key);
+    // despite of its name, this method is called only to give up a load
+    Load load = loads.get(key);
+    if (load != null && load.loader == Thread.currentThread()) {
+      finishLoad(key, load);
+    }
     return null;
   }
 
+  /*
+   * Gives up the load of the key by the current thread because it failed. The threads waiting for it throw
+   * a CacheException with the cause instead of loading the key again.
+   */
+  public void failLoad(Object key, Throwable cause) {
+    Load load = loads.get(key);
+    if (load != null && load.loader == Thread.currentThread()) {
+      load.failure = cause;
+      finishLoad(key, load);
+    }
+  }
+
   @Override
   public void clear() {
     delegate.clear();
@@ -97,34 +131,25 @@ public class BlockingCache implements Cache {
   public ReadWriteLock getReadWriteLock() {
     return null;
   }
-  
-  private ReentrantLock getLockForKey(Object key) {
-    ReentrantLock lock = new ReentrantLock();
-    ReentrantLock previous = locks.putIfAbsent(key, lock);
-    return previous == null ? lock : previous;
-  }
-  
-  private void acquireLock(Object key) {
-    Lock lock = getLockForKey(key);
-    if (timeout > 0) {
-      try {
-        boolean acquired = lock.tryLock(timeout, TimeUnit.MILLISECONDS);
-        if (!acquired) {
-          throw new CacheException("Couldn't get a lock in " + timeout + " for the key " +  key + " at the cache " + delegate.getId());  
+
+  private void awaitLoad(Object key, Load load) {
+    try {
+      if (timeout > 0) {
+        boolean loaded = load.done.await(timeout, TimeUnit.MILLISECONDS);
+        if (!loaded) {
+          throw new CacheException("Couldn't get a lock in " + timeout + " for the key " +  key + " at the cache " + delegate.getId());
         }
-      } catch (InterruptedException e) {
-        throw new CacheException("Got interrupted while trying to acquire lock for key " + key, e);
+      } else {
+        load.done.await();
       }
-    } else {
-      lock.lock();
+    } catch (InterruptedException e) {
+      throw new CacheException("Got interrupted while trying to acquire lock for key " + key, e);
     }
   }
-  
-  private void releaseLock(Object key) {
-    ReentrantLock lock = locks.get(key);
-    if (lock.isHeldByCurrentThread()) {
-      lock.unlock();
-    }
+
+  private void finishLoad(Object key, Load load) {
+    loads.remove(key, load);
+    load.done.countDown();
   }
 
   public long getTimeout() {
@@ -133,5 +158,12 @@ public class BlockingCache implements Cache {
 
   public void setTimeout(long timeout) {
     this.timeout = timeout;
-  }  
-}
\ No newline at end of file
+  }
+
+  private static class Load {
+    private final Thread loader = Thread.currentThread();
+    private final CountDownLatch done = new CountDownLatch(1);
+    //加载失败的原因，在countDown之前写入，等待的线程在await之后读取
+    private volatile Throwable failure;
+  }
+}
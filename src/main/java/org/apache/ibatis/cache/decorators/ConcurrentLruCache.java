@@ -0,0 +1,156 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.ibatis.cache.Cache;
+
+/**
+ * Thread safe Lru (least recently used) cache decorator.
+ * <p>
+ * Reads go straight to the delegate and only queue the key in a buffer. The buffer is replayed
+ * against the access order under a lock that reads only try to take, so a read never waits.
+ * When the buffer is full further reads are not recorded, the order is then approximate.
+ */
+public class ConcurrentLruCache implements Cache {
+
+  private static final int DRAIN_THRESHOLD = 32;
+  private static final int MAX_PENDING_READS = 1024;
+
+  private final Cache delegate;
+  private final ReentrantLock evictionLock = new ReentrantLock();
+  private final Queue<Object> readBuffer = new ConcurrentLinkedQueue<Object>();
+  private final AtomicInteger pendingReads = new AtomicInteger();
+  private Map<Object, Object> keyMap;
+  private int size;
+
+  public ConcurrentLruCache(Cache delegate) {
+    this.delegate = delegate;
+    setSize(1024);
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  public void setSize(int size) {
+    evictionLock.lock();
+    try {
+      this.size = size;
+      this.keyMap = new LinkedHashMap<Object, Object>(size, .75F, true);
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    delegate.putObject(key, value);
+    evictionLock.lock();
+    try {
+      drainReadBuffer();
+      keyMap.put(key, key);
+      evictEldest();
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    Object value = delegate.getObject(key);
+    recordRead(key);
+    return value;
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    // removed together with the key under the lock, a concurrent put could otherwise
+    // leave an entry in the delegate that is not in the access order and never evicted
+    evictionLock.lock();
+    try {
+      keyMap.remove(key);
+      return delegate.removeObject(key);
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  @Override
+  public void clear() {
+    evictionLock.lock();
+    try {
+      delegate.clear();
+      keyMap.clear();
+      readBuffer.clear();
+      pendingReads.set(0);
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  private void recordRead(Object key) {
+    int pending = pendingReads.get();
+    if (pending < MAX_PENDING_READS) {
+      pendingReads.incrementAndGet();
+      readBuffer.offer(key);
+      pending++;
+    }
+    if (pending >= DRAIN_THRESHOLD && evictionLock.tryLock()) {
+      try {
+        drainReadBuffer();
+      } finally {
+        evictionLock.unlock();
+      }
+    }
+  }
+
+  private void drainReadBuffer() {
+    Object key;
+    while ((key = readBuffer.poll()) != null) {
+      pendingReads.decrementAndGet();
+      // touches the key, a key that is not cached is not added
+      keyMap.get(key);
+    }
+  }
+
+  private void evictEldest() {
+    while (keyMap.size() > size) {
+      Object eldestKey = keyMap.keySet().iterator().next();
+      keyMap.remove(eldestKey);
+      delegate.removeObject(eldestKey);
+    }
+  }
+
+}
@@ -0,0 +1,101 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+
+/**
+ * 记录每个条目放入时间的装饰器，供 RefreshAheadCache 判断条目是否需要刷新
+ * CacheBuilder 把它放在淘汰装饰器之下，被淘汰的条目经过 removeObject 同时删除放入时间
+ *
+ */
+public class PutTimeCache implements Cache {
+
+  private final Cache delegate;
+  //每个key放入缓存的时间
+  private final ConcurrentMap<Object, Long> putTimes = new ConcurrentHashMap<Object, Long>();
+
+  public PutTimeCache(Cache delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    delegate.putObject(key, value);
+    putTimes.put(key, System.currentTimeMillis());
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    return delegate.getObject(key);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    putTimes.remove(key);
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    putTimes.clear();
+    delegate.clear();
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  /*
+   * @return The time the entry was put in milliseconds, null if it is not cached
+   */
+  public Long getPutTime(Object key) {
+    return putTimes.get(key);
+  }
+
+  /*
+   * Sets the put time of a cached entry back to the time it was put before a restart
+   */
+  public void restorePutTime(Object key, long putTime) {
+    putTimes.replace(key, putTime);
+  }
+
+  @Override
+  public int hashCode() {
+    return delegate.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return delegate.equals(obj);
+  }
+
+}
@@ -0,0 +1,187 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * 提前刷新装饰器
+ *
+ * 条目在缓存中超过 refreshInterval 毫秒后仍然返回旧值，同时由 CachingExecutor 调用 refresh 在后台重新查询
+ * 每个key同时只有一个刷新任务，刷新期间缓存被清空时丢弃刷新结果，避免把旧数据写回缓存
+ * 放入时间由 PutTimeCache 记录，CacheBuilder 把它放在淘汰装饰器之下，被淘汰的条目不会留下放入时间
+ *
+ */
+public class RefreshAheadCache implements Cache {
+
+  private static final Log log = LogFactory.getLog(RefreshAheadCache.class);
+
+  private static final ThreadPoolExecutor refreshExecutor = new ThreadPoolExecutor(2, 2, 0L, TimeUnit.MILLISECONDS,
+      new LinkedBlockingQueue<Runnable>(1024), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "RefreshAheadCache-refresher");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
+  private final Cache delegate;
+  //刷新间隔
+  private long refreshInterval;
+  //记录每个key放入缓存的时间
+  private final PutTimeCache putTimes;
+  //正在刷新的key
+  private final ConcurrentMap<Object, Boolean> refreshing = new ConcurrentHashMap<Object, Boolean>();
+  //每次清空缓存加一
+  private long generation;
+
+  public RefreshAheadCache(Cache delegate) {
+    this.putTimes = new PutTimeCache(delegate);
+    this.delegate = putTimes;
+    this.refreshInterval = 60 * 1000; // 1 minute
+  }
+
+  /*
+   * @param putTimes - 在 delegate 之下记录放入时间的装饰器
+   */
+  public RefreshAheadCache(Cache delegate, PutTimeCache putTimes) {
+    this.putTimes = putTimes;
+    this.delegate = delegate;
+    this.refreshInterval = 60 * 1000; // 1 minute
+  }
+
+  public long getRefreshInterval() {
+    return refreshInterval;
+  }
+
+  public void setRefreshInterval(long refreshInterval) {
+    this.refreshInterval = refreshInterval;
+  }
+
+  public Cache getDelegate() {
+    return delegate;
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    delegate.putObject(key, value);
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    return delegate.getObject(key);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public synchronized void clear() {
+    generation++;
+    delegate.clear();
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  /*
+   * @return True if the entry was cached more than refreshInterval ago and is not being refreshed
+   */
+  public boolean needsRefresh(Object key) {
+    Long putTime = putTimes.getPutTime(key);
+    return putTime != null
+        && System.currentTimeMillis() - putTime > refreshInterval
+        && !refreshing.containsKey(key);
+  }
+
+  /*
+   * Reloads an entry in the background, unless it is already being reloaded
+   *
+   * @param loader - runs the query the entry was cached for
+   */
+  public void refresh(final Object key, final Callable<Object> loader) {
+    if (refreshing.putIfAbsent(key, Boolean.TRUE) != null) {
+      return;
+    }
+    final long startGeneration = currentGeneration();
+    try {
+      refreshExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            Object value = loader.call();
+            putIfNotCleared(key, value, startGeneration);
+          } catch (Exception e) {
+            log.warn("Refreshing an entry of cache " + getId() + " failed: " + e.getMessage());
+          } finally {
+            refreshing.remove(key);
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // too many refreshes pending, the entry is refreshed on a later read
+      refreshing.remove(key);
+    }
+  }
+
+  private synchronized long currentGeneration() {
+    return generation;
+  }
+
+  private synchronized void putIfNotCleared(Object key, Object value, long startGeneration) {
+    if (generation == startGeneration) {
+      putObject(key, value);
+    }
+  }
+
+  @Override
+  public int hashCode() {
+    return delegate.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return delegate.equals(obj);
+  }
+
+}
@@ -15,17 +15,42 @@
  */
 package org.apache.ibatis.cache.decorators;
 
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
 
 /**
- * 定期清空缓存的装饰器，其清空缓存的策略使用的是懒惰清空方式
- * 在 getSize,putObject, getObject removeObject的时候会触发清空检查
+ * 按条目过期的装饰器，每个条目在放入缓存 clearInterval 毫秒后过期
+ * 在 getObject 的时候懒惰检查过期，另有后台线程每隔 clearInterval 清理过期条目
+ * clearJitter 让条目提前最多 clearJitter 毫秒过期，避免同一时间放入的条目同时过期
+ * CacheBuilder 把它放在淘汰装饰器之下，被淘汰的条目经过 removeObject 同时删除过期时间
+ * 过期的条目经过 entrance 删除，淘汰装饰器因此同时删除它们的记录；清理不加锁，逐个用CAS删除过期时间
  *
  */
 public class ScheduledCache implements Cache {
 
+  private static final Log log = LogFactory.getLog(ScheduledCache.class);
+
+  private static final ScheduledExecutorService sweeperExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "ScheduledCache-sweeper");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
   private final Cache delegate;
   //刷新间隔
   protected long clearInterval;
@@ -33,14 +58,41 @@ public class ScheduledCache implements Cache {
   //最后一次清空缓存时间
   protected long lastClear;
 
+  //过期时间抖动
+  protected long clearJitter;
+
+  //每个key的过期时间
+  private final ConcurrentMap<Object, Long> expiries = new ConcurrentHashMap<Object, Long>();
+
+  //过期条目从这里删除，默认是自己，CacheBuilder设置为淘汰装饰器之上加锁后的缓存
+  private volatile Cache entrance;
+
+  private volatile ScheduledFuture<?> sweeper;
+
   public ScheduledCache(Cache delegate) {
     this.delegate = delegate;
     this.clearInterval = 60 * 60 * 1000; // 1 hour
     this.lastClear = System.currentTimeMillis();
+    this.entrance = this;
+  }
+
+  /*
+   * Sets the cache expired entries are removed through, so that the decorators above this one see the removal.
+   * It must lock the cache like the callers of this one do.
+   */
+  public void setEntrance(Cache entrance) {
+    this.entrance = entrance;
   }
 
   public void setClearInterval(long clearInterval) {
     this.clearInterval = clearInterval;
+    if (sweeper != null) {
+      scheduleSweeper();
+    }
+  }
+
+  public void setClearJitter(long clearJitter) {
+    this.clearJitter = clearJitter;
   }
 
   @Override
@@ -50,31 +102,40 @@ public class ScheduledCache implements Cache {
 
   @Override
   public int getSize() {
-    clearWhenStale();
     return delegate.getSize();
   }
 
   @Override
   public void putObject(Object key, Object object) {
-    clearWhenStale();
+    if (sweeper == null) {
+      startSweeper();
+    }
+    //先写过期时间，清理线程拿着旧的过期时间就删除不了新放入的值
+    expiries.put(key, expiryOf(key, currentTimeMillis()));
     delegate.putObject(key, object);
   }
 
   @Override
   public Object getObject(Object key) {
-    return clearWhenStale() ? null : delegate.getObject(key);
+    Long expiry = expiries.get(key);
+    if (expiry != null && currentTimeMillis() >= expiry) {
+      expire(key, expiry);
+      return null;
+    }
+    return delegate.getObject(key);
   }
 
   @Override
   public Object removeObject(Object key) {
-    clearWhenStale();
+    expiries.remove(key);
     return delegate.removeObject(key);
   }
 
   @Override
   public void clear() {
-    lastClear = System.currentTimeMillis();
+    lastClear = currentTimeMillis();
     delegate.clear();
+    expiries.clear();
   }
 
   @Override
@@ -82,6 +143,15 @@ public class ScheduledCache implements Cache {
     return null;
   }
 
+  /*
+   * Sets the expiry of a cached entry back to what it was before a restart
+   *
+   * @param putTime - the time the entry was put before the restart
+   */
+  public void restorePutTime(Object key, long putTime) {
+    expiries.replace(key, expiryOf(key, putTime));
+  }
+
   @Override
   public int hashCode() {
     return delegate.hashCode();
@@ -92,13 +162,81 @@ public class ScheduledCache implements Cache {
     return delegate.equals(obj);
   }
 
-  private boolean clearWhenStale() {
-    //如果当前时间减去最后一次刷新时间大于刷新间隔则需要晴空缓存
-    if (System.currentTimeMillis() - lastClear > clearInterval) {
-      clear();
-      return true;
+  /*
+   * Removes all expired entries, one at a time, without blocking the readers of the other entries
+   */
+  void sweep() {
+    long now = currentTimeMillis();
+    for (Map.Entry<Object, Long> entry : expiries.entrySet()) {
+      if (now >= entry.getValue()) {
+        expire(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  private void expire(Object key, Long expiry) {
+    //只有过期时间没有被新的putObject改变时才删除
+    if (expiries.remove(key, expiry)) {
+      entrance.removeObject(key);
     }
-    return false;
+  }
+
+  //当前时间，测试可以覆盖
+  protected long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+
+  private long expiryOf(Object key, long putTime) {
+    long jitter = 0;
+    if (clearJitter > 0) {
+      //打散hash，连续的hash值也能得到分散的抖动
+      int hash = key.hashCode() * 0x9e3779b9;
+      jitter = ((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % (Math.min(clearJitter, clearInterval) + 1);
+    }
+    return putTime + clearInterval - jitter;
+  }
+
+  private synchronized void startSweeper() {
+    if (sweeper == null) {
+      scheduleSweeper();
+    }
+  }
+
+  private synchronized void scheduleSweeper() {
+    if (sweeper != null) {
+      sweeper.cancel(false);
+    }
+    long interval = Math.max(clearInterval, 1);
+    SweepTask task = new SweepTask(this);
+    sweeper = sweeperExecutor.scheduleWithFixedDelay(task, interval, interval, TimeUnit.MILLISECONDS);
+    task.future = sweeper;
+  }
+
+  private static class SweepTask implements Runnable {
+
+    private final WeakReference<ScheduledCache> cache;
+    private volatile ScheduledFuture<?> future;
+
+    SweepTask(ScheduledCache cache) {
+      this.cache = new WeakReference<ScheduledCache>(cache);
+    }
+
+    @Override
+    public void run() {
+      ScheduledCache scheduledCache = cache.get();
+      if (scheduledCache == null) {
+        if (future != null) {
+          future.cancel(false);
+        }
+        return;
+      }
+      try {
+        scheduledCache.sweep();
+      } catch (Exception e) {
+        log.warn("Sweeping expired entries of cache " + scheduledCache.getId() + " failed: " + e.getMessage());
+      }
+    }
+
   }
 
 }
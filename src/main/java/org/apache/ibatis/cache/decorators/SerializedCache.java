@@ -15,29 +15,49 @@
  */
 package org.apache.ibatis.cache.decorators;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.ObjectStreamClass;
 import java.io.Serializable;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheSerializer;
+import org.apache.ibatis.cache.serializer.JavaSerializer;
 import org.apache.ibatis.io.Resources;
 
 /**
  * 序列化缓存
+ * 默认使用Java序列化，可以通过serializer属性换成其它CacheSerializer，比如CompactSerializer
  */
 public class SerializedCache implements Cache {
 
   private final Cache delegate;
+  //序列化方式
+  private CacheSerializer serializer;
 
   public SerializedCache(Cache delegate) {
+    this(delegate, new JavaSerializer());
+  }
+
+  public SerializedCache(Cache delegate, CacheSerializer serializer) {
     this.delegate = delegate;
+    this.serializer = serializer;
+  }
+
+  //不能命名为getSerializer，否则serializer属性的类型变成CacheSerializer，无法通过cache的property设置
+  public String getSerializerName() {
+    return serializer.getClass().getName();
+  }
+
+  public void setSerializer(String serializer) {
+    try {
+      this.serializer = (CacheSerializer) Resources.classForName(serializer).newInstance();
+    } catch (Exception e) {
+      throw new CacheException("Error creating serializer '" + serializer + "' for cache " + getId() + ".  Cause: " + e, e);
+    }
   }
 
   @Override
@@ -55,7 +75,7 @@ public class SerializedCache implements Cache {
   public void putObject(Object key, Object object) {
     //如果对象为null或者实现了Serializable接口的对象需要进行序列化，否则抛出异常
     if (object == null || object instanceof Serializable) {
-      delegate.putObject(key, serialize((Serializable) object));
+      delegate.putObject(key, serializer.serialize(object));
     } else {
       throw new CacheException("SharedCache failed to make a copy of a non-serializable object: " + object);
     }
@@ -67,7 +87,7 @@ public class SerializedCache implements Cache {
     //从缓存中获取对象
     Object object = delegate.getObject(key);
     //如果对象为null则直接返回null,否则返回反序列化后对象
-    return object == null ? null : deserialize((byte[]) object);
+    return object == null ? null : serializer.deserialize((byte[]) object);
   }
 
   @Override
@@ -95,33 +115,6 @@ public class SerializedCache implements Cache {
     return delegate.equals(obj);
   }
 
-  //对数据进行序列化
-  private byte[] serialize(Serializable value) {
-    try {
-      ByteArrayOutputStream bos = new ByteArrayOutputStream();
-      ObjectOutputStream oos = new ObjectOutputStream(bos);
-      oos.writeObject(value);
-      oos.flush();
-      oos.close();
-      return bos.toByteArray();
-    } catch (Exception e) {
-      throw new CacheException("Error serializing object.  Cause: " + e, e);
-    }
-  }
-  //对数据进行反序列化
-  private Serializable deserialize(byte[] value) {
-    Serializable result;
-    try {
-      ByteArrayInputStream bis = new ByteArrayInputStream(value);
-      ObjectInputStream ois = new CustomObjectInputStream(bis);
-      result = (Serializable) ois.readObject();
-      ois.close();
-    } catch (Exception e) {
-      throw new CacheException("Error deserializing object.  Cause: " + e, e);
-    }
-    return result;
-  }
-
   public static class CustomObjectInputStream extends ObjectInputStream {
 
     public CustomObjectInputStream(InputStream in) throws IOException {
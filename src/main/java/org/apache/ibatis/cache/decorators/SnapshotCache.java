@@ -0,0 +1,166 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+
+/**
+ * Keeps track of the keys of the base cache so that its entries can be written to a
+ * {@link org.apache.ibatis.cache.CacheSnapshot} and loaded again after a restart.
+ * <p>
+ * Sits right above the base cache, where it sees the entries removed by the eviction decorators.
+ * Restored entries are put through the cache set with {@link #setEntrance(Cache)}, so that the
+ * eviction decorators know them too, and keep the time they were first put, so that they expire or are
+ * refreshed as if the application had not been restarted.
+ */
+public class SnapshotCache implements Cache {
+
+  private final Cache delegate;
+  //值是否已经由SerializedCache序列化为byte[]
+  private final boolean serialized;
+  //SerializedCache使用的序列化类名
+  private String serializerName;
+  //每个key放入缓存的时间
+  private final ConcurrentMap<Object, Long> putTimes = new ConcurrentHashMap<Object, Long>();
+  private Cache entrance;
+  private ScheduledCache scheduledCache;
+  private PutTimeCache putTimeCache;
+
+  public SnapshotCache(Cache delegate, boolean serialized) {
+    this.delegate = delegate;
+    this.serialized = serialized;
+    this.entrance = this;
+  }
+
+  /*
+   * Whether the values are the byte arrays of a SerializedCache rather than the cached objects
+   */
+  public boolean isSerialized() {
+    return serialized;
+  }
+
+  /*
+   * The class name of the serializer of the SerializedCache above, null if the values are not serialized
+   */
+  public String getSerializerName() {
+    return serializerName;
+  }
+
+  public void setSerializerName(String serializerName) {
+    this.serializerName = serializerName;
+  }
+
+  public void setEntrance(Cache entrance) {
+    this.entrance = entrance;
+  }
+
+  /*
+   * The decorators between this one and the entrance whose put times are set back on restore, each may be null
+   */
+  public void setPutTimeCaches(ScheduledCache scheduledCache, PutTimeCache putTimeCache) {
+    this.scheduledCache = scheduledCache;
+    this.putTimeCache = putTimeCache;
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    delegate.putObject(key, value);
+    putTimes.put(key, System.currentTimeMillis());
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    return delegate.getObject(key);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    putTimes.remove(key);
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+    putTimes.clear();
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  /*
+   * Copies the cached entries. Meant for shutdown: a non thread safe base cache is read without the lock
+   * of the decorators above, and an entry that cannot be read is left out.
+   */
+  public Map<Object, Object> getEntries() {
+    Map<Object, Object> entries = new LinkedHashMap<Object, Object>();
+    for (Object key : putTimes.keySet()) {
+      try {
+        Object value = delegate.getObject(key);
+        if (value != null) {
+          entries.put(key, value);
+        }
+      } catch (RuntimeException e) {
+        // modified while being read
+      }
+    }
+    return entries;
+  }
+
+  /*
+   * @return The time the entry was put in milliseconds, null if it is not cached
+   */
+  public Long getPutTime(Object key) {
+    return putTimes.get(key);
+  }
+
+  /*
+   * Puts an entry of a snapshot back, in the form {@link #getEntries()} returned it
+   *
+   * @param putTime - the time the entry was put before the restart
+   */
+  public void restore(Object key, Object value, long putTime) {
+    entrance.putObject(key, value);
+    //淘汰装饰器可能已经删除了这个条目
+    if (putTimes.replace(key, putTime) != null) {
+      if (scheduledCache != null) {
+        scheduledCache.restorePutTime(key, putTime);
+      }
+      if (putTimeCache != null) {
+        putTimeCache.restorePutTime(key, putTime);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,108 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
+import org.apache.ibatis.cache.impl.ConcurrentCache;
+
+/**
+ * Records the puts and evictions of the base cache in its {@link CacheStatistics}.
+ * <p>
+ * Sits right above the base cache, where it sees the entries removed by the eviction decorators. A
+ * {@link ConcurrentCache} is not locked, so it reports itself whether a key was added or removed; other base
+ * caches are behind a SynchronizedCache and compared by size.
+ */
+public class StatisticsCache implements Cache {
+
+  private final Cache delegate;
+  //不加锁的基础缓存，大小变化可能来自其他线程
+  private final ConcurrentCache concurrentDelegate;
+  private final CacheStatistics statistics;
+  //put期间基础缓存自己淘汰并经入口删除的条目数，如OffHeapCache清空slab
+  private int evictedDuringPut;
+
+  public StatisticsCache(Cache delegate, CacheStatistics statistics) {
+    this.delegate = delegate;
+    this.concurrentDelegate = delegate instanceof ConcurrentCache ? (ConcurrentCache) delegate : null;
+    this.statistics = statistics;
+    statistics.setCache(delegate);
+  }
+
+  public CacheStatistics getStatistics() {
+    return statistics;
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    if (concurrentDelegate != null) {
+      statistics.recordPut(key, concurrentDelegate.putEntry(key, value));
+      return;
+    }
+    //通过大小变化判断是新增还是替换，不需要额外读一次
+    int size = delegate.getSize();
+    evictedDuringPut = 0;
+    delegate.putObject(key, value);
+    statistics.recordPut(key, delegate.getSize() + evictedDuringPut > size);
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    return delegate.getObject(key);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    if (concurrentDelegate != null) {
+      if (concurrentDelegate.removeEntry(key)) {
+        statistics.recordEviction(key);
+      }
+      // the removed value is not used by callers
+      return null;
+    }
+    int size = delegate.getSize();
+    Object value = delegate.removeObject(key);
+    if (delegate.getSize() < size) {
+      statistics.recordEviction(key);
+      evictedDuringPut++;
+    }
+    return value;
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+    statistics.recordClear();
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+}
@@ -0,0 +1,137 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+
+/**
+ * W-TinyLFU (window tiny least frequently used) cache decorator.
+ * <p>
+ * New keys enter a small Lru window. A key leaving the window only gets into the main Lru area
+ * if it was used more often than the key it would push out, so a single scan over many keys
+ * cannot flush the keys that are used all the time.
+ */
+public class TinyLfuCache implements Cache {
+
+  private final Cache delegate;
+  private Map<Object, Object> window;
+  private Map<Object, Object> main;
+  private FrequencySketch sketch;
+  private int windowSize;
+  private int mainSize;
+
+  public TinyLfuCache(Cache delegate) {
+    this.delegate = delegate;
+    setSize(1024);
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  public void setSize(int size) {
+    // 1% of the entries for the window, as recommended for the original algorithm
+    this.windowSize = Math.max(1, size / 100);
+    this.mainSize = Math.max(0, size - windowSize);
+    this.window = new LinkedHashMap<Object, Object>(windowSize, .75F, true);
+    this.main = new LinkedHashMap<Object, Object>(mainSize, .75F, true);
+    this.sketch = new FrequencySketch(size);
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    delegate.putObject(key, value);
+    sketch.increment(key);
+    if (window.get(key) != null || main.get(key) != null) {
+      return;
+    }
+    window.put(key, key);
+    if (window.size() > windowSize) {
+      Object candidate = removeEldest(window);
+      admit(candidate);
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    Object value = delegate.getObject(key);
+    // a miss is counted by the put that loads the key, so it is not counted twice
+    if (value != null) {
+      sketch.increment(key);
+      if (window.get(key) == null) {
+        main.get(key);
+      }
+    }
+    return value;
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    window.remove(key);
+    main.remove(key);
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+    window.clear();
+    main.clear();
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  private void admit(Object candidate) {
+    if (main.size() < mainSize) {
+      main.put(candidate, candidate);
+      return;
+    }
+    if (mainSize == 0) {
+      delegate.removeObject(candidate);
+      return;
+    }
+    Object victim = main.keySet().iterator().next();
+    if (sketch.frequency(candidate) > sketch.frequency(victim)) {
+      main.remove(victim);
+      delegate.removeObject(victim);
+      main.put(candidate, candidate);
+    } else {
+      delegate.removeObject(candidate);
+    }
+  }
+
+  private static Object removeEldest(Map<Object, Object> map) {
+    Iterator<Object> keys = map.keySet().iterator();
+    Object eldest = keys.next();
+    keys.remove();
+    return eldest;
+  }
+
+}
@@ -22,6 +22,7 @@ import java.util.Set;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.InvalidationBus;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
 
@@ -38,6 +39,8 @@ public class TransactionalCache implements Cache {
   private static final Log log = LogFactory.getLog(TransactionalCache.class);
 
   private final Cache delegate;
+  //通知其他节点缓存已清空，可以为null
+  private final InvalidationBus invalidationBus;
   private boolean clearOnCommit;
   //待提交缓存
   private final Map<Object, Object> entriesToAddOnCommit;
@@ -46,7 +49,12 @@ public class TransactionalCache implements Cache {
   private final Set<Object> entriesMissedInCache;
 
   public TransactionalCache(Cache delegate) {
+    this(delegate, null);
+  }
+
+  public TransactionalCache(Cache delegate, InvalidationBus invalidationBus) {
     this.delegate = delegate;
+    this.invalidationBus = invalidationBus;
     this.clearOnCommit = false;
     this.entriesToAddOnCommit = new HashMap<Object, Object>();
     this.entriesMissedInCache = new HashSet<Object>();
@@ -107,6 +115,7 @@ public class TransactionalCache implements Cache {
     //缓存已经触发过clear方法了
     if (clearOnCommit) {
       delegate.clear();
+      publishClear();
     }
     //刷新缓冲池
     flushPendingEntries();
@@ -140,6 +149,16 @@ public class TransactionalCache implements Cache {
       }
     }
   }
+  private void publishClear() {
+    if (invalidationBus != null) {
+      try {
+        invalidationBus.publishClear(delegate.getId());
+      } catch (Exception e) {
+        log.warn("Could not publish that cache " + delegate.getId() + " was cleared.  Cause: " + e);
+      }
+    }
+  }
+
     //删除丢失到缓存
   private void unlockMissedEntries() {
     for (Object entry : entriesMissedInCache) {
@@ -0,0 +1,142 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.DefaultWeigher;
+import org.apache.ibatis.cache.Weigher;
+import org.apache.ibatis.io.Resources;
+
+/**
+ * Weighted Lru (least recently used) cache decorator. Bounds the estimated memory of the
+ * cached values instead of their number.
+ * <p>
+ * By default values are weighed by a {@link DefaultWeigher}: a list weighs <code>rowWeight</code>
+ * bytes per element, the byte array a read-write cache stores weighs its length and any other value
+ * weighs one row. A {@link Weigher} can be set by class name for a better estimate.
+ */
+public class WeightedCache implements Cache {
+
+  private final Cache delegate;
+  private final Map<Object, Long> weights;
+  private long maxWeight;
+  private long totalWeight;
+  private Weigher defaultWeigher;
+  private Weigher weigher;
+
+  public WeightedCache(Cache delegate) {
+    this.delegate = delegate;
+    this.weights = new LinkedHashMap<Object, Long>(16, .75F, true);
+    this.maxWeight = 64L * 1024 * 1024;
+    this.defaultWeigher = new DefaultWeigher();
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  public long getMaxWeight() {
+    return maxWeight;
+  }
+
+  public void setMaxWeight(long maxWeight) {
+    this.maxWeight = maxWeight;
+    evict();
+  }
+
+  public void setRowWeight(long rowWeight) {
+    this.defaultWeigher = new DefaultWeigher(rowWeight);
+  }
+
+  public void setWeigher(String weigher) {
+    try {
+      this.weigher = (Weigher) Resources.classForName(weigher).newInstance();
+    } catch (Exception e) {
+      throw new CacheException("Error creating weigher '" + weigher + "' for cache " + getId() + ".  Cause: " + e, e);
+    }
+  }
+
+  public long getWeight() {
+    return totalWeight;
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    delegate.putObject(key, value);
+    Long previous = weights.put(key, weigh(key, value));
+    if (previous != null) {
+      totalWeight -= previous;
+    }
+    totalWeight += weights.get(key);
+    evict();
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    // touches the key
+    weights.get(key);
+    return delegate.getObject(key);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    Long weight = weights.remove(key);
+    if (weight != null) {
+      totalWeight -= weight;
+    }
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+    weights.clear();
+    totalWeight = 0;
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  private long weigh(Object key, Object value) {
+    return weigher != null ? weigher.weigh(key, value) : defaultWeigher.weigh(key, value);
+  }
+
+  private void evict() {
+    // a value heavier than the whole budget is not kept either
+    Iterator<Map.Entry<Object, Long>> eldest = weights.entrySet().iterator();
+    while (totalWeight > maxWeight && eldest.hasNext()) {
+      Map.Entry<Object, Long> entry = eldest.next();
+      eldest.remove();
+      totalWeight -= entry.getValue();
+      delegate.removeObject(entry.getKey());
+    }
+  }
+
+}
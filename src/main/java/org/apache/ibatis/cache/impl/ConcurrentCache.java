@@ -0,0 +1,123 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+
+/**
+ * Thread safe base cache. Reads never lock, so it does not need a {@link org.apache.ibatis.cache.decorators.SynchronizedCache}
+ * as long as the decorators in front of it are thread safe too.
+ */
+public class ConcurrentCache implements Cache {
+
+  // ConcurrentHashMap does not accept null values, misses are cached as null on commit
+  private static final Object NULL_VALUE = new Object();
+
+  private final String id;
+
+  private final ConcurrentMap<Object, Object> cache = new ConcurrentHashMap<Object, Object>();
+
+  public ConcurrentCache(String id) {
+    this.id = id;
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  @Override
+  public int getSize() {
+    return cache.size();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    cache.put(key, value == null ? NULL_VALUE : value);
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    return unmask(cache.get(key));
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    return unmask(cache.remove(key));
+  }
+
+  @Override
+  public void clear() {
+    cache.clear();
+  }
+
+  /*
+   * Puts a value like {@link #putObject(Object, Object)}
+   *
+   * @return Whether the key was not cached before
+   */
+  public boolean putEntry(Object key, Object value) {
+    return cache.put(key, value == null ? NULL_VALUE : value) == null;
+  }
+
+  /*
+   * Removes a value like {@link #removeObject(Object)}
+   *
+   * @return Whether the key was cached, even with a null value
+   */
+  public boolean removeEntry(Object key) {
+    return cache.remove(key) != null;
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  private static Object unmask(Object value) {
+    return value == NULL_VALUE ? null : value;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (getId() == null) {
+      throw new CacheException("Cache instances require an ID.");
+    }
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Cache)) {
+      return false;
+    }
+
+    Cache otherCache = (Cache) o;
+    return getId().equals(otherCache.getId());
+  }
+
+  @Override
+  public int hashCode() {
+    if (getId() == null) {
+      throw new CacheException("Cache instances require an ID.");
+    }
+    return getId().hashCode();
+  }
+
+}
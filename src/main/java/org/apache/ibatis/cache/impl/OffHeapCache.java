@@ -0,0 +1,283 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheSerializer;
+import org.apache.ibatis.cache.serializer.JavaSerializer;
+import org.apache.ibatis.io.Resources;
+
+/**
+ * Cache that keeps its values serialized outside of the Java heap.
+ * <p>
+ * Values are appended to direct buffers of <code>slabSize</code> bytes, at most <code>maxMemory</code>
+ * bytes in total. When they are full the oldest slab is emptied and reused, together with all values
+ * written to it. Values of a read-write cache arrive already serialized by the SerializedCache in front
+ * and are stored as is, other values are serialized with the <code>serializer</code>.
+ * <p>
+ * Keys read more than once are also kept on the heap, in a tier of the <code>hotSize</code> most recently
+ * read of them, so they are not copied out of the buffers on every read.
+ * <p>
+ * The keys of an emptied slab are removed through the cache set with {@link #setEntrance(Cache)}, so that
+ * the statistics, expiry and put time decorators above forget them as well.
+ */
+public class OffHeapCache implements Cache {
+
+  private static final int PROMOTION_READS = 2;
+
+  private final String id;
+
+  private final Map<Object, Location> index = new HashMap<Object, Location>();
+  private final LinkedList<Slab> slabs = new LinkedList<Slab>();
+  private final LinkedList<Slab> freeSlabs = new LinkedList<Slab>();
+  private Map<Object, Object> hot;
+  private Cache entrance = this;
+  private CacheSerializer serializer = new JavaSerializer();
+  private long maxMemory = 64L * 1024 * 1024;
+  private int slabSize = 4 * 1024 * 1024;
+  private int hotSize = 256;
+
+  public OffHeapCache(String id) {
+    this.id = id;
+    setHotSize(hotSize);
+  }
+
+  public long getMaxMemory() {
+    return maxMemory;
+  }
+
+  public synchronized void setMaxMemory(long maxMemory) {
+    this.maxMemory = maxMemory;
+    releaseSlabs();
+  }
+
+  public int getSlabSize() {
+    return slabSize;
+  }
+
+  public synchronized void setSlabSize(int slabSize) {
+    this.slabSize = slabSize;
+    releaseSlabs();
+  }
+
+  public int getHotSize() {
+    return hotSize;
+  }
+
+  public synchronized void setHotSize(final int hotSize) {
+    this.hotSize = hotSize;
+    this.hot = new LinkedHashMap<Object, Object>(16, .75F, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
+        return size() > hotSize;
+      }
+    };
+  }
+
+  /*
+   * The decorator the keys of an emptied slab are removed through, so that the decorators
+   * between it and this cache forget them too
+   */
+  public synchronized void setEntrance(Cache entrance) {
+    this.entrance = entrance;
+  }
+
+  public synchronized void setSerializer(String serializer) {
+    try {
+      this.serializer = (CacheSerializer) Resources.classForName(serializer).newInstance();
+    } catch (Exception e) {
+      throw new CacheException("Error creating serializer '" + serializer + "' for cache " + id + ".  Cause: " + e, e);
+    }
+    clear();
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  @Override
+  public synchronized int getSize() {
+    return index.size();
+  }
+
+  @Override
+  public synchronized void putObject(Object key, Object value) {
+    hot.remove(key);
+    index.remove(key);
+    if (value == null) {
+      index.put(key, new Location(null, 0, 0, false));
+      return;
+    }
+    boolean serialized = !(value instanceof byte[]);
+    byte[] bytes = serialized ? serializer.serialize(value) : (byte[]) value;
+    if (bytes.length > slabSize || maxMemory < slabSize) {
+      // does not fit, it is just not cached
+      return;
+    }
+    Slab slab = slabs.isEmpty() ? null : slabs.getLast();
+    if (slab == null || slab.buffer.remaining() < bytes.length) {
+      slab = nextSlab();
+    }
+    int offset = slab.buffer.position();
+    slab.buffer.put(bytes);
+    slab.keys.add(key);
+    index.put(key, new Location(slab, offset, bytes.length, serialized));
+  }
+
+  @Override
+  public synchronized Object getObject(Object key) {
+    Object value = hot.get(key);
+    if (value != null) {
+      return value;
+    }
+    Location location = index.get(key);
+    if (location == null || location.slab == null) {
+      return null;
+    }
+    byte[] bytes = new byte[location.length];
+    ByteBuffer buffer = location.slab.buffer.duplicate();
+    buffer.position(location.offset);
+    buffer.get(bytes);
+    value = location.serialized ? serializer.deserialize(bytes) : bytes;
+    if (++location.reads >= PROMOTION_READS && hotSize > 0) {
+      hot.put(key, value);
+    }
+    return value;
+  }
+
+  @Override
+  public synchronized Object removeObject(Object key) {
+    // the value is not copied out of the buffer just to be returned
+    hot.remove(key);
+    index.remove(key);
+    return null;
+  }
+
+  @Override
+  public synchronized void clear() {
+    hot.clear();
+    index.clear();
+    for (Slab slab : slabs) {
+      slab.reset();
+      freeSlabs.add(slab);
+    }
+    slabs.clear();
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  private Slab nextSlab() {
+    Slab slab;
+    if (!freeSlabs.isEmpty()) {
+      slab = freeSlabs.removeFirst();
+    } else if ((long) (slabs.size() + 1) * slabSize <= maxMemory) {
+      slab = new Slab(ByteBuffer.allocateDirect(slabSize));
+    } else {
+      slab = slabs.removeFirst();
+      for (Object key : slab.keys) {
+        Location location = index.get(key);
+        // the key may have been written again to a newer slab
+        if (location != null && location.slab == slab) {
+          // runs on the thread that holds the lock of the decorators above, it comes back to removeObject
+          entrance.removeObject(key);
+          if (index.get(key) == location) {
+            index.remove(key);
+            hot.remove(key);
+          }
+        }
+      }
+      slab.reset();
+    }
+    slabs.addLast(slab);
+    return slab;
+  }
+
+  private void releaseSlabs() {
+    clear();
+    // allocated again with the new sizes, the old buffers are freed by the garbage collector
+    freeSlabs.clear();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (getId() == null) {
+      throw new CacheException("Cache instances require an ID.");
+    }
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Cache)) {
+      return false;
+    }
+
+    Cache otherCache = (Cache) o;
+    return getId().equals(otherCache.getId());
+  }
+
+  @Override
+  public int hashCode() {
+    if (getId() == null) {
+      throw new CacheException("Cache instances require an ID.");
+    }
+    return getId().hashCode();
+  }
+
+  private static class Slab {
+    private final ByteBuffer buffer;
+    private final List<Object> keys = new ArrayList<Object>();
+
+    Slab(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    void reset() {
+      buffer.clear();
+      keys.clear();
+    }
+  }
+
+  private static class Location {
+    private final Slab slab;
+    private final int offset;
+    private final int length;
+    private final boolean serialized;
+    private int reads;
+
+    Location(Slab slab, int offset, int length, boolean serialized) {
+      this.slab = slab;
+      this.offset = offset;
+      this.length = length;
+      this.serialized = serialized;
+    }
+  }
+
+}
@@ -0,0 +1,611 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.serializer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheSerializer;
+import org.apache.ibatis.executor.loader.WriteReplaceInterface;
+import org.apache.ibatis.io.Resources;
+
+/**
+ * Compact binary serializer for read-write caches.
+ * <p>
+ * Strings, numbers, dates, the common collections and arrays are written without any class
+ * description. Other objects are written field by field, naming each class only once per value,
+ * and are read back through their no-arg constructor, which also sets their transient fields.
+ * Shared and circular references are kept. Objects of classes that customize their serialization,
+ * have no no-arg constructor or belong to the JDK are embedded with Java serialization.
+ * <p>
+ * A hash of the names and types of the fields is written with the first object of each class, and
+ * a value written before the fields of its class changed is rejected instead of being misread.
+ */
+public class CompactSerializer implements CacheSerializer {
+
+  private static final byte NULL = 0;
+  private static final byte REFERENCE = 1;
+  private static final byte STRING = 2;
+  private static final byte INTEGER = 3;
+  private static final byte LONG = 4;
+  private static final byte SHORT = 5;
+  private static final byte BYTE = 6;
+  private static final byte BOOLEAN = 7;
+  private static final byte CHARACTER = 8;
+  private static final byte FLOAT = 9;
+  private static final byte DOUBLE = 10;
+  private static final byte BIG_DECIMAL = 11;
+  private static final byte BIG_INTEGER = 12;
+  private static final byte DATE = 13;
+  private static final byte TIMESTAMP = 14;
+  private static final byte BYTES = 15;
+  private static final byte COLLECTION = 16;
+  private static final byte MAP = 17;
+  private static final byte ARRAY = 18;
+  private static final byte ENUM = 19;
+  private static final byte OBJECT = 20;
+  private static final byte JAVA = 21;
+
+  private static final List<Class<?>> COLLECTION_TYPES = Arrays.<Class<?>>asList(
+      ArrayList.class, LinkedList.class, HashSet.class, LinkedHashSet.class);
+  private static final List<Class<?>> MAP_TYPES = Arrays.<Class<?>>asList(
+      HashMap.class, LinkedHashMap.class);
+  private static final Map<String, Class<?>> PRIMITIVE_TYPES = new HashMap<String, Class<?>>();
+
+  static {
+    for (Class<?> type : new Class<?>[] { int.class, long.class, short.class, byte.class, boolean.class,
+        char.class, float.class, double.class }) {
+      PRIMITIVE_TYPES.put(type.getName(), type);
+    }
+  }
+
+  private static final ConcurrentMap<Class<?>, ClassInfo> classInfos = new ConcurrentHashMap<Class<?>, ClassInfo>();
+
+  private final JavaSerializer javaSerializer = new JavaSerializer();
+
+  @Override
+  public byte[] serialize(Object value) {
+    try {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bos);
+      new Writer(out).write(value);
+      out.flush();
+      return bos.toByteArray();
+    } catch (Exception e) {
+      throw new CacheException("Error serializing object.  Cause: " + e, e);
+    }
+  }
+
+  @Override
+  public Object deserialize(byte[] value) {
+    try {
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(value));
+      return new Reader(in).read();
+    } catch (CacheException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new CacheException("Error deserializing object.  Cause: " + e, e);
+    }
+  }
+
+  /**
+   * A hash of the names and types of the fields of a class and its superclasses, which changes when a
+   * field is added, removed, renamed or retyped. Classes of the JDK have none.
+   *
+   * @param type The class
+   * @return The hash of its fields, 0 for a class of the JDK
+   */
+  public static int layoutOf(Class<?> type) {
+    if (type.getName().startsWith("java.") || type.getName().startsWith("javax.")) {
+      return 0;
+    }
+    List<Field> fields = new ArrayList<Field>();
+    ClassInfo.addFields(type, fields);
+    return ClassInfo.layoutOf(fields.toArray(new Field[fields.size()]));
+  }
+
+  private static ClassInfo classInfo(Class<?> type) {
+    ClassInfo info = classInfos.get(type);
+    if (info == null) {
+      info = new ClassInfo(type);
+      ClassInfo previous = classInfos.putIfAbsent(type, info);
+      if (previous != null) {
+        info = previous;
+      }
+    }
+    return info;
+  }
+
+  private class Writer {
+
+    private final DataOutputStream out;
+    private final Map<Object, Integer> handles = new IdentityHashMap<Object, Integer>();
+    private final Map<Class<?>, Integer> classes = new HashMap<Class<?>, Integer>();
+    private final Set<Class<?>> layouts = new HashSet<Class<?>>();
+
+    Writer(DataOutputStream out) {
+      this.out = out;
+    }
+
+    void write(Object value) throws Exception {
+      if (value == null) {
+        out.writeByte(NULL);
+        return;
+      }
+      Integer handle = handles.get(value);
+      if (handle != null) {
+        out.writeByte(REFERENCE);
+        out.writeInt(handle);
+        return;
+      }
+      handles.put(value, handles.size());
+      Class<?> type = value.getClass();
+      if (type == String.class) {
+        out.writeByte(STRING);
+        writeString((String) value);
+      } else if (type == Integer.class) {
+        out.writeByte(INTEGER);
+        out.writeInt((Integer) value);
+      } else if (type == Long.class) {
+        out.writeByte(LONG);
+        out.writeLong((Long) value);
+      } else if (type == Short.class) {
+        out.writeByte(SHORT);
+        out.writeShort((Short) value);
+      } else if (type == Byte.class) {
+        out.writeByte(BYTE);
+        out.writeByte((Byte) value);
+      } else if (type == Boolean.class) {
+        out.writeByte(BOOLEAN);
+        out.writeBoolean((Boolean) value);
+      } else if (type == Character.class) {
+        out.writeByte(CHARACTER);
+        out.writeChar((Character) value);
+      } else if (type == Float.class) {
+        out.writeByte(FLOAT);
+        out.writeFloat((Float) value);
+      } else if (type == Double.class) {
+        out.writeByte(DOUBLE);
+        out.writeDouble((Double) value);
+      } else if (type == BigDecimal.class) {
+        out.writeByte(BIG_DECIMAL);
+        writeBytes(((BigDecimal) value).unscaledValue().toByteArray());
+        out.writeInt(((BigDecimal) value).scale());
+      } else if (type == BigInteger.class) {
+        out.writeByte(BIG_INTEGER);
+        writeBytes(((BigInteger) value).toByteArray());
+      } else if (type == java.util.Date.class || type == java.sql.Date.class || type == java.sql.Time.class) {
+        out.writeByte(DATE);
+        writeClass(type);
+        out.writeLong(((java.util.Date) value).getTime());
+      } else if (type == Timestamp.class) {
+        out.writeByte(TIMESTAMP);
+        out.writeLong(((Timestamp) value).getTime());
+        out.writeInt(((Timestamp) value).getNanos());
+      } else if (type == byte[].class) {
+        out.writeByte(BYTES);
+        writeBytes((byte[]) value);
+      } else if (COLLECTION_TYPES.contains(type)) {
+        out.writeByte(COLLECTION);
+        writeClass(type);
+        Collection<?> collection = (Collection<?>) value;
+        out.writeInt(collection.size());
+        for (Object element : collection) {
+          write(element);
+        }
+      } else if (MAP_TYPES.contains(type)) {
+        out.writeByte(MAP);
+        writeClass(type);
+        Map<?, ?> map = (Map<?, ?>) value;
+        out.writeInt(map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+          write(entry.getKey());
+          write(entry.getValue());
+        }
+      } else if (type.isArray()) {
+        out.writeByte(ARRAY);
+        Class<?> componentType = type.getComponentType();
+        writeClass(componentType);
+        int length = Array.getLength(value);
+        out.writeInt(length);
+        for (int i = 0; i < length; i++) {
+          if (componentType.isPrimitive()) {
+            writePrimitive(componentType, Array.get(value, i));
+          } else {
+            write(Array.get(value, i));
+          }
+        }
+      } else if (value instanceof Enum) {
+        out.writeByte(ENUM);
+        writeClass(((Enum<?>) value).getDeclaringClass());
+        writeString(((Enum<?>) value).name());
+      } else {
+        ClassInfo info = classInfo(type);
+        if (info.fields == null) {
+          out.writeByte(JAVA);
+          writeBytes(javaSerializer.serialize(value));
+        } else {
+          out.writeByte(OBJECT);
+          writeClass(type);
+          if (layouts.add(type)) {
+            out.writeInt(info.layout);
+          }
+          for (Field field : info.fields) {
+            if (field.getType().isPrimitive()) {
+              writePrimitive(field.getType(), field.get(value));
+            } else {
+              write(field.get(value));
+            }
+          }
+        }
+      }
+    }
+
+    private void writePrimitive(Class<?> type, Object value) throws IOException {
+      if (type == int.class) {
+        out.writeInt((Integer) value);
+      } else if (type == long.class) {
+        out.writeLong((Long) value);
+      } else if (type == short.class) {
+        out.writeShort((Short) value);
+      } else if (type == byte.class) {
+        out.writeByte((Byte) value);
+      } else if (type == boolean.class) {
+        out.writeBoolean((Boolean) value);
+      } else if (type == char.class) {
+        out.writeChar((Character) value);
+      } else if (type == float.class) {
+        out.writeFloat((Float) value);
+      } else {
+        out.writeDouble((Double) value);
+      }
+    }
+
+    private void writeClass(Class<?> type) throws IOException {
+      Integer index = classes.get(type);
+      if (index != null) {
+        out.writeInt(index);
+      } else {
+        classes.put(type, classes.size());
+        out.writeInt(-1);
+        writeString(type.getName());
+      }
+    }
+
+    private void writeString(String value) throws IOException {
+      writeBytes(value.getBytes("UTF-8"));
+    }
+
+    private void writeBytes(byte[] value) throws IOException {
+      out.writeInt(value.length);
+      out.write(value);
+    }
+
+  }
+
+  private class Reader {
+
+    private final DataInputStream in;
+    private final List<Object> objects = new ArrayList<Object>();
+    private final List<Class<?>> classes = new ArrayList<Class<?>>();
+    private final Set<Class<?>> layouts = new HashSet<Class<?>>();
+
+    Reader(DataInputStream in) {
+      this.in = in;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    Object read() throws Exception {
+      byte tag = in.readByte();
+      if (tag == NULL) {
+        return null;
+      } else if (tag == REFERENCE) {
+        return objects.get(in.readInt());
+      }
+      // containers are registered before their content is read, so the content can refer to them
+      int handle = objects.size();
+      objects.add(null);
+      Object value;
+      switch (tag) {
+        case STRING:
+          value = readString();
+          break;
+        case INTEGER:
+          value = in.readInt();
+          break;
+        case LONG:
+          value = in.readLong();
+          break;
+        case SHORT:
+          value = in.readShort();
+          break;
+        case BYTE:
+          value = in.readByte();
+          break;
+        case BOOLEAN:
+          value = in.readBoolean();
+          break;
+        case CHARACTER:
+          value = in.readChar();
+          break;
+        case FLOAT:
+          value = in.readFloat();
+          break;
+        case DOUBLE:
+          value = in.readDouble();
+          break;
+        case BIG_DECIMAL:
+          value = new BigDecimal(new BigInteger(readBytes()), in.readInt());
+          break;
+        case BIG_INTEGER:
+          value = new BigInteger(readBytes());
+          break;
+        case DATE:
+          value = newDate(readClass(), in.readLong());
+          break;
+        case TIMESTAMP:
+          Timestamp timestamp = new Timestamp(in.readLong());
+          timestamp.setNanos(in.readInt());
+          value = timestamp;
+          break;
+        case BYTES:
+          value = readBytes();
+          break;
+        case COLLECTION: {
+          Class<?> type = readClass();
+          int size = in.readInt();
+          Collection<Object> collection = newCollection(type, size);
+          objects.set(handle, collection);
+          for (int i = 0; i < size; i++) {
+            collection.add(read());
+          }
+          return collection;
+        }
+        case MAP: {
+          Class<?> type = readClass();
+          int size = in.readInt();
+          Map<Object, Object> map = type == LinkedHashMap.class
+              ? new LinkedHashMap<Object, Object>(capacity(size)) : new HashMap<Object, Object>(capacity(size));
+          objects.set(handle, map);
+          for (int i = 0; i < size; i++) {
+            Object key = read();
+            map.put(key, read());
+          }
+          return map;
+        }
+        case ARRAY: {
+          Class<?> componentType = readClass();
+          int length = in.readInt();
+          Object array = Array.newInstance(componentType, length);
+          objects.set(handle, array);
+          for (int i = 0; i < length; i++) {
+            Array.set(array, i, componentType.isPrimitive() ? readPrimitive(componentType) : read());
+          }
+          return array;
+        }
+        case ENUM:
+          value = Enum.valueOf((Class) readClass(), readString());
+          break;
+        case OBJECT: {
+          Class<?> type = readClass();
+          ClassInfo info = classInfo(type);
+          if (info.fields == null) {
+            throw new CacheException("Class " + type.getName() + " can no longer be deserialized field by field.");
+          }
+          if (layouts.add(type) && in.readInt() != info.layout) {
+            throw new CacheException("The fields of class " + type.getName() + " changed since the value was serialized.");
+          }
+          Object object = info.constructor.newInstance();
+          objects.set(handle, object);
+          for (Field field : info.fields) {
+            field.set(object, field.getType().isPrimitive() ? readPrimitive(field.getType()) : read());
+          }
+          return object;
+        }
+        case JAVA:
+          value = javaSerializer.deserialize(readBytes());
+          break;
+        default:
+          throw new CacheException("Unknown type tag " + tag + " in serialized cache value.");
+      }
+      objects.set(handle, value);
+      return value;
+    }
+
+    private Object readPrimitive(Class<?> type) throws IOException {
+      if (type == int.class) {
+        return in.readInt();
+      } else if (type == long.class) {
+        return in.readLong();
+      } else if (type == short.class) {
+        return in.readShort();
+      } else if (type == byte.class) {
+        return in.readByte();
+      } else if (type == boolean.class) {
+        return in.readBoolean();
+      } else if (type == char.class) {
+        return in.readChar();
+      } else if (type == float.class) {
+        return in.readFloat();
+      } else {
+        return in.readDouble();
+      }
+    }
+
+    private Class<?> readClass() throws Exception {
+      int index = in.readInt();
+      if (index >= 0) {
+        return classes.get(index);
+      }
+      String name = readString();
+      Class<?> type = PRIMITIVE_TYPES.get(name);
+      if (type == null) {
+        type = Resources.classForName(name);
+      }
+      classes.add(type);
+      return type;
+    }
+
+    private String readString() throws IOException {
+      return new String(readBytes(), "UTF-8");
+    }
+
+    private byte[] readBytes() throws IOException {
+      byte[] value = new byte[in.readInt()];
+      in.readFully(value);
+      return value;
+    }
+
+    private Object newDate(Class<?> type, long time) {
+      if (type == java.sql.Date.class) {
+        return new java.sql.Date(time);
+      } else if (type == java.sql.Time.class) {
+        return new java.sql.Time(time);
+      }
+      return new java.util.Date(time);
+    }
+
+    private Collection<Object> newCollection(Class<?> type, int size) {
+      if (type == LinkedList.class) {
+        return new LinkedList<Object>();
+      } else if (type == HashSet.class) {
+        return new HashSet<Object>(capacity(size));
+      } else if (type == LinkedHashSet.class) {
+        return new LinkedHashSet<Object>(capacity(size));
+      }
+      return new ArrayList<Object>(size);
+    }
+
+    private int capacity(int size) {
+      return Math.max((int) (size / .75f) + 1, 16);
+    }
+
+  }
+
+  /**
+   * The fields written for a class, or none if its objects are embedded with Java serialization.
+   */
+  private static class ClassInfo {
+
+    private Constructor<?> constructor;
+    private Field[] fields;
+    private int layout;
+
+    ClassInfo(Class<?> type) {
+      try {
+        if (isWrittenByFields(type)) {
+          Constructor<?> noArgConstructor = type.getDeclaredConstructor();
+          noArgConstructor.setAccessible(true);
+          List<Field> list = new ArrayList<Field>();
+          addFields(type, list);
+          for (Field field : list) {
+            field.setAccessible(true);
+          }
+          this.constructor = noArgConstructor;
+          this.fields = list.toArray(new Field[list.size()]);
+          this.layout = layoutOf(fields);
+        }
+      } catch (Exception e) {
+        // no no-arg constructor or not accessible, use Java serialization
+      }
+    }
+
+    private static int layoutOf(Field[] fields) {
+      StringBuilder layout = new StringBuilder();
+      for (Field field : fields) {
+        layout.append(field.getDeclaringClass().getName()).append('.').append(field.getName())
+            .append(':').append(field.getType().getName()).append(';');
+      }
+      return layout.toString().hashCode();
+    }
+
+    private static boolean isWrittenByFields(Class<?> type) {
+      String name = type.getName();
+      if (name.startsWith("java.") || name.startsWith("javax.")
+          || Externalizable.class.isAssignableFrom(type)
+          || WriteReplaceInterface.class.isAssignableFrom(type)) {
+        return false;
+      }
+      for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+        for (String method : new String[] { "writeObject", "readObject", "writeReplace", "readResolve" }) {
+          if (declaresMethod(c, method)) {
+            return false;
+          }
+        }
+      }
+      return true;
+    }
+
+    private static boolean declaresMethod(Class<?> type, String name) {
+      for (java.lang.reflect.Method method : type.getDeclaredMethods()) {
+        if (method.getName().equals(name)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private static void addFields(Class<?> type, List<Field> list) {
+      if (type == null || type == Object.class) {
+        return;
+      }
+      // superclass fields first and sorted by name, so the order does not depend on the JVM
+      addFields(type.getSuperclass(), list);
+      Field[] declared = type.getDeclaredFields();
+      Arrays.sort(declared, new Comparator<Field>() {
+        @Override
+        public int compare(Field f1, Field f2) {
+          return f1.getName().compareTo(f2.getName());
+        }
+      });
+      for (Field field : declared) {
+        int modifiers = field.getModifiers();
+        if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+          list.add(field);
+        }
+      }
+    }
+
+  }
+
+}
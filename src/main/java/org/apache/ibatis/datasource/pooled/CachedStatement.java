@@ -0,0 +1,163 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.apache.ibatis.reflection.ExceptionUtil;
+
+/**
+ * Prepared statement handed out from a {@link StatementCache}. Running it marks the pooled
+ * connection dirty. Closing it closes its open result set and puts the statement back in the
+ * cache, with the settings the caller changed restored. A statement
+ * whose settings cannot be restored is closed instead.
+ */
+class CachedStatement implements InvocationHandler {
+
+  private static final Class<?>[] IFACES = new Class<?>[] { PreparedStatement.class };
+
+  private final PreparedStatement statement;
+  private final String key;
+  private final StatementCache cache;
+  private final PooledConnection owner;
+  private boolean closed;
+  private Integer originalQueryTimeout;
+  private Integer originalFetchSize;
+  private Integer originalMaxRows;
+  private Integer originalFetchDirection;
+  private Integer originalMaxFieldSize;
+  private boolean unrestorable;
+
+  private CachedStatement(PreparedStatement statement, String key, StatementCache cache, PooledConnection owner) {
+    this.statement = statement;
+    this.key = key;
+    this.cache = cache;
+    this.owner = owner;
+  }
+
+  /*
+   * Wraps a statement so that closing it returns it to the cache
+   *
+   * @param owner - the pooled connection the statement was taken for
+   */
+  static PreparedStatement wrap(PreparedStatement statement, String key, StatementCache cache, PooledConnection owner) {
+    CachedStatement handler = new CachedStatement(statement, key, cache, owner);
+    return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), IFACES, handler);
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    String methodName = method.getName();
+    if (Object.class.equals(method.getDeclaringClass())) {
+      return method.invoke(this, args);
+    } else if ("close".equals(methodName)) {
+      close();
+      return null;
+    } else if ("isClosed".equals(methodName)) {
+      return closed || statement.isClosed();
+    } else if ("getConnection".equals(methodName)) {
+      return owner.getProxyConnection();
+    }
+    if (closed) {
+      throw new SQLException("Statement is closed.");
+    }
+    try {
+      if ("setQueryTimeout".equals(methodName) && originalQueryTimeout == null) {
+        originalQueryTimeout = statement.getQueryTimeout();
+      } else if ("setFetchSize".equals(methodName) && originalFetchSize == null) {
+        originalFetchSize = statement.getFetchSize();
+      } else if ("setMaxRows".equals(methodName) && originalMaxRows == null) {
+        originalMaxRows = statement.getMaxRows();
+      } else if ("setFetchDirection".equals(methodName) && originalFetchDirection == null) {
+        originalFetchDirection = statement.getFetchDirection();
+      } else if ("setMaxFieldSize".equals(methodName) && originalMaxFieldSize == null) {
+        originalMaxFieldSize = statement.getMaxFieldSize();
+      } else if (isUnrestorableSetting(methodName)) {
+        unrestorable = true;
+      } else if (TrackedStatement.isExecute(methodName)) {
+        // the statement outlives commits, the work it does now has to be rolled back on return
+        owner.markDirty();
+      } else if ("unwrap".equals(methodName)) {
+        owner.untrack();
+      }
+      return method.invoke(statement, args);
+    } catch (Throwable t) {
+      throw ExceptionUtil.unwrapThrowable(t);
+    }
+  }
+
+  private static boolean isUnrestorableSetting(String methodName) {
+    return "setEscapeProcessing".equals(methodName)
+        || "setCursorName".equals(methodName)
+        || "setPoolable".equals(methodName)
+        || "setLargeMaxRows".equals(methodName)
+        || "closeOnCompletion".equals(methodName);
+  }
+
+  private void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (unrestorable) {
+      closeQuietly();
+      return;
+    }
+    try {
+      // a result set the caller left open must not outlive the statement that goes back to the cache
+      ResultSet resultSet = statement.getResultSet();
+      if (resultSet != null) {
+        resultSet.close();
+      }
+      statement.clearParameters();
+      statement.clearBatch();
+      statement.clearWarnings();
+      if (originalQueryTimeout != null) {
+        statement.setQueryTimeout(originalQueryTimeout);
+      }
+      if (originalFetchSize != null) {
+        statement.setFetchSize(originalFetchSize);
+      }
+      if (originalMaxRows != null) {
+        statement.setMaxRows(originalMaxRows);
+      }
+      if (originalFetchDirection != null) {
+        statement.setFetchDirection(originalFetchDirection);
+      }
+      if (originalMaxFieldSize != null) {
+        statement.setMaxFieldSize(originalMaxFieldSize);
+      }
+      cache.release(key, statement);
+    } catch (SQLException e) {
+      // the statement or its connection is broken, do not keep it
+      closeQuietly();
+    }
+  }
+
+  private void closeQuietly() {
+    try {
+      statement.close();
+    } catch (SQLException e) {
+      // ignore
+    }
+  }
+
+}
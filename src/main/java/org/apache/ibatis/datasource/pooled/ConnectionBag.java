@@ -0,0 +1,290 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free holder of the connections of a {@link PooledDataSource} running in concurrent mode.
+ * <p>
+ * Idle connections live in a non-blocking queue and are claimed with a CAS on the connection itself.
+ * A thread that returns a connection remembers it and gets the same connection back on its next
+ * checkout if nobody claimed it in between; the claimed connection is left in the queue and swept
+ * out later. While threads wait for a connection, returned connections go to a hand-off queue the
+ * waiters block on, in arrival order, and threads that arrive later do not take them.
+ */
+class ConnectionBag {
+
+  // claimed connections left in the queues before they are swept out
+  private static final int STALE_SWEEP_THRESHOLD = 64;
+
+  private final Queue<PooledConnection> idleConnections = new ConcurrentLinkedQueue<PooledConnection>();
+  private final Set<PooledConnection> activeConnections = Collections.newSetFromMap(new ConcurrentHashMap<PooledConnection, Boolean>());
+  private final BlockingQueue<PooledConnection> handoffQueue = new LinkedBlockingQueue<PooledConnection>();
+  private final ThreadLocal<WeakReference<PooledConnection>> lastReturned = new ThreadLocal<WeakReference<PooledConnection>>();
+  private final AtomicInteger idleCount = new AtomicInteger();
+  private final AtomicInteger totalCount = new AtomicInteger();
+  private final AtomicInteger waiterCount = new AtomicInteger();
+  private final AtomicInteger staleCount = new AtomicInteger();
+  private final AtomicLong handoffCount = new AtomicLong();
+
+  /*
+   * Claims an idle connection without blocking. While threads wait for a connection, the
+   * connections returned belong to them and a newly arrived thread gets none.
+   *
+   * @return An idle connection or null if there is none
+   */
+  PooledConnection poll() {
+    if (waiterCount.get() > 0) {
+      return null;
+    }
+    return claimIdle();
+  }
+
+  private PooledConnection claimIdle() {
+    WeakReference<PooledConnection> reference = lastReturned.get();
+    PooledConnection conn;
+    if (reference != null) {
+      lastReturned.remove();
+      conn = reference.get();
+      if (conn != null && claim(conn)) {
+        // the claimed connection stays in its queue, it is skipped or swept out later
+        staleCount.incrementAndGet();
+        return conn;
+      }
+    }
+    while ((conn = handoffQueue.poll()) != null) {
+      if (claim(conn)) {
+        return conn;
+      }
+    }
+    while ((conn = idleConnections.poll()) != null) {
+      if (claim(conn)) {
+        return conn;
+      }
+    }
+    return null;
+  }
+
+  /*
+   * Waits for a connection returned by another thread
+   *
+   * @param timeout - the maximum milliseconds to wait, 0 to wait until a connection is returned
+   * @return A claimed connection or null if none was returned in time
+   */
+  PooledConnection poll(long timeout) throws InterruptedException {
+    // counted before looking at the queues, so that a connection returned meanwhile goes to the hand-off queue
+    waiterCount.incrementAndGet();
+    try {
+      long deadline = System.currentTimeMillis() + timeout;
+      long remaining = timeout;
+      while (timeout <= 0 || remaining > 0) {
+        PooledConnection conn = claimIdle();
+        if (conn != null) {
+          return conn;
+        }
+        conn = timeout <= 0 ? handoffQueue.take() : handoffQueue.poll(remaining, TimeUnit.MILLISECONDS);
+        if (conn != null && claim(conn)) {
+          handoffCount.incrementAndGet();
+          return conn;
+        }
+        remaining = deadline - System.currentTimeMillis();
+      }
+      return null;
+    } finally {
+      waiterCount.decrementAndGet();
+    }
+  }
+
+  /*
+   * Adds a connection to the idle set, handing it to the waiting threads if there are any
+   *
+   * @param conn - a fresh, unclaimed connection
+   */
+  void offer(PooledConnection conn) {
+    idleCount.incrementAndGet();
+    lastReturned.set(new WeakReference<PooledConnection>(conn));
+    if (waiterCount.get() > 0) {
+      handoffQueue.offer(conn);
+    } else {
+      idleConnections.offer(conn);
+      // a thread that started waiting meanwhile only blocks on the hand-off queue, so the connection
+      // is offered there too; whoever claims it first wins and the other entry is swept out later
+      if (waiterCount.get() > 0) {
+        staleCount.incrementAndGet();
+        handoffQueue.offer(conn);
+      }
+    }
+    sweepStaleConnections();
+  }
+
+  /*
+   * Claims a given idle connection so that it can be closed
+   *
+   * @param conn - the idle connection
+   * @return True if the caller won the claim
+   */
+  boolean remove(PooledConnection conn) {
+    if (claim(conn)) {
+      staleCount.incrementAndGet();
+      return true;
+    }
+    return false;
+  }
+
+  /*
+   * Reserves room for a new physical connection
+   *
+   * @param maximum - the maximum number of connections allowed in the pool
+   * @return True if the caller may open a new connection
+   */
+  boolean reserve(int maximum) {
+    for (;;) {
+      int total = totalCount.get();
+      if (total >= maximum) {
+        return false;
+      }
+      if (totalCount.compareAndSet(total, total + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /*
+   * Gives back room reserved for a physical connection that has been closed or discarded
+   */
+  void release() {
+    totalCount.decrementAndGet();
+  }
+
+  void activate(PooledConnection conn) {
+    activeConnections.add(conn);
+  }
+
+  /*
+   * Removes a connection from the active set
+   *
+   * @return True if the caller is the one who removed it
+   */
+  boolean deactivate(PooledConnection conn) {
+    return activeConnections.remove(conn);
+  }
+
+  Collection<PooledConnection> getActiveConnections() {
+    return activeConnections;
+  }
+
+  List<PooledConnection> getIdleConnections() {
+    List<PooledConnection> connections = new ArrayList<PooledConnection>();
+    for (PooledConnection conn : handoffQueue) {
+      if (!conn.isBorrowed()) {
+        connections.add(conn);
+      }
+    }
+    for (PooledConnection conn : idleConnections) {
+      if (!conn.isBorrowed()) {
+        connections.add(conn);
+      }
+    }
+    return connections;
+  }
+
+  boolean hasWaiters() {
+    return waiterCount.get() > 0;
+  }
+
+  int getWaiterCount() {
+    return waiterCount.get();
+  }
+
+  /*
+   * Removes every connection from the bag
+   *
+   * @return The connections that were in the bag
+   */
+  List<PooledConnection> drain() {
+    List<PooledConnection> connections = new ArrayList<PooledConnection>();
+    for (PooledConnection conn : activeConnections) {
+      if (activeConnections.remove(conn)) {
+        connections.add(conn);
+        totalCount.decrementAndGet();
+      }
+    }
+    PooledConnection conn;
+    while ((conn = claimIdle()) != null) {
+      connections.add(conn);
+      totalCount.decrementAndGet();
+    }
+    return connections;
+  }
+
+  int getIdleCount() {
+    return idleCount.get();
+  }
+
+  int getActiveCount() {
+    return activeConnections.size();
+  }
+
+  long getHandoffCount() {
+    return handoffCount.get();
+  }
+
+  /*
+   * Removes the connections that were claimed without being taken out of their queue. A connection is never
+   * returned to the pool itself, a new one wraps the physical connection, so a claimed connection in a queue
+   * is stale.
+   */
+  private void sweepStaleConnections() {
+    int stale = staleCount.get();
+    if (stale < STALE_SWEEP_THRESHOLD || !staleCount.compareAndSet(stale, 0)) {
+      return;
+    }
+    sweep(handoffQueue);
+    sweep(idleConnections);
+  }
+
+  private static void sweep(Collection<PooledConnection> queue) {
+    for (Iterator<PooledConnection> iterator = queue.iterator(); iterator.hasNext();) {
+      if (iterator.next().isBorrowed()) {
+        iterator.remove();
+      }
+    }
+  }
+
+  private boolean claim(PooledConnection conn) {
+    if (conn.tryBorrow()) {
+      idleCount.decrementAndGet();
+      return true;
+    }
+    return false;
+  }
+
+}
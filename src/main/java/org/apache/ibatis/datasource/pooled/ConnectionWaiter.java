@@ -0,0 +1,62 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+/**
+ * A caller queued in {@link PoolState} waiting for a connection to be returned to the pool.
+ * Each waiter parks on its own monitor, so a returned connection wakes exactly one thread.
+ */
+class ConnectionWaiter {
+
+  private PooledConnection connection;
+
+  /*
+   * Gives a returned connection to this waiter and wakes it up
+   *
+   * @param connection - the returned connection
+   */
+  public synchronized void handOff(PooledConnection connection) {
+    this.connection = connection;
+    notifyAll();
+  }
+
+  /*
+   * Waits until a connection is handed off to this waiter
+   *
+   * @param timeout - the maximum milliseconds to wait, 0 to wait until a connection is handed off
+   * @return The connection or null if none was handed off in time
+   */
+  public synchronized PooledConnection await(long timeout) throws InterruptedException {
+    if (timeout <= 0) {
+      while (connection == null) {
+        wait();
+      }
+      return connection;
+    }
+    long deadline = System.currentTimeMillis() + timeout;
+    long remaining = timeout;
+    while (connection == null && remaining > 0) {
+      wait(remaining);
+      remaining = deadline - System.currentTimeMillis();
+    }
+    return connection;
+  }
+
+  public synchronized PooledConnection getConnection() {
+    return connection;
+  }
+
+}
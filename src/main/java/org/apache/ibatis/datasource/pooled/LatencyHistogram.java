@@ -0,0 +1,98 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of millisecond timings.
+ * <p>
+ * Values below 16 are counted exactly, larger values fall in one of eight buckets per power of two,
+ * so a percentile is reported within 12.5% of the recorded value.
+ */
+class LatencyHistogram {
+
+  private static final int EXACT_BUCKETS = 16;
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int FIRST_EXPONENT = 4;
+
+  private final AtomicLongArray counts = new AtomicLongArray(EXACT_BUCKETS + (Long.SIZE - 1 - FIRST_EXPONENT) * SUB_BUCKETS);
+  private final AtomicLong totalCount = new AtomicLong();
+  private final AtomicLong maximum = new AtomicLong();
+
+  void record(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+    counts.incrementAndGet(indexOf(value));
+    totalCount.incrementAndGet();
+    long max;
+    while (value > (max = maximum.get()) && !maximum.compareAndSet(max, value)) {
+      // retry
+    }
+  }
+
+  long getCount() {
+    return totalCount.get();
+  }
+
+  long getMaximum() {
+    return maximum.get();
+  }
+
+  /*
+   * Getter for the value below which the given percentage of the recorded values fall
+   *
+   * @param percentile - between 0 and 100
+   * @return The highest value of the bucket holding the percentile, 0 if nothing was recorded
+   */
+  long getPercentile(double percentile) {
+    long total = totalCount.get();
+    if (total == 0) {
+      return 0;
+    }
+    long target = Math.max(1, (long) Math.ceil(total * percentile / 100));
+    long seen = 0;
+    for (int i = 0; i < counts.length(); i++) {
+      seen += counts.get(i);
+      if (seen >= target) {
+        return Math.min(highestValueOf(i), maximum.get());
+      }
+    }
+    return maximum.get();
+  }
+
+  private static int indexOf(long value) {
+    if (value < EXACT_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return EXACT_BUCKETS + (exponent - FIRST_EXPONENT) * SUB_BUCKETS + subBucket;
+  }
+
+  private static long highestValueOf(int index) {
+    if (index < EXACT_BUCKETS) {
+      return index;
+    }
+    int exponent = (index - EXACT_BUCKETS) / SUB_BUCKETS + FIRST_EXPONENT;
+    int subBucket = (index - EXACT_BUCKETS) % SUB_BUCKETS;
+    return ((long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+  }
+
+}
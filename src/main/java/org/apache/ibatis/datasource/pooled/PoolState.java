@@ -17,69 +17,232 @@ package org.apache.ibatis.datasource.pooled;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author Clinton Begin
  */
-public class PoolState {
+public class PoolState implements PoolStateMBean {
 
   protected PooledDataSource dataSource;
 
   protected final List<PooledConnection> idleConnections = new ArrayList<PooledConnection>();
   protected final List<PooledConnection> activeConnections = new ArrayList<PooledConnection>();
-  protected long requestCount = 0;
-  protected long accumulatedRequestTime = 0;
-  protected long accumulatedCheckoutTime = 0;
-  protected long claimedOverdueConnectionCount = 0;
-  protected long accumulatedCheckoutTimeOfOverdueConnections = 0;
-  protected long accumulatedWaitTime = 0;
-  protected long hadToWaitCount = 0;
-  protected long badConnectionCount = 0;
+  private final Queue<ConnectionWaiter> waiters = new ConcurrentLinkedQueue<ConnectionWaiter>();
+  private final ConnectionBag connectionBag = new ConnectionBag();
+  private final AtomicLong requestCount = new AtomicLong();
+  private final AtomicLong accumulatedRequestTime = new AtomicLong();
+  private final AtomicLong accumulatedCheckoutTime = new AtomicLong();
+  private final AtomicLong claimedOverdueConnectionCount = new AtomicLong();
+  private final AtomicLong accumulatedCheckoutTimeOfOverdueConnections = new AtomicLong();
+  private final AtomicLong accumulatedWaitTime = new AtomicLong();
+  private final AtomicLong hadToWaitCount = new AtomicLong();
+  private final AtomicLong badConnectionCount = new AtomicLong();
+  private final AtomicLong handoffCount = new AtomicLong();
+  private final AtomicLong timeoutCount = new AtomicLong();
+  private final AtomicLong suspectedLeakCount = new AtomicLong();
+  private final AtomicLong statementCacheHitCount = new AtomicLong();
+  private final AtomicLong statementCacheMissCount = new AtomicLong();
+  private final LatencyHistogram requestTimes = new LatencyHistogram();
+  private final LatencyHistogram checkoutTimes = new LatencyHistogram();
 
   public PoolState(PooledDataSource dataSource) {
     this.dataSource = dataSource;
   }
 
-  public synchronized long getRequestCount() {
-    return requestCount;
+  Queue<ConnectionWaiter> getWaiters() {
+    return waiters;
   }
 
-  public synchronized long getAverageRequestTime() {
-    return requestCount == 0 ? 0 : accumulatedRequestTime / requestCount;
+  ConnectionBag getConnectionBag() {
+    return connectionBag;
   }
 
-  public synchronized long getAverageWaitTime() {
-    return hadToWaitCount == 0 ? 0 : accumulatedWaitTime / hadToWaitCount;
+  void recordRequest(long requestTime) {
+    requestCount.incrementAndGet();
+    accumulatedRequestTime.addAndGet(requestTime);
+    requestTimes.record(requestTime);
+  }
+
+  void recordCheckoutTime(long checkoutTime) {
+    accumulatedCheckoutTime.addAndGet(checkoutTime);
+    checkoutTimes.record(checkoutTime);
+  }
+
+  void recordOverdueCheckout(long checkoutTime) {
+    claimedOverdueConnectionCount.incrementAndGet();
+    accumulatedCheckoutTimeOfOverdueConnections.addAndGet(checkoutTime);
+    recordCheckoutTime(checkoutTime);
+  }
+
+  void recordWaitTime(long waitTime) {
+    accumulatedWaitTime.addAndGet(waitTime);
+  }
+
+  void incrementHadToWaitCount() {
+    hadToWaitCount.incrementAndGet();
+  }
+
+  void incrementBadConnectionCount() {
+    badConnectionCount.incrementAndGet();
+  }
+
+  void incrementHandoffCount() {
+    handoffCount.incrementAndGet();
+  }
+
+  void incrementTimeoutCount() {
+    timeoutCount.incrementAndGet();
+  }
+
+  void incrementSuspectedLeakCount() {
+    suspectedLeakCount.incrementAndGet();
+  }
+
+  void incrementStatementCacheHitCount() {
+    statementCacheHitCount.incrementAndGet();
+  }
 
+  void incrementStatementCacheMissCount() {
+    statementCacheMissCount.incrementAndGet();
   }
 
-  public synchronized long getHadToWaitCount() {
-    return hadToWaitCount;
+  @Override
+  public long getRequestCount() {
+    return requestCount.get();
   }
 
-  public synchronized long getBadConnectionCount() {
-    return badConnectionCount;
+  @Override
+  public long getAverageRequestTime() {
+    long requests = requestCount.get();
+    return requests == 0 ? 0 : accumulatedRequestTime.get() / requests;
   }
 
-  public synchronized long getClaimedOverdueConnectionCount() {
-    return claimedOverdueConnectionCount;
+  @Override
+  public long getAverageWaitTime() {
+    long waits = hadToWaitCount.get();
+    return waits == 0 ? 0 : accumulatedWaitTime.get() / waits;
+
   }
 
-  public synchronized long getAverageOverdueCheckoutTime() {
-    return claimedOverdueConnectionCount == 0 ? 0 : accumulatedCheckoutTimeOfOverdueConnections / claimedOverdueConnectionCount;
+  @Override
+  public long getHadToWaitCount() {
+    return hadToWaitCount.get();
   }
 
-  public synchronized long getAverageCheckoutTime() {
-    return requestCount == 0 ? 0 : accumulatedCheckoutTime / requestCount;
+  @Override
+  public long getBadConnectionCount() {
+    return badConnectionCount.get();
   }
 
+  @Override
+  public long getHandoffCount() {
+    return handoffCount.get() + connectionBag.getHandoffCount();
+  }
 
-  public synchronized int getIdleConnectionCount() {
-    return idleConnections.size();
+  @Override
+  public long getClaimedOverdueConnectionCount() {
+    return claimedOverdueConnectionCount.get();
   }
 
-  public synchronized int getActiveConnectionCount() {
-    return activeConnections.size();
+  @Override
+  public long getAverageOverdueCheckoutTime() {
+    long claimed = claimedOverdueConnectionCount.get();
+    return claimed == 0 ? 0 : accumulatedCheckoutTimeOfOverdueConnections.get() / claimed;
+  }
+
+  @Override
+  public long getAverageCheckoutTime() {
+    long requests = requestCount.get();
+    return requests == 0 ? 0 : accumulatedCheckoutTime.get() / requests;
+  }
+
+  @Override
+  public long getTimeoutCount() {
+    return timeoutCount.get();
+  }
+
+  @Override
+  public long getSuspectedLeakCount() {
+    return suspectedLeakCount.get();
+  }
+
+  @Override
+  public long getStatementCacheHitCount() {
+    return statementCacheHitCount.get();
+  }
+
+  @Override
+  public long getStatementCacheMissCount() {
+    return statementCacheMissCount.get();
+  }
+
+  @Override
+  public long getMedianRequestTime() {
+    return requestTimes.getPercentile(50);
+  }
+
+  @Override
+  public long getRequestTime99thPercentile() {
+    return requestTimes.getPercentile(99);
+  }
+
+  @Override
+  public long getMaximumRequestTime() {
+    return requestTimes.getMaximum();
+  }
+
+  @Override
+  public long getMedianCheckoutTime() {
+    return checkoutTimes.getPercentile(50);
+  }
+
+  @Override
+  public long getCheckoutTime99thPercentile() {
+    return checkoutTimes.getPercentile(99);
+  }
+
+  @Override
+  public long getMaximumCheckoutTime() {
+    return checkoutTimes.getMaximum();
+  }
+
+  /*
+   * Getter for the time within which the given percentage of the checkouts got a connection
+   *
+   * @param percentile - between 0 and 100
+   * @return The request time in milliseconds
+   */
+  public long getRequestTimePercentile(double percentile) {
+    return requestTimes.getPercentile(percentile);
+  }
+
+  /*
+   * Getter for the time within which the given percentage of the connections were returned
+   *
+   * @param percentile - between 0 and 100
+   * @return The checkout time in milliseconds
+   */
+  public long getCheckoutTimePercentile(double percentile) {
+    return checkoutTimes.getPercentile(percentile);
+  }
+
+  // gauges polled over JMX must not contend for the pool lock; a slightly stale size is fine here
+  @Override
+  public int getIdleConnectionCount() {
+    return idleConnections.size() + connectionBag.getIdleCount();
+  }
+
+  @Override
+  public int getActiveConnectionCount() {
+    return activeConnections.size() + connectionBag.getActiveCount();
+  }
+
+  @Override
+  public int getWaitingCount() {
+    return waiters.size() + connectionBag.getWaiterCount();
   }
 
   @Override
@@ -94,19 +257,33 @@ public class PoolState {
     builder.append("\n poolMaxIdleConnections         ").append(dataSource.poolMaximumIdleConnections);
     builder.append("\n poolMaxCheckoutTime            ").append(dataSource.poolMaximumCheckoutTime);
     builder.append("\n poolTimeToWait                 ").append(dataSource.poolTimeToWait);
+    builder.append("\n poolMaximumWaitTime            ").append(dataSource.poolMaximumWaitTime);
     builder.append("\n poolPingEnabled                ").append(dataSource.poolPingEnabled);
     builder.append("\n poolPingQuery                  ").append(dataSource.poolPingQuery);
     builder.append("\n poolPingConnectionsNotUsedFor  ").append(dataSource.poolPingConnectionsNotUsedFor);
+    builder.append("\n poolConcurrent                 ").append(dataSource.poolConcurrent);
     builder.append("\n ---STATUS-----------------------------------------------------");
     builder.append("\n activeConnections              ").append(getActiveConnectionCount());
     builder.append("\n idleConnections                ").append(getIdleConnectionCount());
+    builder.append("\n waitingCallers                 ").append(getWaitingCount());
     builder.append("\n requestCount                   ").append(getRequestCount());
     builder.append("\n averageRequestTime             ").append(getAverageRequestTime());
+    builder.append("\n medianRequestTime              ").append(getMedianRequestTime());
+    builder.append("\n requestTime99thPercentile      ").append(getRequestTime99thPercentile());
+    builder.append("\n maximumRequestTime             ").append(getMaximumRequestTime());
     builder.append("\n averageCheckoutTime            ").append(getAverageCheckoutTime());
+    builder.append("\n medianCheckoutTime             ").append(getMedianCheckoutTime());
+    builder.append("\n checkoutTime99thPercentile     ").append(getCheckoutTime99thPercentile());
+    builder.append("\n maximumCheckoutTime            ").append(getMaximumCheckoutTime());
     builder.append("\n claimedOverdue                 ").append(getClaimedOverdueConnectionCount());
     builder.append("\n averageOverdueCheckoutTime     ").append(getAverageOverdueCheckoutTime());
     builder.append("\n hadToWait                      ").append(getHadToWaitCount());
     builder.append("\n averageWaitTime                ").append(getAverageWaitTime());
+    builder.append("\n handoffs                       ").append(getHandoffCount());
+    builder.append("\n timeouts                       ").append(getTimeoutCount());
+    builder.append("\n suspectedLeaks                 ").append(getSuspectedLeakCount());
+    builder.append("\n statementCacheHits             ").append(getStatementCacheHitCount());
+    builder.append("\n statementCacheMisses           ").append(getStatementCacheMissCount());
     builder.append("\n badConnectionCount             ").append(getBadConnectionCount());
     builder.append("\n===============================================================");
     return builder.toString();
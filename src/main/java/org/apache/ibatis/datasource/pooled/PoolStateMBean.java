@@ -0,0 +1,67 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+/**
+ * JMX view of a {@link PoolState}. Times are in milliseconds.
+ */
+public interface PoolStateMBean {
+
+  int getActiveConnectionCount();
+
+  int getIdleConnectionCount();
+
+  int getWaitingCount();
+
+  long getRequestCount();
+
+  long getAverageRequestTime();
+
+  long getMedianRequestTime();
+
+  long getRequestTime99thPercentile();
+
+  long getMaximumRequestTime();
+
+  long getAverageCheckoutTime();
+
+  long getMedianCheckoutTime();
+
+  long getCheckoutTime99thPercentile();
+
+  long getMaximumCheckoutTime();
+
+  long getHadToWaitCount();
+
+  long getAverageWaitTime();
+
+  long getTimeoutCount();
+
+  long getHandoffCount();
+
+  long getClaimedOverdueConnectionCount();
+
+  long getAverageOverdueCheckoutTime();
+
+  long getBadConnectionCount();
+
+  long getSuspectedLeakCount();
+
+  long getStatementCacheHitCount();
+
+  long getStatementCacheMissCount();
+
+}
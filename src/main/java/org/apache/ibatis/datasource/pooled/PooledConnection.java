@@ -19,7 +19,14 @@ import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.ibatis.reflection.ExceptionUtil;
 
@@ -29,6 +36,10 @@ import org.apache.ibatis.reflection.ExceptionUtil;
 class PooledConnection implements InvocationHandler {
 
   private static final String CLOSE = "close";
+  private static final String PREPARE_STATEMENT = "prepareStatement";
+  private static final Set<String> CLEAN_METHODS = new HashSet<String>(Arrays.asList(
+      "getAutoCommit", "setAutoCommit", "getTransactionIsolation", "setTransactionIsolation",
+      "isReadOnly", "setReadOnly", "commit", "rollback", "isClosed", "isValid", "getWarnings", "clearWarnings"));
   private static final Class<?>[] IFACES = new Class<?>[] { Connection.class };
 
   private final int hashCode;
@@ -38,8 +49,23 @@ class PooledConnection implements InvocationHandler {
   private long checkoutTimestamp;
   private long createdTimestamp;
   private long lastUsedTimestamp;
+  private final long idleTimestamp;
   private int connectionTypeCode;
   private boolean valid;
+  private String checkoutThreadName;
+  private StackTraceElement[] checkoutStackTrace;
+  private volatile boolean leakReported;
+  private StatementCache statementCache;
+
+  // state of the real connection, carried over to the next wrapper, null when not known yet
+  private Boolean autoCommit;
+  private Boolean pendingAutoCommit;
+  private Integer transactionIsolation;
+  private Boolean readOnly;
+  // work went through this proxy or its statements since the last commit or rollback
+  private boolean dirty;
+  private boolean tracked = true;
+  private final AtomicBoolean borrowed = new AtomicBoolean();
 
   /*
    * Constructor for SimplePooledConnection that uses the Connection and PooledDataSource passed in
@@ -53,6 +79,7 @@ class PooledConnection implements InvocationHandler {
     this.dataSource = dataSource;
     this.createdTimestamp = System.currentTimeMillis();
     this.lastUsedTimestamp = System.currentTimeMillis();
+    this.idleTimestamp = System.currentTimeMillis();
     this.valid = true;
     this.proxyConnection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), IFACES, this);
   }
@@ -73,6 +100,24 @@ class PooledConnection implements InvocationHandler {
     return valid && realConnection != null && dataSource.pingConnection(this);
   }
 
+  /*
+   * Claims the connection for a single caller, used when the pool runs in concurrent mode
+   *
+   * @return True if the caller won the claim
+   */
+  public boolean tryBorrow() {
+    return borrowed.compareAndSet(false, true);
+  }
+
+  /*
+   * Method to see if the connection has been claimed by a caller
+   *
+   * @return True if the connection has been claimed
+   */
+  public boolean isBorrowed() {
+    return borrowed.get();
+  }
+
   /*
    * Getter for the *real* connection that this wraps
    *
@@ -163,6 +208,16 @@ class PooledConnection implements InvocationHandler {
     return System.currentTimeMillis() - lastUsedTimestamp;
   }
 
+  /*
+   * Getter for the time since this connection was wrapped, that is since it was
+   * opened or last returned to the pool
+   *
+   * @return - the time spent idle in the pool
+   */
+  public long getIdleTime() {
+    return System.currentTimeMillis() - idleTimestamp;
+  }
+
   /*
    * Getter for the age of the connection
    *
@@ -199,6 +254,96 @@ class PooledConnection implements InvocationHandler {
     return System.currentTimeMillis() - checkoutTimestamp;
   }
 
+  /*
+   * Remembers who checked out this connection, for leak reports
+   *
+   * @param threadName - the name of the thread checking out the connection
+   * @param stackTrace - where the connection was checked out, null if it was not sampled
+   */
+  public void setCheckoutOrigin(String threadName, StackTraceElement[] stackTrace) {
+    this.checkoutThreadName = threadName;
+    this.checkoutStackTrace = stackTrace;
+  }
+
+  public String getCheckoutThreadName() {
+    return checkoutThreadName;
+  }
+
+  public StackTraceElement[] getCheckoutStackTrace() {
+    return checkoutStackTrace;
+  }
+
+  public boolean isLeakReported() {
+    return leakReported;
+  }
+
+  public void setLeakReported(boolean leakReported) {
+    this.leakReported = leakReported;
+  }
+
+  /*
+   * Getter for the prepared statements cached for the real connection
+   *
+   * @return The cache, null if no statement was cached yet
+   */
+  public StatementCache getStatementCache() {
+    return statementCache;
+  }
+
+  /*
+   * Takes over the cached statements and the known state of the real connection
+   * from the previous wrapper of the real connection
+   *
+   * @param previous - the previous wrapper
+   */
+  public void inheritState(PooledConnection previous) {
+    this.statementCache = previous.statementCache;
+    this.autoCommit = previous.autoCommit;
+    this.pendingAutoCommit = previous.pendingAutoCommit;
+    this.transactionIsolation = previous.transactionIsolation;
+    this.readOnly = previous.readOnly;
+    this.dirty = previous.dirty;
+    this.tracked = previous.tracked;
+  }
+
+  /*
+   * Rolls back the work done since the last commit or rollback, if any. Connections that
+   * are not tracked are rolled back unless they are in autocommit mode.
+   */
+  public void rollbackIfDirty() throws SQLException {
+    if (tracked && !dirty) {
+      return;
+    }
+    if (autoCommit == null || !tracked) {
+      autoCommit = realConnection.getAutoCommit();
+    }
+    if (!autoCommit) {
+      realConnection.rollback();
+    }
+    dirty = false;
+  }
+
+  /*
+   * Records that work is about to be done on the real connection. The statements handed
+   * out by this connection call it too, as they keep being used after a commit.
+   */
+  public void markDirty() throws SQLException {
+    if (tracked) {
+      applyPendingAutoCommit();
+      dirty = true;
+    }
+  }
+
+  /*
+   * Stops tracking the state of the real connection, because it is used directly
+   */
+  public void untrack() throws SQLException {
+    if (tracked) {
+      applyPendingAutoCommit();
+      tracked = false;
+    }
+  }
+
   @Override
   public int hashCode() {
     return hashCode;
@@ -242,13 +387,139 @@ class PooledConnection implements InvocationHandler {
           // throw an SQLException instead of a Runtime
           checkConnection();
         }
-        return method.invoke(realConnection, args);
+        if (tracked && !Object.class.equals(method.getDeclaringClass())) {
+          if (CLEAN_METHODS.contains(methodName) && !("rollback".equals(methodName) && args != null)) {
+            return invokeStateMethod(methodName, args);
+          } else if ("unwrap".equals(methodName)) {
+            untrack();
+          } else {
+            markDirty();
+          }
+        }
+        if (PREPARE_STATEMENT.equals(methodName) && dataSource.getPoolPreparedStatementCacheSize() > 0) {
+          Class<?>[] parameterTypes = method.getParameterTypes();
+          if (parameterTypes.length == 1) {
+            return prepareCachedStatement(method, args, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+          } else if (parameterTypes.length == 3 && parameterTypes[1] == int.class) {
+            return prepareCachedStatement(method, args, (Integer) args[1], (Integer) args[2]);
+          }
+        }
+        Object result = method.invoke(realConnection, args);
+        if (tracked && result instanceof Statement) {
+          return TrackedStatement.wrap((Statement) result, method.getReturnType(), this);
+        }
+        return result;
       } catch (Throwable t) {
         throw ExceptionUtil.unwrapThrowable(t);
       }
     }
   }
 
+  /*
+   * Serves the state getters from what is known of the real connection and
+   * only calls the driver for setters that change something. Switching autocommit
+   * while no work is pending is deferred until the connection is used, so a
+   * switch that is undone before that never reaches the driver.
+   */
+  private Object invokeStateMethod(String methodName, Object[] args) throws SQLException {
+    if ("getAutoCommit".equals(methodName)) {
+      if (pendingAutoCommit != null) {
+        return pendingAutoCommit;
+      }
+      if (autoCommit == null) {
+        autoCommit = realConnection.getAutoCommit();
+      }
+      return autoCommit;
+    } else if ("setAutoCommit".equals(methodName)) {
+      boolean value = (Boolean) args[0];
+      if (dirty) {
+        // the driver commits when autocommit is switched on
+        pendingAutoCommit = value;
+        applyPendingAutoCommit();
+      } else {
+        pendingAutoCommit = autoCommit != null && autoCommit == value ? null : value;
+      }
+      return null;
+    } else if ("getTransactionIsolation".equals(methodName)) {
+      if (transactionIsolation == null) {
+        transactionIsolation = realConnection.getTransactionIsolation();
+      }
+      return transactionIsolation;
+    } else if ("setTransactionIsolation".equals(methodName)) {
+      int value = (Integer) args[0];
+      if (transactionIsolation == null || transactionIsolation != value) {
+        realConnection.setTransactionIsolation(value);
+        transactionIsolation = value;
+      }
+      return null;
+    } else if ("isReadOnly".equals(methodName)) {
+      if (readOnly == null) {
+        readOnly = realConnection.isReadOnly();
+      }
+      return readOnly;
+    } else if ("setReadOnly".equals(methodName)) {
+      boolean value = (Boolean) args[0];
+      if (readOnly == null || readOnly != value) {
+        realConnection.setReadOnly(value);
+        readOnly = value;
+      }
+      return null;
+    } else if ("commit".equals(methodName) || "rollback".equals(methodName)) {
+      if (dirty) {
+        if (autoCommit == null) {
+          autoCommit = realConnection.getAutoCommit();
+        }
+        if (!autoCommit) {
+          if ("commit".equals(methodName)) {
+            realConnection.commit();
+          } else {
+            realConnection.rollback();
+          }
+        }
+        dirty = false;
+      }
+      return null;
+    } else if ("isClosed".equals(methodName)) {
+      return realConnection.isClosed();
+    } else if ("isValid".equals(methodName)) {
+      return realConnection.isValid((Integer) args[0]);
+    } else if ("getWarnings".equals(methodName)) {
+      return realConnection.getWarnings();
+    } else {
+      realConnection.clearWarnings();
+      return null;
+    }
+  }
+
+  private void applyPendingAutoCommit() throws SQLException {
+    if (pendingAutoCommit != null) {
+      boolean value = pendingAutoCommit;
+      pendingAutoCommit = null;
+      if (autoCommit == null || autoCommit != value) {
+        realConnection.setAutoCommit(value);
+        autoCommit = value;
+        if (value) {
+          dirty = false;
+        }
+      }
+    }
+  }
+
+  private PreparedStatement prepareCachedStatement(Method method, Object[] args, int resultSetType, int resultSetConcurrency) throws Exception {
+    if (statementCache == null) {
+      statementCache = new StatementCache(dataSource.getPoolPreparedStatementCacheSize());
+    }
+    String key = StatementCache.keyOf((String) args[0], resultSetType, resultSetConcurrency);
+    PreparedStatement statement = statementCache.take(key);
+    if (statement != null) {
+      dataSource.getPoolState().incrementStatementCacheHitCount();
+    } else {
+      dataSource.getPoolState().incrementStatementCacheMissCount();
+      statement = (PreparedStatement) method.invoke(realConnection, args);
+    }
+    return CachedStatement.wrap(statement, key, statementCache, this);
+  }
+
   private void checkConnection() throws SQLException {
     if (!valid) {
       throw new SQLException("Error accessing PooledConnection. Connection is invalid.");
@@ -16,6 +16,8 @@
 package org.apache.ibatis.datasource.pooled;
 
 import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Proxy;
 import java.sql.Connection;
@@ -23,9 +25,23 @@ import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
+import javax.management.ObjectName;
 import javax.sql.DataSource;
 
 import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
@@ -41,6 +57,15 @@ public class PooledDataSource implements DataSource {
 
   private static final Log log = LogFactory.getLog(PooledDataSource.class);
 
+  private static final ScheduledExecutorService maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "PooledDataSource-maintenance");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
   private final PoolState state = new PoolState(this);
 
   private final UnpooledDataSource dataSource;
@@ -50,12 +75,28 @@ public class PooledDataSource implements DataSource {
   protected int poolMaximumIdleConnections = 5;
   protected int poolMaximumCheckoutTime = 20000;
   protected int poolTimeToWait = 20000;
+  protected int poolMaximumWaitTime;
   protected int poolMaximumLocalBadConnectionTolerance = 3;
   protected String poolPingQuery = "NO PING QUERY SET";
   protected boolean poolPingEnabled;
   protected int poolPingConnectionsNotUsedFor;
+  protected boolean poolPingUseIsValid;
+  protected int poolPingTimeout = 5;
+  protected boolean poolConcurrent;
+  protected int poolMinimumIdleConnections;
+  protected int poolMaximumConnectionLifetime;
+  protected int poolMaximumIdleTime;
+  protected int poolMaintenanceInterval;
+  protected int poolPrewarmConnections;
+  protected boolean poolJmxEnabled;
+  protected int poolLeakDetectionThreshold;
+  protected int poolLeakDetectionSampling = 10;
+  protected int poolPreparedStatementCacheSize;
 
   private int expectedConnectionTypeCode;
+  private ScheduledFuture<?> maintenanceTask;
+  private ObjectName poolStateMBeanName;
+  private final AtomicLong leakDetectionCheckouts = new AtomicLong();
 
   public PooledDataSource() {
     dataSource = new UnpooledDataSource();
@@ -205,6 +246,17 @@ public class PooledDataSource implements DataSource {
     forceCloseAll();
   }
 
+  /*
+   * The maximum time a caller waits for a connection before the checkout fails.
+   * Waiting callers are served in arrival order.
+   *
+   * @param poolMaximumWaitTime The maximum time, 0 to wait forever
+   */
+  public void setPoolMaximumWaitTime(int poolMaximumWaitTime) {
+    this.poolMaximumWaitTime = poolMaximumWaitTime;
+    forceCloseAll();
+  }
+
   /*
    * The query to be used to check a connection
    *
@@ -236,6 +288,130 @@ public class PooledDataSource implements DataSource {
     forceCloseAll();
   }
 
+  /*
+   * Determines if the ping uses the JDBC 4 Connection.isValid() method of the driver
+   * instead of the ping query.
+   *
+   * @param poolPingUseIsValid True to check connections with Connection.isValid()
+   */
+  public void setPoolPingUseIsValid(boolean poolPingUseIsValid) {
+    this.poolPingUseIsValid = poolPingUseIsValid;
+    forceCloseAll();
+  }
+
+  /*
+   * The number of seconds to wait for Connection.isValid() to answer
+   *
+   * @param poolPingTimeout The timeout in seconds, 0 for no timeout
+   */
+  public void setPoolPingTimeout(int poolPingTimeout) {
+    this.poolPingTimeout = poolPingTimeout;
+    forceCloseAll();
+  }
+
+  /*
+   * Determines if connections are checked out and returned without taking the pool lock.
+   * Idle connections are then kept in a lock-free bag and a thread tends to get back
+   * the connection it returned last.
+   *
+   * @param poolConcurrent True to use the lock-free checkout
+   */
+  public void setPoolConcurrent(boolean poolConcurrent) {
+    this.poolConcurrent = poolConcurrent;
+    forceCloseAll();
+  }
+
+  /*
+   * The number of idle connections the maintenance task keeps open
+   *
+   * @param poolMinimumIdleConnections The minimum number of idle connections
+   */
+  public void setPoolMinimumIdleConnections(int poolMinimumIdleConnections) {
+    this.poolMinimumIdleConnections = poolMinimumIdleConnections;
+  }
+
+  /*
+   * The maximum time a connection stays open. Each connection is retired a little
+   * earlier than that so that connections opened together are not all closed at once.
+   *
+   * @param poolMaximumConnectionLifetime The maximum lifetime, 0 for no limit
+   */
+  public void setPoolMaximumConnectionLifetime(int poolMaximumConnectionLifetime) {
+    this.poolMaximumConnectionLifetime = poolMaximumConnectionLifetime;
+  }
+
+  /*
+   * The time after which the maintenance task closes an idle connection,
+   * as long as more than poolMinimumIdleConnections are left idle
+   *
+   * @param poolMaximumIdleTime The maximum idle time, 0 for no limit
+   */
+  public void setPoolMaximumIdleTime(int poolMaximumIdleTime) {
+    this.poolMaximumIdleTime = poolMaximumIdleTime;
+  }
+
+  /*
+   * How often the maintenance task runs. The task opens connections up to
+   * poolMinimumIdleConnections and closes the idle ones that are too old or idle for too long.
+   *
+   * @param poolMaintenanceInterval The interval in milliseconds, 0 to disable the task
+   */
+  public void setPoolMaintenanceInterval(int poolMaintenanceInterval) {
+    this.poolMaintenanceInterval = poolMaintenanceInterval;
+    scheduleMaintenance();
+  }
+
+  /*
+   * The number of connections opened in parallel by {@link #prewarm()}.
+   * PooledDataSourceFactory prewarms the pool once it is configured.
+   *
+   * @param poolPrewarmConnections The number of connections, bounded by poolMaximumIdleConnections
+   */
+  public void setPoolPrewarmConnections(int poolPrewarmConnections) {
+    this.poolPrewarmConnections = poolPrewarmConnections;
+  }
+
+  /*
+   * Determines if PooledDataSourceFactory registers the pool state as a JMX MBean.
+   * The MBean is unregistered by close()
+   *
+   * @param poolJmxEnabled True to publish the pool state through JMX
+   */
+  public void setPoolJmxEnabled(boolean poolJmxEnabled) {
+    this.poolJmxEnabled = poolJmxEnabled;
+  }
+
+  /*
+   * The time a connection may stay checked out before it is reported as a possible leak.
+   * The report tells which thread checked it out and, for sampled checkouts, where.
+   *
+   * @param poolLeakDetectionThreshold The time in milliseconds, 0 to disable leak detection
+   */
+  public void setPoolLeakDetectionThreshold(int poolLeakDetectionThreshold) {
+    this.poolLeakDetectionThreshold = poolLeakDetectionThreshold;
+    scheduleMaintenance();
+  }
+
+  /*
+   * How often the stack trace of a checkout is captured for leak reports
+   *
+   * @param poolLeakDetectionSampling Capture one checkout out of this many, 1 to capture all of them
+   */
+  public void setPoolLeakDetectionSampling(int poolLeakDetectionSampling) {
+    this.poolLeakDetectionSampling = poolLeakDetectionSampling;
+  }
+
+  /*
+   * The number of prepared statements cached for each connection. The statements are kept
+   * when the connection returns to the pool, so a statement is prepared once per connection.
+   *
+   * @param poolPreparedStatementCacheSize The number of statements, 0 to disable the cache
+   */
+  public void setPoolPreparedStatementCacheSize(int poolPreparedStatementCacheSize) {
+    this.poolPreparedStatementCacheSize = poolPreparedStatementCacheSize;
+    forceCloseAll();
+  }
+
   public String getDriver() {
     return dataSource.getDriver();
   }
@@ -284,6 +460,10 @@ public class PooledDataSource implements DataSource {
     return poolTimeToWait;
   }
 
+  public int getPoolMaximumWaitTime() {
+    return poolMaximumWaitTime;
+  }
+
   public String getPoolPingQuery() {
     return poolPingQuery;
   }
@@ -296,6 +476,54 @@ public class PooledDataSource implements DataSource {
     return poolPingConnectionsNotUsedFor;
   }
 
+  public boolean isPoolPingUseIsValid() {
+    return poolPingUseIsValid;
+  }
+
+  public int getPoolPingTimeout() {
+    return poolPingTimeout;
+  }
+
+  public boolean isPoolConcurrent() {
+    return poolConcurrent;
+  }
+
+  public int getPoolMinimumIdleConnections() {
+    return poolMinimumIdleConnections;
+  }
+
+  public int getPoolMaximumConnectionLifetime() {
+    return poolMaximumConnectionLifetime;
+  }
+
+  public int getPoolMaximumIdleTime() {
+    return poolMaximumIdleTime;
+  }
+
+  public int getPoolMaintenanceInterval() {
+    return poolMaintenanceInterval;
+  }
+
+  public int getPoolPrewarmConnections() {
+    return poolPrewarmConnections;
+  }
+
+  public boolean isPoolJmxEnabled() {
+    return poolJmxEnabled;
+  }
+
+  public int getPoolLeakDetectionThreshold() {
+    return poolLeakDetectionThreshold;
+  }
+
+  public int getPoolLeakDetectionSampling() {
+    return poolLeakDetectionSampling;
+  }
+
+  public int getPoolPreparedStatementCacheSize() {
+    return poolPreparedStatementCacheSize;
+  }
+
   /*
    * Closes all active and idle connections in the pool
    */
@@ -303,36 +531,120 @@ public class PooledDataSource implements DataSource {
     synchronized (state) {
       expectedConnectionTypeCode = assembleConnectionTypeCode(dataSource.getUrl(), dataSource.getUsername(), dataSource.getPassword());
       for (int i = state.activeConnections.size(); i > 0; i--) {
-        try {
-          PooledConnection conn = state.activeConnections.remove(i - 1);
-          conn.invalidate();
+        closeConnection(state.activeConnections.remove(i - 1));
+      }
+      for (int i = state.idleConnections.size(); i > 0; i--) {
+        closeConnection(state.idleConnections.remove(i - 1));
+      }
+      for (PooledConnection conn : state.getConnectionBag().drain()) {
+        closeConnection(conn);
+      }
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("PooledDataSource forcefully closed/removed all connections.");
+    }
+  }
 
-          Connection realConn = conn.getRealConnection();
-          if (!realConn.getAutoCommit()) {
-            realConn.rollback();
+  /*
+   * Shuts the pool down: stops the maintenance, unregisters the pool state MBean and closes all connections.
+   * Unlike forceCloseAll(), which the setters call to apply a new configuration, the pool is not meant to be
+   * used afterwards.
+   */
+  public void close() {
+    synchronized (this) {
+      if (maintenanceTask != null) {
+        maintenanceTask.cancel(false);
+        maintenanceTask = null;
+      }
+    }
+    unregisterMBean();
+    forceCloseAll();
+  }
+
+  /*
+   * Registers the pool state as a JMX MBean, named after the identity of this data source,
+   * until close() is called
+   */
+  public synchronized void registerMBean() {
+    if (poolStateMBeanName != null) {
+      return;
+    }
+    try {
+      ObjectName name = new ObjectName("org.apache.ibatis.datasource.pooled:type=PooledDataSource,id="
+          + Integer.toHexString(System.identityHashCode(this)));
+      ManagementFactory.getPlatformMBeanServer().registerMBean(state, name);
+      poolStateMBeanName = name;
+      if (log.isDebugEnabled()) {
+        log.debug("Registered pool state MBean " + name + ".");
+      }
+    } catch (Exception e) {
+      log.warn("Could not register the pool state MBean: " + e.getMessage());
+    }
+  }
+
+  private synchronized void unregisterMBean() {
+    if (poolStateMBeanName == null) {
+      return;
+    }
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(poolStateMBeanName);
+    } catch (Exception e) {
+      log.warn("Could not unregister the pool state MBean: " + e.getMessage());
+    }
+    poolStateMBeanName = null;
+  }
+
+  /*
+   * Opens poolPrewarmConnections connections in parallel, outside of the pool lock,
+   * and adds them to the idle connections
+   *
+   * @return The number of connections opened
+   */
+  public int prewarm() throws SQLException {
+    if (poolPrewarmConnections <= 0) {
+      return 0;
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(poolPrewarmConnections, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "PooledDataSource-prewarm");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    try {
+      List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+      for (int i = 0; i < poolPrewarmConnections; i++) {
+        tasks.add(new Callable<Boolean>() {
+          @Override
+          public Boolean call() throws SQLException {
+            return addIdleConnection();
           }
-          realConn.close();
-        } catch (Exception e) {
-          // ignore
-        }
+        });
       }
-      for (int i = state.idleConnections.size(); i > 0; i--) {
+      int opened = 0;
+      Throwable failure = null;
+      for (Future<Boolean> result : executor.invokeAll(tasks)) {
         try {
-          PooledConnection conn = state.idleConnections.remove(i - 1);
-          conn.invalidate();
-
-          Connection realConn = conn.getRealConnection();
-          if (!realConn.getAutoCommit()) {
-            realConn.rollback();
+          if (result.get()) {
+            opened++;
           }
-          realConn.close();
-        } catch (Exception e) {
-          // ignore
+        } catch (ExecutionException e) {
+          failure = e.getCause();
         }
       }
-    }
-    if (log.isDebugEnabled()) {
-      log.debug("PooledDataSource forcefully closed/removed all connections.");
+      if (failure != null && opened == 0) {
+        throw new SQLException("PooledDataSource: Could not prewarm the pool. Cause: " + failure, failure);
+      }
+      if (log.isDebugEnabled()) {
+        log.debug("Prewarmed pool with " + opened + " connections.");
+      }
+      return opened;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("PooledDataSource: Interrupted while prewarming the pool.", e);
+    } finally {
+      executor.shutdown();
     }
   }
 
@@ -344,30 +656,59 @@ public class PooledDataSource implements DataSource {
     return ("" + url + username + password).hashCode();
   }
 
+  private void closeConnection(PooledConnection conn) {
+    try {
+      conn.invalidate();
+
+      Connection realConn = conn.getRealConnection();
+      if (!realConn.getAutoCommit()) {
+        realConn.rollback();
+      }
+      realConn.close();
+    } catch (Exception e) {
+      // ignore
+    }
+  }
+
   protected void pushConnection(PooledConnection conn) throws SQLException {
+    if (poolConcurrent) {
+      pushConnectionConcurrently(conn);
+      return;
+    }
 
     synchronized (state) {
       state.activeConnections.remove(conn);
       if (conn.isValid()) {
-        if (state.idleConnections.size() < poolMaximumIdleConnections && conn.getConnectionTypeCode() == expectedConnectionTypeCode) {
-          state.accumulatedCheckoutTime += conn.getCheckoutTime();
-          if (!conn.getRealConnection().getAutoCommit()) {
-            conn.getRealConnection().rollback();
-          }
+        if ((!state.getWaiters().isEmpty() || (state.idleConnections.size() < poolMaximumIdleConnections && !isExpired(conn)))
+            && conn.getConnectionTypeCode() == expectedConnectionTypeCode) {
+          state.recordCheckoutTime(conn.getCheckoutTime());
+          conn.rollbackIfDirty();
           PooledConnection newConn = new PooledConnection(conn.getRealConnection(), this);
-          state.idleConnections.add(newConn);
           newConn.setCreatedTimestamp(conn.getCreatedTimestamp());
-          newConn.setLastUsedTimestamp(conn.getLastUsedTimestamp());
+          // the connection was in use until now, no need to ping it if it is checked out again soon
+          newConn.setLastUsedTimestamp(System.currentTimeMillis());
+          newConn.inheritState(conn);
           conn.invalidate();
-          if (log.isDebugEnabled()) {
-            log.debug("Returned connection " + newConn.getRealHashCode() + " to pool.");
+          ConnectionWaiter waiter = state.getWaiters().poll();
+          if (waiter != null) {
+            // Hand the connection directly to the longest waiting caller,
+            // it stays active so that nobody else opens a connection in its place
+            newConn.setCheckoutTimestamp(System.currentTimeMillis());
+            state.activeConnections.add(newConn);
+            waiter.handOff(newConn);
+            state.incrementHandoffCount();
+            if (log.isDebugEnabled()) {
+              log.debug("Handed connection " + newConn.getRealHashCode() + " to a waiting caller.");
+            }
+          } else {
+            state.idleConnections.add(newConn);
+            if (log.isDebugEnabled()) {
+              log.debug("Returned connection " + newConn.getRealHashCode() + " to pool.");
+            }
           }
-          state.notifyAll();
         } else {
-          state.accumulatedCheckoutTime += conn.getCheckoutTime();
-          if (!conn.getRealConnection().getAutoCommit()) {
-            conn.getRealConnection().rollback();
-          }
+          state.recordCheckoutTime(conn.getCheckoutTime());
+          conn.rollbackIfDirty();
           conn.getRealConnection().close();
           if (log.isDebugEnabled()) {
             log.debug("Closed connection " + conn.getRealHashCode() + ".");
@@ -378,20 +719,79 @@ public class PooledDataSource implements DataSource {
         if (log.isDebugEnabled()) {
           log.debug("A bad connection (" + conn.getRealHashCode() + ") attempted to return to the pool, discarding connection.");
         }
-        state.badConnectionCount++;
+        state.incrementBadConnectionCount();
+      }
+    }
+  }
+
+  private void pushConnectionConcurrently(PooledConnection conn) throws SQLException {
+    ConnectionBag bag = state.getConnectionBag();
+    if (!bag.deactivate(conn)) {
+      // the connection was claimed as overdue or the pool was closed meanwhile
+      if (log.isDebugEnabled()) {
+        log.debug("A bad connection (" + conn.getRealHashCode() + ") attempted to return to the pool, discarding connection.");
+      }
+      state.incrementBadConnectionCount();
+      return;
+    }
+    if (conn.isValid()) {
+      state.recordCheckoutTime(conn.getCheckoutTime());
+      try {
+        conn.rollbackIfDirty();
+      } catch (SQLException e) {
+        closeConnection(conn);
+        bag.release();
+        throw e;
+      }
+      if ((bag.hasWaiters() || (bag.getIdleCount() < poolMaximumIdleConnections && !isExpired(conn)))
+          && conn.getConnectionTypeCode() == expectedConnectionTypeCode) {
+        PooledConnection newConn = new PooledConnection(conn.getRealConnection(), this);
+        newConn.setCreatedTimestamp(conn.getCreatedTimestamp());
+        newConn.setLastUsedTimestamp(System.currentTimeMillis());
+        newConn.inheritState(conn);
+        conn.invalidate();
+        bag.offer(newConn);
+        if (log.isDebugEnabled()) {
+          log.debug("Returned connection " + newConn.getRealHashCode() + " to pool.");
+        }
+      } else {
+        closeConnection(conn);
+        bag.release();
+        if (log.isDebugEnabled()) {
+          log.debug("Closed connection " + conn.getRealHashCode() + ".");
+        }
+      }
+    } else {
+      if (log.isDebugEnabled()) {
+        log.debug("A bad connection (" + conn.getRealHashCode() + ") attempted to return to the pool, discarding connection.");
       }
+      state.incrementBadConnectionCount();
+      bag.release();
     }
   }
 
   private PooledConnection popConnection(String username, String password) throws SQLException {
+    if (poolConcurrent) {
+      return popConnectionConcurrently(username, password);
+    }
     boolean countedWait = false;
     PooledConnection conn = null;
+    ConnectionWaiter waiter = null;
     long t = System.currentTimeMillis();
     int localBadConnectionCount = 0;
 
     while (conn == null) {
+      long waitTime = 0;
       synchronized (state) {
-        if (!state.idleConnections.isEmpty()) {
+        if (waiter != null && waiter.getConnection() != null) {
+          // A returned connection was handed to us
+          conn = waiter.getConnection();
+          state.activeConnections.remove(conn);
+          waiter = null;
+          if (log.isDebugEnabled()) {
+            log.debug("Received connection " + conn.getRealHashCode() + " from pool.");
+          }
+        } else if (!state.idleConnections.isEmpty()) {
           // Pool has available connection
           conn = state.idleConnections.remove(0);
           if (log.isDebugEnabled()) {
@@ -411,68 +811,45 @@ public class PooledDataSource implements DataSource {
             long longestCheckoutTime = oldestActiveConnection.getCheckoutTime();
             if (longestCheckoutTime > poolMaximumCheckoutTime) {
               // Can claim overdue connection
-              state.claimedOverdueConnectionCount++;
-              state.accumulatedCheckoutTimeOfOverdueConnections += longestCheckoutTime;
-              state.accumulatedCheckoutTime += longestCheckoutTime;
               state.activeConnections.remove(oldestActiveConnection);
-              if (!oldestActiveConnection.getRealConnection().getAutoCommit()) {
-                try {
-                  oldestActiveConnection.getRealConnection().rollback();
-                } catch (SQLException e) {
-                  /*
-                     Just log a message for debug and continue to execute the following
-                     statement like nothing happend.
-                     Wrap the bad connection with a new PooledConnection, this will help
-                     to not intterupt current executing thread and give current thread a
-                     chance to join the next competion for another valid/good database
-                     connection. At the end of this loop, bad {@link @conn} will be set as null.
-                   */
-                  log.debug("Bad connection. Could not roll back");
-                }  
+              conn = claimOverdueConnection(oldestActiveConnection);
+            } else {
+              // Must wait, in line behind the callers that came first
+              if (isWaitTimeExceeded(t)) {
+                state.getWaiters().remove(waiter);
+                throw waitTimeoutException(t);
               }
-              conn = new PooledConnection(oldestActiveConnection.getRealConnection(), this);
-              conn.setCreatedTimestamp(oldestActiveConnection.getCreatedTimestamp());
-              conn.setLastUsedTimestamp(oldestActiveConnection.getLastUsedTimestamp());
-              oldestActiveConnection.invalidate();
-              if (log.isDebugEnabled()) {
-                log.debug("Claimed overdue connection " + conn.getRealHashCode() + ".");
+              waitTime = getTimeToWait(t);
+              if (!countedWait) {
+                state.incrementHadToWaitCount();
+                countedWait = true;
               }
-            } else {
-              // Must wait
-              try {
-                if (!countedWait) {
-                  state.hadToWaitCount++;
-                  countedWait = true;
-                }
-                if (log.isDebugEnabled()) {
-                  log.debug("Waiting as long as " + poolTimeToWait + " milliseconds for connection.");
-                }
-                long wt = System.currentTimeMillis();
-                state.wait(poolTimeToWait);
-                state.accumulatedWaitTime += System.currentTimeMillis() - wt;
-              } catch (InterruptedException e) {
-                break;
+              if (waiter == null) {
+                waiter = new ConnectionWaiter();
+                state.getWaiters().add(waiter);
               }
             }
           }
         }
+        if (conn != null && waiter != null) {
+          state.getWaiters().remove(waiter);
+          waiter = null;
+        }
         if (conn != null) {
           // ping to server and check the connection is valid or not
           if (conn.isValid()) {
-            if (!conn.getRealConnection().getAutoCommit()) {
-              conn.getRealConnection().rollback();
-            }
+            conn.rollbackIfDirty();
             conn.setConnectionTypeCode(assembleConnectionTypeCode(dataSource.getUrl(), username, password));
             conn.setCheckoutTimestamp(System.currentTimeMillis());
             conn.setLastUsedTimestamp(System.currentTimeMillis());
+            recordCheckoutOrigin(conn);
             state.activeConnections.add(conn);
-            state.requestCount++;
-            state.accumulatedRequestTime += System.currentTimeMillis() - t;
+            state.recordRequest(System.currentTimeMillis() - t);
           } else {
             if (log.isDebugEnabled()) {
               log.debug("A bad connection (" + conn.getRealHashCode() + ") was returned from the pool, getting another connection.");
             }
-            state.badConnectionCount++;
+            state.incrementBadConnectionCount();
             localBadConnectionCount++;
             conn = null;
             if (localBadConnectionCount > (poolMaximumIdleConnections + poolMaximumLocalBadConnectionTolerance)) {
@@ -485,6 +862,156 @@ public class PooledDataSource implements DataSource {
         }
       }
 
+      if (conn == null && waiter != null) {
+        // Park outside of the pool lock until a returned connection is handed to us
+        if (log.isDebugEnabled()) {
+          log.debug("Waiting as long as " + waitTime + " milliseconds for connection.");
+        }
+        long wt = System.currentTimeMillis();
+        try {
+          waiter.await(waitTime);
+        } catch (InterruptedException e) {
+          abandonWaiter(waiter);
+          break;
+        } finally {
+          state.recordWaitTime(System.currentTimeMillis() - wt);
+        }
+      }
+    }
+
+    if (conn == null) {
+      if (log.isDebugEnabled()) {
+        log.debug("PooledDataSource: Unknown severe error condition.  The connection pool returned a null connection.");
+      }
+      throw new SQLException("PooledDataSource: Unknown severe error condition.  The connection pool returned a null connection.");
+    }
+
+    return conn;
+  }
+
+  private void abandonWaiter(ConnectionWaiter waiter) throws SQLException {
+    synchronized (state) {
+      if (state.getWaiters().remove(waiter)) {
+        return;
+      }
+    }
+    // a connection was handed to us meanwhile, give it to the next caller
+    pushConnection(waiter.getConnection());
+  }
+
+  private boolean isWaitTimeExceeded(long requestTimestamp) {
+    return poolMaximumWaitTime > 0 && System.currentTimeMillis() - requestTimestamp >= poolMaximumWaitTime;
+  }
+
+  /*
+   * Time for a caller to wait in the next round, bounded by what is left of poolMaximumWaitTime
+   *
+   * @param requestTimestamp - the time the caller asked for a connection
+   * @return The time to wait, 0 to wait until a connection is returned
+   */
+  private long getTimeToWait(long requestTimestamp) {
+    if (poolMaximumWaitTime <= 0) {
+      return poolTimeToWait;
+    }
+    long remaining = requestTimestamp + poolMaximumWaitTime - System.currentTimeMillis();
+    return poolTimeToWait > 0 ? Math.min(poolTimeToWait, remaining) : remaining;
+  }
+
+  private SQLException waitTimeoutException(long requestTimestamp) {
+    state.incrementTimeoutCount();
+    String message = "PooledDataSource: Timed out after " + (System.currentTimeMillis() - requestTimestamp)
+        + " milliseconds waiting for a connection.";
+    if (log.isDebugEnabled()) {
+      log.debug(message);
+    }
+    return new SQLException(message);
+  }
+
+  private PooledConnection popConnectionConcurrently(String username, String password) throws SQLException {
+    ConnectionBag bag = state.getConnectionBag();
+    boolean countedWait = false;
+    PooledConnection conn = null;
+    long t = System.currentTimeMillis();
+    int localBadConnectionCount = 0;
+
+    while (conn == null) {
+      conn = bag.poll();
+      if (conn != null) {
+        if (log.isDebugEnabled()) {
+          log.debug("Checked out connection " + conn.getRealHashCode() + " from pool.");
+        }
+      } else if (bag.reserve(poolMaximumActiveConnections)) {
+        // Can create new connection, outside of any lock
+        boolean created = false;
+        try {
+          conn = new PooledConnection(dataSource.getConnection(), this);
+          created = true;
+        } finally {
+          if (!created) {
+            bag.release();
+          }
+        }
+        conn.tryBorrow();
+        if (log.isDebugEnabled()) {
+          log.debug("Created connection " + conn.getRealHashCode() + ".");
+        }
+      } else {
+        conn = claimOverdueConnection(bag);
+        if (conn == null) {
+          // Must wait
+          if (isWaitTimeExceeded(t)) {
+            throw waitTimeoutException(t);
+          }
+          long waitTime = getTimeToWait(t);
+          if (!countedWait) {
+            state.incrementHadToWaitCount();
+            countedWait = true;
+          }
+          if (log.isDebugEnabled()) {
+            log.debug("Waiting as long as " + waitTime + " milliseconds for connection.");
+          }
+          long wt = System.currentTimeMillis();
+          try {
+            conn = bag.poll(waitTime);
+          } catch (InterruptedException e) {
+            break;
+          } finally {
+            state.recordWaitTime(System.currentTimeMillis() - wt);
+          }
+        }
+      }
+      if (conn != null) {
+        // ping to server and check the connection is valid or not
+        if (conn.isValid()) {
+          try {
+            conn.rollbackIfDirty();
+          } catch (SQLException e) {
+            closeConnection(conn);
+            bag.release();
+            throw e;
+          }
+          conn.setConnectionTypeCode(assembleConnectionTypeCode(dataSource.getUrl(), username, password));
+          conn.setCheckoutTimestamp(System.currentTimeMillis());
+          conn.setLastUsedTimestamp(System.currentTimeMillis());
+          recordCheckoutOrigin(conn);
+          bag.activate(conn);
+          state.recordRequest(System.currentTimeMillis() - t);
+        } else {
+          if (log.isDebugEnabled()) {
+            log.debug("A bad connection (" + conn.getRealHashCode() + ") was returned from the pool, getting another connection.");
+          }
+          state.incrementBadConnectionCount();
+          localBadConnectionCount++;
+          bag.release();
+          conn = null;
+          if (localBadConnectionCount > (poolMaximumIdleConnections + poolMaximumLocalBadConnectionTolerance)) {
+            if (log.isDebugEnabled()) {
+              log.debug("PooledDataSource: Could not get a good connection to the database.");
+            }
+            throw new SQLException("PooledDataSource: Could not get a good connection to the database.");
+          }
+        }
+      }
     }
 
     if (conn == null) {
@@ -497,6 +1024,250 @@ public class PooledDataSource implements DataSource {
     return conn;
   }
 
+  private PooledConnection claimOverdueConnection(ConnectionBag bag) {
+    PooledConnection oldestActiveConnection = null;
+    for (PooledConnection conn : bag.getActiveConnections()) {
+      if (oldestActiveConnection == null || conn.getCheckoutTimestamp() < oldestActiveConnection.getCheckoutTimestamp()) {
+        oldestActiveConnection = conn;
+      }
+    }
+    if (oldestActiveConnection != null
+        && oldestActiveConnection.getCheckoutTime() > poolMaximumCheckoutTime
+        && bag.deactivate(oldestActiveConnection)) {
+      return claimOverdueConnection(oldestActiveConnection);
+    }
+    return null;
+  }
+
+  /*
+   * Takes over the real connection of a connection that has been checked out for too long.
+   * The caller must have removed it from the active connections already.
+   *
+   * @param oldestActiveConnection - the overdue connection
+   * @return A new pooled connection wrapping the same real connection
+   */
+  private PooledConnection claimOverdueConnection(PooledConnection oldestActiveConnection) {
+    long longestCheckoutTime = oldestActiveConnection.getCheckoutTime();
+    if (poolLeakDetectionThreshold > 0 && !oldestActiveConnection.isLeakReported()) {
+      reportLeak(oldestActiveConnection);
+    }
+    state.recordOverdueCheckout(longestCheckoutTime);
+    try {
+      if (!oldestActiveConnection.getRealConnection().getAutoCommit()) {
+        oldestActiveConnection.getRealConnection().rollback();
+      }
+    } catch (SQLException e) {
+      /*
+         Just log a message for debug and continue to execute the following
+         statement like nothing happend.
+         Wrap the bad connection with a new PooledConnection, this will help
+         to not intterupt current executing thread and give current thread a
+         chance to join the next competion for another valid/good database
+         connection. At the end of this loop, bad {@link @conn} will be set as null.
+       */
+      log.debug("Bad connection. Could not roll back");
+    }
+    PooledConnection conn = new PooledConnection(oldestActiveConnection.getRealConnection(), this);
+    conn.tryBorrow();
+    conn.setCreatedTimestamp(oldestActiveConnection.getCreatedTimestamp());
+    conn.setLastUsedTimestamp(oldestActiveConnection.getLastUsedTimestamp());
+    if (oldestActiveConnection.getStatementCache() != null) {
+      // statements still in use by the previous owner may come back, start afresh
+      oldestActiveConnection.getStatementCache().clear();
+    }
+    oldestActiveConnection.invalidate();
+    if (log.isDebugEnabled()) {
+      log.debug("Claimed overdue connection " + conn.getRealHashCode() + ".");
+    }
+    return conn;
+  }
+
+  /*
+   * Tells if a connection has outlived poolMaximumConnectionLifetime. The lifetime of each
+   * connection is shortened by up to a tenth, derived from the real connection.
+   *
+   * @param conn - the connection to check
+   * @return True if the connection should be retired
+   */
+  private boolean isExpired(PooledConnection conn) {
+    if (poolMaximumConnectionLifetime <= 0) {
+      return false;
+    }
+    long jitter = (conn.getRealHashCode() & Integer.MAX_VALUE) % (poolMaximumConnectionLifetime / 10 + 1);
+    return conn.getAge() > poolMaximumConnectionLifetime - jitter;
+  }
+
+  private synchronized void scheduleMaintenance() {
+    if (maintenanceTask != null) {
+      maintenanceTask.cancel(false);
+      maintenanceTask = null;
+    }
+    // leak detection needs the task too, it then runs as often as the leak threshold
+    int interval = poolMaintenanceInterval > 0 ? poolMaintenanceInterval : poolLeakDetectionThreshold;
+    if (interval > 0) {
+      MaintenanceTask task = new MaintenanceTask(this);
+      maintenanceTask = maintenanceExecutor.scheduleWithFixedDelay(task, interval, interval, TimeUnit.MILLISECONDS);
+      task.future = maintenanceTask;
+    }
+  }
+
+  private void recordCheckoutOrigin(PooledConnection conn) {
+    if (poolLeakDetectionThreshold > 0) {
+      StackTraceElement[] stackTrace = null;
+      if (poolLeakDetectionSampling <= 1 || leakDetectionCheckouts.incrementAndGet() % poolLeakDetectionSampling == 0) {
+        stackTrace = new Throwable().getStackTrace();
+      }
+      conn.setCheckoutOrigin(Thread.currentThread().getName(), stackTrace);
+    }
+  }
+
+  /*
+   * Reports the connections checked out for longer than poolLeakDetectionThreshold, once per checkout
+   */
+  private void detectLeaks() {
+    List<PooledConnection> active;
+    if (poolConcurrent) {
+      active = new ArrayList<PooledConnection>(state.getConnectionBag().getActiveConnections());
+    } else {
+      synchronized (state) {
+        active = new ArrayList<PooledConnection>(state.activeConnections);
+      }
+    }
+    for (PooledConnection conn : active) {
+      if (conn.getCheckoutTime() > poolLeakDetectionThreshold && !conn.isLeakReported()) {
+        reportLeak(conn);
+      }
+    }
+  }
+
+  private void reportLeak(PooledConnection conn) {
+    conn.setLeakReported(true);
+    state.incrementSuspectedLeakCount();
+    StringBuilder message = new StringBuilder();
+    message.append("Connection ").append(conn.getRealHashCode()).append(" has been checked out for ")
+        .append(conn.getCheckoutTime()).append(" milliseconds by thread ").append(conn.getCheckoutThreadName())
+        .append(", it may have leaked.");
+    StackTraceElement[] stackTrace = conn.getCheckoutStackTrace();
+    if (stackTrace != null) {
+      message.append(" It was checked out at:");
+      for (StackTraceElement element : stackTrace) {
+        message.append("\n\tat ").append(element);
+      }
+    }
+    log.warn(message.toString());
+  }
+
+  /*
+   * Reports possible leaks, closes the idle connections that are too old or idle for too long,
+   * then opens new ones up to poolMinimumIdleConnections. Runs on the maintenance thread.
+   */
+  private void maintainPool() throws SQLException {
+    if (poolLeakDetectionThreshold > 0) {
+      detectLeaks();
+    }
+    List<PooledConnection> retired = new ArrayList<PooledConnection>();
+    if (poolConcurrent) {
+      ConnectionBag bag = state.getConnectionBag();
+      int idle = bag.getIdleCount();
+      for (PooledConnection conn : bag.getIdleConnections()) {
+        if ((isExpired(conn) || (isIdleTooLong(conn) && idle > poolMinimumIdleConnections)) && bag.remove(conn)) {
+          bag.release();
+          retired.add(conn);
+          idle--;
+        }
+      }
+    } else {
+      synchronized (state) {
+        int idle = state.idleConnections.size();
+        for (Iterator<PooledConnection> it = state.idleConnections.iterator(); it.hasNext();) {
+          PooledConnection conn = it.next();
+          if (isExpired(conn) || (isIdleTooLong(conn) && idle > poolMinimumIdleConnections)) {
+            it.remove();
+            retired.add(conn);
+            idle--;
+          }
+        }
+      }
+    }
+    for (PooledConnection conn : retired) {
+      closeConnection(conn);
+      if (log.isDebugEnabled()) {
+        log.debug("Retired idle connection " + conn.getRealHashCode() + ".");
+      }
+    }
+
+    int missing = Math.min(poolMinimumIdleConnections, poolMaximumIdleConnections) - state.getIdleConnectionCount();
+    for (int i = 0; i < missing && addIdleConnection(); i++) {
+      // keep opening connections until the pool is full
+    }
+  }
+
+  private boolean isIdleTooLong(PooledConnection conn) {
+    return poolMaximumIdleTime > 0 && conn.getIdleTime() > poolMaximumIdleTime;
+  }
+
+  /*
+   * Opens a new connection outside of the pool lock and adds it to the idle connections,
+   * or hands it to a waiting caller
+   *
+   * @return True if the pool had room for the connection
+   */
+  private boolean addIdleConnection() throws SQLException {
+    if (poolConcurrent) {
+      ConnectionBag bag = state.getConnectionBag();
+      if (!bag.reserve(Math.min(poolMaximumActiveConnections, bag.getActiveCount() + poolMaximumIdleConnections))) {
+        return false;
+      }
+      PooledConnection conn;
+      try {
+        conn = new PooledConnection(dataSource.getConnection(), this);
+      } catch (SQLException e) {
+        bag.release();
+        throw e;
+      }
+      conn.setConnectionTypeCode(expectedConnectionTypeCode);
+      bag.offer(conn);
+      if (log.isDebugEnabled()) {
+        log.debug("Created idle connection " + conn.getRealHashCode() + ".");
+      }
+      return true;
+    }
+
+    synchronized (state) {
+      if (!hasRoomForIdleConnection()) {
+        return false;
+      }
+    }
+    Connection realConn = dataSource.getConnection();
+    synchronized (state) {
+      if (hasRoomForIdleConnection()) {
+        PooledConnection conn = new PooledConnection(realConn, this);
+        conn.setConnectionTypeCode(expectedConnectionTypeCode);
+        ConnectionWaiter waiter = state.getWaiters().poll();
+        if (waiter != null) {
+          conn.setCheckoutTimestamp(System.currentTimeMillis());
+          state.activeConnections.add(conn);
+          waiter.handOff(conn);
+          state.incrementHandoffCount();
+        } else {
+          state.idleConnections.add(conn);
+        }
+        if (log.isDebugEnabled()) {
+          log.debug("Created idle connection " + conn.getRealHashCode() + ".");
+        }
+        return true;
+      }
+    }
+    // the pool filled up while the connection was being opened
+    realConn.close();
+    return false;
+  }
+
+  private boolean hasRoomForIdleConnection() {
+    return state.idleConnections.size() < poolMaximumIdleConnections
+        && state.activeConnections.size() + state.idleConnections.size() < poolMaximumActiveConnections;
+  }
+
   /*
    * Method to check to see if a connection is still usable
    *
@@ -523,19 +1294,29 @@ public class PooledDataSource implements DataSource {
               log.debug("Testing connection " + conn.getRealHashCode() + " ...");
             }
             Connection realConn = conn.getRealConnection();
-            Statement statement = realConn.createStatement();
-            ResultSet rs = statement.executeQuery(poolPingQuery);
-            rs.close();
-            statement.close();
-            if (!realConn.getAutoCommit()) {
-              realConn.rollback();
+            if (poolPingUseIsValid) {
+              if (!realConn.isValid(poolPingTimeout)) {
+                throw new SQLException("Connection.isValid() returned false");
+              }
+            } else {
+              Statement statement = realConn.createStatement();
+              ResultSet rs = statement.executeQuery(poolPingQuery);
+              rs.close();
+              statement.close();
+              if (!realConn.getAutoCommit()) {
+                realConn.rollback();
+              }
             }
             result = true;
             if (log.isDebugEnabled()) {
               log.debug("Connection " + conn.getRealHashCode() + " is GOOD!");
             }
           } catch (Exception e) {
-            log.warn("Execution of ping query '" + poolPingQuery + "' failed: " + e.getMessage());
+            if (poolPingUseIsValid) {
+              log.warn("Validation of connection " + conn.getRealHashCode() + " failed: " + e.getMessage());
+            } else {
+              log.warn("Execution of ping query '" + poolPingQuery + "' failed: " + e.getMessage());
+            }
             try {
               conn.getRealConnection().close();
             } catch (Exception e2) {
@@ -562,13 +1343,22 @@ public class PooledDataSource implements DataSource {
     if (Proxy.isProxyClass(conn.getClass())) {
       InvocationHandler handler = Proxy.getInvocationHandler(conn);
       if (handler instanceof PooledConnection) {
-        return ((PooledConnection) handler).getRealConnection();
+        PooledConnection pooledConnection = (PooledConnection) handler;
+        try {
+          pooledConnection.untrack();
+        } catch (SQLException e) {
+          pooledConnection.invalidate();
+        }
+        return pooledConnection.getRealConnection();
       }
     }
     return conn;
   }
 
   protected void finalize() throws Throwable {
+    if (maintenanceTask != null) {
+      maintenanceTask.cancel(false);
+    }
     forceCloseAll();
     super.finalize();
   }
@@ -585,4 +1375,34 @@ public class PooledDataSource implements DataSource {
     return Logger.getLogger(Logger.GLOBAL_LOGGER_NAME); // requires JDK version 1.6
   }
 
+  /*
+   * Only holds a weak reference so that an unused data source can still be collected and finalized
+   */
+  private static class MaintenanceTask implements Runnable {
+
+    private final WeakReference<PooledDataSource> dataSource;
+    private volatile ScheduledFuture<?> future;
+
+    MaintenanceTask(PooledDataSource dataSource) {
+      this.dataSource = new WeakReference<PooledDataSource>(dataSource);
+    }
+
+    @Override
+    public void run() {
+      PooledDataSource ds = dataSource.get();
+      if (ds == null) {
+        if (future != null) {
+          future.cancel(false);
+        }
+        return;
+      }
+      try {
+        ds.maintainPool();
+      } catch (Exception e) {
+        log.warn("Pool maintenance failed: " + e.getMessage());
+      }
+    }
+
+  }
+
 }
@@ -15,15 +15,39 @@
  */
 package org.apache.ibatis.datasource.pooled;
 
+import java.sql.SQLException;
+import java.util.Properties;
+
 import org.apache.ibatis.datasource.unpooled.UnpooledDataSourceFactory;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
 
 /**
  * @author Clinton Begin
  */
 public class PooledDataSourceFactory extends UnpooledDataSourceFactory {
 
+  private static final Log log = LogFactory.getLog(PooledDataSourceFactory.class);
+
   public PooledDataSourceFactory() {
     this.dataSource = new PooledDataSource();
   }
 
+  @Override
+  public void setProperties(Properties properties) {
+    super.setProperties(properties);
+    PooledDataSource pooledDataSource = (PooledDataSource) dataSource;
+    if (pooledDataSource.getPoolPrewarmConnections() > 0) {
+      try {
+        pooledDataSource.prewarm();
+      } catch (SQLException e) {
+        // the pool still opens connections on demand
+        log.warn("Could not prewarm the connection pool: " + e.getMessage());
+      }
+    }
+    if (pooledDataSource.isPoolJmxEnabled()) {
+      pooledDataSource.registerMBean();
+    }
+  }
+
 }
@@ -0,0 +1,104 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Least recently used prepared statements of one physical connection.
+ * <p>
+ * The cache outlives the {@link PooledConnection} wrappers of the connection, so a statement
+ * is prepared once per physical connection. A statement is taken out of the cache while in use
+ * and put back when the caller closes it.
+ */
+class StatementCache {
+
+  private final Map<String, PreparedStatement> statements;
+
+  StatementCache(final int size) {
+    this.statements = new LinkedHashMap<String, PreparedStatement>(size, .75F, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+        if (size() > size) {
+          closeQuietly(eldest.getValue());
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  static String keyOf(String sql, int resultSetType, int resultSetConcurrency) {
+    return resultSetType + ":" + resultSetConcurrency + ":" + sql;
+  }
+
+  /*
+   * Takes a statement out of the cache
+   *
+   * @param key - the key built by {@link #keyOf(String, int, int)}
+   * @return The statement or null if none is cached
+   */
+  synchronized PreparedStatement take(String key) {
+    return statements.remove(key);
+  }
+
+  /*
+   * Puts a statement the caller is done with back in the cache
+   */
+  void release(String key, PreparedStatement statement) {
+    PreparedStatement previous;
+    synchronized (this) {
+      previous = statements.put(key, statement);
+    }
+    if (previous != null && previous != statement) {
+      // the same statement was prepared twice at the same time, keep one of them
+      closeQuietly(previous);
+    }
+  }
+
+  /*
+   * Closes all cached statements
+   */
+  void clear() {
+    List<PreparedStatement> closing;
+    synchronized (this) {
+      closing = new ArrayList<PreparedStatement>(statements.values());
+      statements.clear();
+    }
+    for (PreparedStatement statement : closing) {
+      closeQuietly(statement);
+    }
+  }
+
+  synchronized int size() {
+    return statements.size();
+  }
+
+  private static void closeQuietly(PreparedStatement statement) {
+    try {
+      statement.close();
+    } catch (Exception e) {
+      // ignore
+    }
+  }
+
+}
@@ -0,0 +1,77 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Statement;
+
+import org.apache.ibatis.reflection.ExceptionUtil;
+
+/**
+ * Statement handed out by a {@link PooledConnection} that is not kept in the statement cache.
+ * Running it marks the pooled connection dirty, and its connection is the pooled one, so work
+ * done through it is rolled back when the connection goes back to the pool.
+ */
+class TrackedStatement implements InvocationHandler {
+
+  private final Statement statement;
+  private final PooledConnection owner;
+
+  private TrackedStatement(Statement statement, PooledConnection owner) {
+    this.statement = statement;
+    this.owner = owner;
+  }
+
+  /*
+   * Wraps a statement created by the real connection
+   *
+   * @param type - the statement interface the caller asked for
+   */
+  static Statement wrap(Statement statement, Class<?> type, PooledConnection owner) {
+    TrackedStatement handler = new TrackedStatement(statement, owner);
+    return (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[] { type }, handler);
+  }
+
+  /*
+   * Tells whether calling the method does work on the database
+   */
+  static boolean isExecute(String methodName) {
+    return methodName.startsWith("execute");
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    String methodName = method.getName();
+    if (Object.class.equals(method.getDeclaringClass())) {
+      return method.invoke(this, args);
+    } else if ("getConnection".equals(methodName)) {
+      return owner.getProxyConnection();
+    }
+    try {
+      if (isExecute(methodName)) {
+        owner.markDirty();
+      } else if ("unwrap".equals(methodName)) {
+        owner.untrack();
+      }
+      return method.invoke(statement, args);
+    } catch (Throwable t) {
+      throw ExceptionUtil.unwrapThrowable(t);
+    }
+  }
+
+}
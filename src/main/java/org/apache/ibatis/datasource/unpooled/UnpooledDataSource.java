@@ -49,6 +49,9 @@ public class UnpooledDataSource implements DataSource {
   private Boolean autoCommit;
   private Integer defaultTransactionIsolationLevel;
 
+  // the driver accepting the url, resolved once so connecting does not go through DriverManager
+  private volatile Driver resolvedDriver;
+
   static {
     Enumeration<Driver> drivers = DriverManager.getDrivers();
     while (drivers.hasMoreElements()) {
@@ -124,6 +127,7 @@ public class UnpooledDataSource implements DataSource {
 
   public void setDriverClassLoader(ClassLoader driverClassLoader) {
     this.driverClassLoader = driverClassLoader;
+    this.resolvedDriver = null;
   }
 
   public Properties getDriverProperties() {
@@ -140,6 +144,7 @@ public class UnpooledDataSource implements DataSource {
 
   public synchronized void setDriver(String driver) {
     this.driver = driver;
+    this.resolvedDriver = null;
   }
 
   public String getUrl() {
@@ -148,6 +153,7 @@ public class UnpooledDataSource implements DataSource {
 
   public void setUrl(String url) {
     this.url = url;
+    this.resolvedDriver = null;
   }
 
   public String getUsername() {
@@ -197,12 +203,28 @@ public class UnpooledDataSource implements DataSource {
   }
 
   private Connection doGetConnection(Properties properties) throws SQLException {
-    initializeDriver();
-    Connection connection = DriverManager.getConnection(url, properties);
+    Connection connection = resolveDriver().connect(url, properties);
+    if (connection == null) {
+      throw new SQLException("No suitable driver found for " + url, "08001");
+    }
     configureConnection(connection);
     return connection;
   }
 
+  private Driver resolveDriver() throws SQLException {
+    Driver driverInstance = resolvedDriver;
+    if (driverInstance == null) {
+      initializeDriver();
+      driverInstance = registeredDrivers.get(driver);
+      if (driverInstance == null || !driverInstance.acceptsURL(url)) {
+        // the configured driver does not handle the url, let DriverManager find one
+        driverInstance = DriverManager.getDriver(url);
+      }
+      resolvedDriver = driverInstance;
+    }
+    return driverInstance;
+  }
+
   private synchronized void initializeDriver() throws SQLException {
     if (!registeredDrivers.containsKey(driver)) {
       Class<?> driverType;
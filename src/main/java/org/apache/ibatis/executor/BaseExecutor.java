@@ -65,10 +65,10 @@ public abstract class BaseExecutor implements Executor {
   protected BaseExecutor(Configuration configuration, Transaction transaction) {
     this.transaction = transaction;
     this.deferredLoads = new ConcurrentLinkedQueue<DeferredLoad>();
-    this.localCache = new PerpetualCache("LocalCache");
-    this.localOutputParameterCache = new PerpetualCache("LocalOutputParameterCache");
-    this.closed = false;
     this.configuration = configuration;
+    this.localCache = newLocalCache("LocalCache");
+    this.localOutputParameterCache = newLocalCache("LocalOutputParameterCache");
+    this.closed = false;
     this.wrapper = this;
   }
 
@@ -181,6 +181,9 @@ public abstract class BaseExecutor implements Executor {
       if (configuration.getLocalCacheScope() == LocalCacheScope.STATEMENT) {
         // issue #482
         clearLocalCache();
+      } else {
+        //延迟加载完成后才能淘汰超出上限的缓存
+        trimLocalCache();
       }
     }
     return list;
@@ -282,6 +285,22 @@ public abstract class BaseExecutor implements Executor {
     }
   }
 
+  /**
+   * Returns the number of entries evicted from the local caches because they exceeded the
+   * <code>localCacheSize</code> or <code>localCacheMaxBytes</code> settings.
+   */
+  @Override
+  public long getLocalCacheEvictionCount() {
+    long count = 0;
+    if (localCache instanceof BoundedLocalCache) {
+      count += ((BoundedLocalCache) localCache).getEvictionCount();
+    }
+    if (localOutputParameterCache instanceof BoundedLocalCache) {
+      count += ((BoundedLocalCache) localOutputParameterCache).getEvictionCount();
+    }
+    return count;
+  }
+
   @Override
   public void clearLocalCache() {
     //如果没有关闭清空localCache,localOutputParameterCache
@@ -291,6 +310,25 @@ public abstract class BaseExecutor implements Executor {
     }
   }
 
+  private PerpetualCache newLocalCache(String id) {
+    Integer maxSize = configuration.getLocalCacheSize();
+    Long maxBytes = configuration.getLocalCacheMaxBytes();
+    //默认不限制本地缓存大小
+    if (maxSize == null && maxBytes == null) {
+      return new PerpetualCache(id);
+    }
+    return new BoundedLocalCache(id, maxSize == null ? 0 : maxSize, maxBytes == null ? 0 : maxBytes);
+  }
+
+  private void trimLocalCache() {
+    if (localCache instanceof BoundedLocalCache) {
+      ((BoundedLocalCache) localCache).trim();
+    }
+    if (localOutputParameterCache instanceof BoundedLocalCache) {
+      ((BoundedLocalCache) localOutputParameterCache).trim();
+    }
+  }
+
   protected abstract int doUpdate(MappedStatement ms, Object parameter)
       throws SQLException;
 
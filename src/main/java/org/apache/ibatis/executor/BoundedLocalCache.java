@@ -0,0 +1,121 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.ibatis.cache.DefaultWeigher;
+import org.apache.ibatis.cache.Weigher;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+
+/**
+ * Local session cache bounded by the number of entries and/or their estimated size in bytes.
+ * <p>
+ * Entries are not evicted on put but by {@link #trim()}, which the executor calls once the outermost
+ * query has finished. Nested queries of a statement may still need the placeholders and results put by
+ * the statement (circular references and deferred loads), so the cache can exceed its bounds while the
+ * statement runs.
+ */
+class BoundedLocalCache extends PerpetualCache {
+
+  //占位符与输出参数按一行计算
+  private static final Weigher WEIGHER = new DefaultWeigher();
+
+  private final int maxSize;
+  private final long maxBytes;
+  private final Map<Object, Long> weights;
+  private long totalWeight;
+  private long evictionCount;
+
+  /*
+   * @param maxSize - maximum number of entries, 0 for no limit
+   * @param maxBytes - maximum estimated size of the entries, 0 for no limit
+   */
+  BoundedLocalCache(String id, int maxSize, long maxBytes) {
+    super(id);
+    this.maxSize = maxSize;
+    this.maxBytes = maxBytes;
+    //按访问顺序排序，最早访问的在前面
+    this.weights = new LinkedHashMap<Object, Long>(16, .75F, true);
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    super.putObject(key, value);
+    Long previous = weights.put(key, WEIGHER.weigh(key, value));
+    if (previous != null) {
+      totalWeight -= previous;
+    }
+    totalWeight += weights.get(key);
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    // touches the key
+    weights.get(key);
+    return super.getObject(key);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    Long weight = weights.remove(key);
+    if (weight != null) {
+      totalWeight -= weight;
+    }
+    return super.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    super.clear();
+    weights.clear();
+    totalWeight = 0;
+  }
+
+  /*
+   * Evicts the least recently used entries until the cache is within its bounds
+   *
+   * @return The number of evicted entries
+   */
+  int trim() {
+    int evicted = 0;
+    Iterator<Map.Entry<Object, Long>> eldest = weights.entrySet().iterator();
+    while (isOverLimit() && eldest.hasNext()) {
+      Map.Entry<Object, Long> entry = eldest.next();
+      eldest.remove();
+      totalWeight -= entry.getValue();
+      super.removeObject(entry.getKey());
+      evicted++;
+    }
+    evictionCount += evicted;
+    return evicted;
+  }
+
+  long getEvictionCount() {
+    return evictionCount;
+  }
+
+  long getWeight() {
+    return totalWeight;
+  }
+
+  private boolean isOverLimit() {
+    return (maxSize > 0 && weights.size() > maxSize) || (maxBytes > 0 && totalWeight > maxBytes);
+  }
+
+}
@@ -16,34 +16,55 @@
 package org.apache.ibatis.executor;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.CacheStatistics;
+import org.apache.ibatis.cache.InvalidationBus;
+import org.apache.ibatis.cache.TableVersions;
 import org.apache.ibatis.cache.TransactionalCacheManager;
+import org.apache.ibatis.cache.decorators.BlockingCache;
+import org.apache.ibatis.cache.decorators.RefreshAheadCache;
 import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.ParameterMapping;
 import org.apache.ibatis.mapping.ParameterMode;
 import org.apache.ibatis.mapping.StatementType;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.plugin.Interceptor;
 import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.CacheInvalidation;
+import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
 import org.apache.ibatis.transaction.Transaction;
+import org.apache.ibatis.type.TypeHandlerRegistry;
 
 /**
  * @author Clinton Begin
  * @author Eduardo Macarron
  */
 public class CachingExecutor implements Executor {
+  private static final int KEY_SLOTS = 1024;
   //委托代理
   private final Executor delegate;
   //事务缓存管理
-  private final TransactionalCacheManager tcm = new TransactionalCacheManager();
+  private final TransactionalCacheManager tcm;
 
   public CachingExecutor(Executor delegate) {
+    this(delegate, null);
+  }
+
+  public CachingExecutor(Executor delegate, InvalidationBus invalidationBus) {
     this.delegate = delegate;
+    this.tcm = new TransactionalCacheManager(invalidationBus);
     //使用CachingExecutor对传入对委托代理进行包装
     delegate.setExecutorWrapper(this);
   }
@@ -75,7 +96,13 @@ public class CachingExecutor implements Executor {
   @Override
   public int update(MappedStatement ms, Object parameterObject) throws SQLException {
     //如果需要刷新缓存则刷新缓存
-    flushCacheIfRequired(ms);
+    if (ms.getConfiguration().getCacheInvalidation() == CacheInvalidation.TABLE) {
+      invalidateTablesIfRequired(ms, parameterObject);
+    } else if (ms.getInvalidationKey() != null) {
+      invalidateKeyIfRequired(ms, parameterObject);
+    } else {
+      flushCacheIfRequired(ms);
+    }
     return delegate.update(ms, parameterObject);
   }
 
@@ -105,12 +132,42 @@ public class CachingExecutor implements Executor {
       if (ms.isUseCache() && resultHandler == null) {
         //确认没有输出参数
         ensureNoOutParams(ms, boundSql);
+        CacheKey cacheKey = key;
+        String[] tables = readTables(ms, cache, parameterObject, boundSql);
+        if (tables != null) {
+          //本事务写过依赖的表，不使用缓存
+          if (tcm.isInvalidated(tables)) {
+            return delegate.<E> query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
+          }
+          cacheKey = versionedKey(key, tables, ms.getConfiguration().getTableVersions());
+        }
+        CacheStatistics statistics = ms.getConfiguration().getCacheStatistics(cache.getId());
         //从事务缓存获取数据
-        List<E> list = (List<E>) tcm.getObject(cache, key);
+        List<E> list = (List<E>) tcm.getObject(cache, cacheKey);
         //如果缓存中数据为null 则查询并放入事务缓存
         if (list == null) {
-          list = delegate.<E> query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
-          tcm.putObject(cache, key, list); // issue #578 and #116
+          long start = statistics == null ? 0 : System.nanoTime();
+          try {
+            list = delegate.<E> query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
+          } catch (SQLException e) {
+            failLoad(cache, cacheKey, e);
+            throw e;
+          } catch (RuntimeException e) {
+            failLoad(cache, cacheKey, e);
+            throw e;
+          }
+          if (statistics != null) {
+            statistics.recordMiss(ms.getId(), System.nanoTime() - start);
+          }
+          tcm.putObject(cache, cacheKey, list); // issue #578 and #116
+        } else {
+          if (statistics != null) {
+            statistics.recordHit(ms.getId());
+          }
+          if (cache instanceof RefreshAheadCache && ((RefreshAheadCache) cache).needsRefresh(cacheKey)) {
+            //返回旧数据，同时在后台重新查询
+            ((RefreshAheadCache) cache).refresh(cacheKey, new StatementLoader(ms, parameterObject, rowBounds, key, boundSql));
+          }
         }
         return list;
       }
@@ -143,6 +200,17 @@ public class CachingExecutor implements Executor {
     }
   }
 
+  /*
+   * Tells the threads of a blocking cache waiting for the key that the query failed, so they fail too
+   * instead of running it again one after another
+   */
+  private static void failLoad(Cache cache, CacheKey key, Throwable cause) {
+    Cache blocking = cache instanceof RefreshAheadCache ? ((RefreshAheadCache) cache).getDelegate() : cache;
+    if (blocking instanceof BlockingCache) {
+      ((BlockingCache) blocking).failLoad(key, cause);
+    }
+  }
+
   private void ensureNoOutParams(MappedStatement ms, BoundSql boundSql) {
     if (ms.getStatementType() == StatementType.CALLABLE) {
       for (ParameterMapping parameterMapping : boundSql.getParameterMappings()) {
@@ -173,6 +241,11 @@ public class CachingExecutor implements Executor {
     delegate.clearLocalCache();
   }
 
+  @Override
+  public long getLocalCacheEvictionCount() {
+    return delegate.getLocalCacheEvictionCount();
+  }
+
   private void flushCacheIfRequired(MappedStatement ms) {
     //获取当前MappedStatement的缓存
     Cache cache = ms.getCache();
@@ -182,9 +255,179 @@ public class CachingExecutor implements Executor {
     }
   }
 
+  private void invalidateTablesIfRequired(MappedStatement ms, Object parameterObject) {
+    if (!ms.isFlushCacheRequired()) {
+      return;
+    }
+    String[] tables = ms.getTables();
+    if (tables.length == 0) {
+      tables = ms.getTables(ms.getBoundSql(parameterObject));
+    }
+    if (tables.length == 0) {
+      //不知道写了哪些表，清空整个命名空间的缓存
+      flushCacheIfRequired(ms);
+      return;
+    }
+    List<String> writtenTables = new ArrayList<String>(Arrays.asList(tables));
+    Cache cache = ms.getCache();
+    if (cache != null) {
+      writtenTables.add(namespaceTable(cache));
+    }
+    tcm.invalidate(ms.getConfiguration().getTableVersions(), writtenTables);
+  }
+
+  private void invalidateKeyIfRequired(MappedStatement ms, Object parameterObject) {
+    Cache cache = ms.getCache();
+    if (cache != null && ms.isFlushCacheRequired()) {
+      //只使相同失效键的查询，以及没有失效键的查询失效
+      tcm.invalidate(ms.getConfiguration().getTableVersions(),
+          Arrays.asList(keyTable(ms, cache, parameterObject), namespaceTable(cache)));
+    }
+  }
+
+  /*
+   * Tables a cached query depends on, or null if it is only invalidated by clearing its cache.
+   *
+   * With TABLE invalidation, queries with unknown tables depend on their namespace, which every write of
+   * the namespace invalidates. Otherwise queries with an invalidation key depend on their key, and other
+   * queries depend on their namespace once a write with an invalidation key has been made.
+   */
+  private String[] readTables(MappedStatement ms, Cache cache, Object parameterObject, BoundSql boundSql) {
+    Configuration configuration = ms.getConfiguration();
+    if (configuration.getCacheInvalidation() == CacheInvalidation.TABLE) {
+      String[] tables = ms.getTables(boundSql);
+      return tables.length > 0 ? tables : new String[] { namespaceTable(cache) };
+    } else if (ms.getInvalidationKey() != null) {
+      return new String[] { keyTable(ms, cache, parameterObject) };
+    } else if (configuration.getTableVersions().isEmpty() && !tcm.isInvalidating()) {
+      return null;
+    }
+    return new String[] { namespaceTable(cache) };
+  }
+
+  private static String namespaceTable(Cache cache) {
+    return "namespace:" + cache.getId();
+  }
+
+  /*
+   * Keys share KEY_SLOTS versions per cache, a write may invalidate a few other keys as well
+   */
+  private static String keyTable(MappedStatement ms, Cache cache, Object parameterObject) {
+    Configuration configuration = ms.getConfiguration();
+    int hash = 17;
+    for (String property : ms.getInvalidationKey()) {
+      Object value;
+      if (parameterObject == null) {
+        value = null;
+      } else if (configuration.getTypeHandlerRegistry().hasTypeHandler(parameterObject.getClass())) {
+        value = parameterObject;
+      } else {
+        value = configuration.newMetaObject(parameterObject).getValue(property);
+      }
+      hash = 31 * hash + hashCode(value);
+    }
+    hash ^= hash >>> 16;
+    return "namespace:" + cache.getId() + ":" + (hash & (KEY_SLOTS - 1));
+  }
+
+  private static int hashCode(Object value) {
+    if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+      // an Integer id of a select matches the Long id of an update
+      long longValue = ((Number) value).longValue();
+      return (int) (longValue ^ (longValue >>> 32));
+    }
+    return value == null ? 0 : value.hashCode();
+  }
+
+  private static CacheKey versionedKey(CacheKey key, String[] tables, TableVersions tableVersions) {
+    CacheKey versionedKey;
+    try {
+      versionedKey = key.clone();
+    } catch (CloneNotSupportedException e) {
+      throw new ExecutorException("Error cloning cache key.  Cause: " + e, e);
+    }
+    for (String table : tables) {
+      versionedKey.update(tableVersions.getVersion(table));
+    }
+    return versionedKey;
+  }
+
   @Override
   public void setExecutorWrapper(Executor executor) {
     throw new UnsupportedOperationException("This method should not be called");
   }
 
+  /**
+   * Runs a cached query again with its own executor and transaction, outside of the session that cached it.
+   * The parameter values are taken when the refresh is scheduled, the caller may change its parameter object afterwards.
+   */
+  private static class StatementLoader implements Callable<Object> {
+
+    private final MappedStatement ms;
+    private final Map<String, Object> parameterValues = new HashMap<String, Object>();
+    private final RowBounds rowBounds;
+    private final CacheKey key;
+    private final BoundSql boundSql;
+
+    StatementLoader(MappedStatement ms, Object parameterObject, RowBounds rowBounds, CacheKey key, BoundSql boundSql) {
+      this.ms = ms;
+      this.rowBounds = rowBounds;
+      this.key = key;
+      this.boundSql = captureParameters(ms.getConfiguration(), parameterObject, boundSql);
+    }
+
+    //取出每个参数的值，换成按位置命名的参数，与 BaseExecutor.createCacheKey 取值的方式相同
+    private BoundSql captureParameters(Configuration configuration, Object parameterObject, BoundSql boundSql) {
+      TypeHandlerRegistry typeHandlerRegistry = configuration.getTypeHandlerRegistry();
+      List<ParameterMapping> parameterMappings = new ArrayList<ParameterMapping>();
+      for (ParameterMapping parameterMapping : boundSql.getParameterMappings()) {
+        Object value;
+        String propertyName = parameterMapping.getProperty();
+        if (boundSql.hasAdditionalParameter(propertyName)) {
+          value = boundSql.getAdditionalParameter(propertyName);
+        } else if (parameterObject == null) {
+          value = null;
+        } else if (typeHandlerRegistry.hasTypeHandler(parameterObject.getClass())) {
+          value = parameterObject;
+        } else {
+          MetaObject metaObject = configuration.newMetaObject(parameterObject);
+          value = metaObject.getValue(propertyName);
+        }
+        String name = "param" + parameterMappings.size();
+        parameterValues.put(name, value);
+        parameterMappings.add(new ParameterMapping.Builder(configuration, name, parameterMapping.getTypeHandler())
+            .javaType(parameterMapping.getJavaType())
+            .jdbcType(parameterMapping.getJdbcType())
+            .jdbcTypeName(parameterMapping.getJdbcTypeName())
+            .numericScale(parameterMapping.getNumericScale())
+            .mode(parameterMapping.getMode())
+            .resultMapId(parameterMapping.getResultMapId())
+            .expression(parameterMapping.getExpression())
+            .build());
+      }
+      return new BoundSql(configuration, boundSql.getSql(), parameterMappings, parameterValues);
+    }
+
+    @Override
+    public Object call() throws Exception {
+      Configuration configuration = ms.getConfiguration();
+      Environment environment = configuration.getEnvironment();
+      if (environment == null) {
+        throw new ExecutorException("Cannot refresh cached results of " + ms.getId() + " without an environment.");
+      }
+      Transaction transaction = environment.getTransactionFactory().newTransaction(environment.getDataSource(), null, true);
+      // no CachingExecutor, it would return the cached entry again; the plugins still apply as for a session
+      Executor executor = new SimpleExecutor(configuration, transaction);
+      for (Interceptor interceptor : configuration.getInterceptors()) {
+        executor = (Executor) interceptor.plugin(executor);
+      }
+      try {
+        return executor.query(ms, parameterValues, rowBounds, Executor.NO_RESULT_HANDLER, key, boundSql);
+      } finally {
+        executor.close(false);
+      }
+    }
+
+  }
+
 }
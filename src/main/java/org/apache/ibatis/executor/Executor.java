@@ -63,6 +63,11 @@ public interface Executor {
    */
   void clearLocalCache();
 
+  /**
+   * 本地缓存因超出 localCacheSize 或 localCacheMaxBytes 而淘汰的条目数
+   */
+  long getLocalCacheEvictionCount();
+
   void deferLoad(MappedStatement ms, MetaObject resultObject, String property, CacheKey key, Class<?> targetType);
 
   Transaction getTransaction();
@@ -17,19 +17,31 @@ package org.apache.ibatis.mapping;
 
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheSnapshot;
+import org.apache.ibatis.cache.CacheStatistics;
 import org.apache.ibatis.builder.InitializingObject;
 import org.apache.ibatis.cache.decorators.BlockingCache;
+import org.apache.ibatis.cache.decorators.ConcurrentFifoCache;
+import org.apache.ibatis.cache.decorators.ConcurrentLruCache;
+import org.apache.ibatis.cache.decorators.FifoCache;
 import org.apache.ibatis.cache.decorators.LoggingCache;
 import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.decorators.PutTimeCache;
+import org.apache.ibatis.cache.decorators.RefreshAheadCache;
 import org.apache.ibatis.cache.decorators.ScheduledCache;
 import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.cache.decorators.SnapshotCache;
+import org.apache.ibatis.cache.decorators.StatisticsCache;
 import org.apache.ibatis.cache.decorators.SynchronizedCache;
+import org.apache.ibatis.cache.impl.ConcurrentCache;
+import org.apache.ibatis.cache.impl.OffHeapCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.reflection.SystemMetaObject;
@@ -38,6 +50,14 @@ import org.apache.ibatis.reflection.SystemMetaObject;
  * @author Clinton Begin
  */
 public class CacheBuilder {
+  // eviction decorators swapped for thread safe ones in front of a ConcurrentCache
+  private static final Map<Class<? extends Cache>, Class<? extends Cache>> CONCURRENT_DECORATORS = new HashMap<Class<? extends Cache>, Class<? extends Cache>>();
+
+  static {
+    CONCURRENT_DECORATORS.put(LruCache.class, ConcurrentLruCache.class);
+    CONCURRENT_DECORATORS.put(FifoCache.class, ConcurrentFifoCache.class);
+  }
+
   private final String id;
   private Class<? extends Cache> implementation;
   private final List<Class<? extends Cache>> decorators;
@@ -46,6 +66,9 @@ public class CacheBuilder {
   private boolean readWrite;
   private Properties properties;
   private boolean blocking;
+  private Long refreshInterval;
+  private CacheSnapshot snapshot;
+  private CacheStatistics statistics;
 
   public CacheBuilder(String id) {
     this.id = id;
@@ -84,6 +107,27 @@ public class CacheBuilder {
     return this;
   }
   
+  public CacheBuilder refreshInterval(Long refreshInterval) {
+    this.refreshInterval = refreshInterval;
+    return this;
+  }
+
+  /*
+   * Registers the cache with the snapshot, which saves its entries and loads them back after a restart
+   */
+  public CacheBuilder snapshot(CacheSnapshot snapshot) {
+    this.snapshot = snapshot;
+    return this;
+  }
+
+  /*
+   * Records the puts and evictions of the cache in the statistics
+   */
+  public CacheBuilder statistics(CacheStatistics statistics) {
+    this.statistics = statistics;
+    return this;
+  }
+
   public CacheBuilder properties(Properties properties) {
     this.properties = properties;
     return this;
@@ -94,12 +138,50 @@ public class CacheBuilder {
     Cache cache = newBaseCacheInstance(implementation, id);
     setCacheProperties(cache);
     // issue #352, do not apply decorators to custom caches
-    if (PerpetualCache.class.equals(cache.getClass())) {
+    if (PerpetualCache.class.equals(cache.getClass()) || ConcurrentCache.class.equals(cache.getClass())
+        || OffHeapCache.class.equals(cache.getClass())) {
+      // a ConcurrentCache only needs no synchronization if every decorator in front of it is thread safe
+      boolean threadSafe = ConcurrentCache.class.equals(cache.getClass());
+      OffHeapCache offHeapCache = cache instanceof OffHeapCache ? (OffHeapCache) cache : null;
+      if (statistics != null) {
+        cache = new StatisticsCache(cache, statistics);
+      }
+      SnapshotCache snapshotCache = null;
+      if (snapshot != null) {
+        //快照装饰器紧贴基础缓存，才能感知淘汰装饰器删除的数据
+        snapshotCache = new SnapshotCache(cache, readWrite);
+        cache = snapshotCache;
+      }
+      ScheduledCache scheduledCache = null;
+      if (clearInterval != null) {
+        //过期装饰器放在淘汰装饰器之下，被淘汰的条目同时删除其过期时间
+        scheduledCache = new ScheduledCache(cache);
+        scheduledCache.setClearInterval(clearInterval);
+        // clearJitter can be set as a property
+        setCacheProperties(scheduledCache);
+        cache = scheduledCache;
+      }
+      PutTimeCache putTimeCache = null;
+      if (refreshInterval != null) {
+        //放入时间同样记录在淘汰装饰器之下
+        putTimeCache = new PutTimeCache(cache);
+        cache = putTimeCache;
+      }
       for (Class<? extends Cache> decorator : decorators) {
+        if (threadSafe) {
+          if (CONCURRENT_DECORATORS.containsKey(decorator)) {
+            decorator = CONCURRENT_DECORATORS.get(decorator);
+          } else if (!CONCURRENT_DECORATORS.containsValue(decorator)) {
+            threadSafe = false;
+          }
+        }
         cache = newCacheDecoratorInstance(decorator, cache);
         setCacheProperties(cache);
       }
-      cache = setStandardDecorators(cache);
+      if (snapshotCache != null) {
+        snapshotCache.setPutTimeCaches(scheduledCache, putTimeCache);
+      }
+      cache = setStandardDecorators(cache, threadSafe, snapshotCache, scheduledCache, putTimeCache, offHeapCache);
     } else if (!LoggingCache.class.isAssignableFrom(cache.getClass())) {
       cache = new LoggingCache(cache);
     }
@@ -115,31 +197,52 @@ public class CacheBuilder {
     }
   }
 
-  private Cache setStandardDecorators(Cache cache) {
+  private Cache setStandardDecorators(Cache cache, boolean threadSafe, SnapshotCache snapshotCache,
+      ScheduledCache scheduledCache, PutTimeCache putTimeCache, OffHeapCache offHeapCache) {
     try {
       MetaObject metaCache = SystemMetaObject.forObject(cache);
       if (size != null && metaCache.hasSetter("size")) {
         metaCache.setValue("size", size);
       }
 
-      if (clearInterval != null) {
-        //在cache基础上加上ScheduledCache装饰器
-        cache = new ScheduledCache(cache);
-        ((ScheduledCache) cache).setClearInterval(clearInterval);
+      //恢复的数据经过淘汰装饰器写入，值与SerializedCache下层的形式一致
+      if (snapshotCache != null) {
+        snapshotCache.setEntrance(cache);
+        snapshot.register(snapshotCache);
       }
       //如果配置只读则增加序列化功能
       if (readWrite) {
         //增加序列化装饰器
         cache = new SerializedCache(cache);
+        // serializer can be set as a property
+        setCacheProperties(cache);
+        if (snapshotCache != null) {
+          snapshotCache.setSerializerName(((SerializedCache) cache).getSerializerName());
+        }
       }
       //增加日志装饰器
       cache = new LoggingCache(cache);
       //增加同步装饰器
-      cache = new SynchronizedCache(cache);
+      if (!threadSafe) {
+        cache = new SynchronizedCache(cache);
+      }
+      //过期条目经过淘汰装饰器删除，并且与其他操作一样加锁
+      if (scheduledCache != null) {
+        scheduledCache.setEntrance(cache);
+      }
+      //清空slab时同样经过各装饰器删除条目
+      if (offHeapCache != null) {
+        offHeapCache.setEntrance(cache);
+      }
       if (blocking) {
         //增加阻塞读装饰器
         cache = new BlockingCache(cache);
       }
+      //增加提前刷新装饰器，必须在最外层，CachingExecutor才能找到它
+      if (refreshInterval != null) {
+        cache = new RefreshAheadCache(cache, putTimeCache);
+        ((RefreshAheadCache) cache).setRefreshInterval(refreshInterval);
+      }
       return cache;
     } catch (Exception e) {
       throw new CacheException("Error building standard cache decorators.  Cause: " + e, e);
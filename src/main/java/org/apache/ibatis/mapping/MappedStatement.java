@@ -25,6 +25,8 @@ import org.apache.ibatis.executor.keygen.KeyGenerator;
 import org.apache.ibatis.executor.keygen.NoKeyGenerator;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.parsing.GenericTokenParser;
+import org.apache.ibatis.parsing.TokenHandler;
 import org.apache.ibatis.scripting.LanguageDriver;
 import org.apache.ibatis.session.Configuration;
 
@@ -65,6 +67,11 @@ public final class MappedStatement {
   private Log statementLog;
   private LanguageDriver lang;
   private String[] resultSets;
+  //读写的表，未声明时从sql中解析
+  private String[] tables;
+  private volatile ParsedTables parsedTables;
+  //失效键的参数属性，如#{id}
+  private String[] invalidationKey;
 
   MappedStatement() {
     // constructor disabled
@@ -88,6 +95,7 @@ public final class MappedStatement {
       }
       mappedStatement.statementLog = LogFactory.getLog(logId);
       mappedStatement.lang = configuration.getDefaultScriptingLanguageInstance();
+      mappedStatement.tables = new String[0];
     }
 
     public Builder resource(String resource) {
@@ -182,6 +190,25 @@ public final class MappedStatement {
       return this;
     }
 
+    public Builder tables(String tables) {
+      mappedStatement.tables = TableNames.split(tables);
+      return this;
+    }
+
+    public Builder invalidationKey(String invalidationKey) {
+      final List<String> properties = new ArrayList<String>();
+      new GenericTokenParser("#{", "}", new TokenHandler() {
+        @Override
+        public String handleToken(String content) {
+          int comma = content.indexOf(',');
+          properties.add((comma < 0 ? content : content.substring(0, comma)).trim());
+          return "";
+        }
+      }).parse(invalidationKey);
+      mappedStatement.invalidationKey = properties.isEmpty() ? null : properties.toArray(new String[properties.size()]);
+      return this;
+    }
+
     /** @deprecated Use {@link #resultSets} */
     @Deprecated
     public Builder resulSets(String resultSet) {
@@ -296,6 +323,37 @@ public final class MappedStatement {
   public String[] getResulSets() {
     return resultSets;
   }
+
+  /**
+   * @return The tables declared for this statement, an empty array if none were
+   */
+  public String[] getTables() {
+    return tables;
+  }
+
+  /**
+   * @return The parameter properties of the invalidation key, or null if the statement has none
+   */
+  public String[] getInvalidationKey() {
+    return invalidationKey;
+  }
+
+  /**
+   * @return The tables declared for this statement, or else the tables found in the SQL
+   */
+  public String[] getTables(BoundSql boundSql) {
+    if (tables.length > 0) {
+      return tables;
+    }
+    //静态sql每次相同，只解析一次
+    String sql = boundSql.getSql();
+    ParsedTables parsed = parsedTables;
+    if (parsed == null || !parsed.sql.equals(sql)) {
+      parsed = new ParsedTables(sql, TableNames.parse(sql));
+      parsedTables = parsed;
+    }
+    return parsed.tables;
+  }
   
   public BoundSql getBoundSql(Object parameterObject) {
     //从sqlSource中获取boundSql
@@ -322,6 +380,16 @@ public final class MappedStatement {
     return boundSql;
   }
 
+  private static class ParsedTables {
+    private final String sql;
+    private final String[] tables;
+
+    ParsedTables(String sql, String[] tables) {
+      this.sql = sql;
+      this.tables = tables;
+    }
+  }
+
   //将非空字符串按照逗号分隔为字符串数组
   private static String[] delimitedStringToArray(String in) {
     if (in == null || in.trim().length() == 0) {
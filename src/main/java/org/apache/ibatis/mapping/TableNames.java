@@ -0,0 +1,123 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.mapping;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the tables a SQL statement reads or writes.
+ * <p>
+ * The tables are the names following FROM, JOIN, INTO and UPDATE, including comma separated FROM lists.
+ * This is a best effort that may report a table too many but does not know about views, triggers or
+ * stored procedures, statements using those should declare their tables.
+ */
+final class TableNames {
+
+  private static final Pattern TOKEN = Pattern.compile("[\\w$#.\"`\\[\\]]+|[,()]");
+
+  private static final Set<String> KEYWORDS = new HashSet<String>(Arrays.asList(
+      "select", "where", "set", "values", "value", "on", "using", "as", "left", "right", "inner", "outer", "cross",
+      "full", "natural", "join", "group", "order", "having", "limit", "offset", "union", "intersect", "except",
+      "minus", "lateral", "only", "straight_join", "with", "default", "nowait", "of", "skip", "for", "fetch",
+      "window", "returning", "start", "connect", "partition"));
+
+  private TableNames() {
+    // Prevent Instantiation of Static Class
+  }
+
+  /*
+   * Finds the tables of a SQL statement
+   *
+   * @return The lower case table names, in the order they first appear
+   */
+  static String[] parse(String sql) {
+    List<String> tokens = new ArrayList<String>();
+    Matcher matcher = TOKEN.matcher(sql);
+    while (matcher.find()) {
+      tokens.add(matcher.group().toLowerCase(Locale.ENGLISH));
+    }
+    Set<String> tables = new LinkedHashSet<String>();
+    for (int i = 0; i < tokens.size(); i++) {
+      String token = tokens.get(i);
+      if ("update".equals(token) && i > 0 && ("for".equals(tokens.get(i - 1)) || "key".equals(tokens.get(i - 1)))) {
+        // SELECT ... FOR UPDATE, ON DUPLICATE KEY UPDATE
+        continue;
+      }
+      if ("from".equals(token) || "join".equals(token) || "into".equals(token) || "update".equals(token)) {
+        int j = i + 1;
+        while (j < tokens.size() && isName(tokens.get(j))) {
+          tables.add(normalize(tokens.get(j++)));
+          // alias
+          if (j < tokens.size() && "as".equals(tokens.get(j))) {
+            j++;
+          }
+          if (j < tokens.size() && isName(tokens.get(j))) {
+            j++;
+          }
+          if (!"from".equals(token) || j >= tokens.size() || !",".equals(tokens.get(j))) {
+            break;
+          }
+          j++;
+        }
+      }
+    }
+    return tables.toArray(new String[tables.size()]);
+  }
+
+  /*
+   * Splits and normalizes a comma separated list of table names
+   */
+  static String[] split(String tables) {
+    if (tables == null || tables.trim().length() == 0) {
+      return new String[0];
+    }
+    Set<String> names = new LinkedHashSet<String>();
+    for (String table : tables.split(",")) {
+      if (table.trim().length() > 0) {
+        names.add(normalize(table.trim().toLowerCase(Locale.ENGLISH)));
+      }
+    }
+    return names.toArray(new String[names.size()]);
+  }
+
+  private static boolean isName(String token) {
+    return !",".equals(token) && !"(".equals(token) && !")".equals(token) && !KEYWORDS.contains(token);
+  }
+
+  /*
+   * Removes the quotes and the schema or catalog, so app.users and users are the same table
+   */
+  private static String normalize(String name) {
+    name = name.substring(name.lastIndexOf('.') + 1);
+    StringBuilder sb = new StringBuilder(name.length());
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (c != '"' && c != '`' && c != '[' && c != ']') {
+        sb.append(c);
+      }
+    }
+    return sb.toString();
+  }
+
+}
@@ -124,10 +124,14 @@ public class Reflector {
       for (PropertyDescriptor propertyDescriptor : propertyDescriptors) {
         //获取属性的名称
         String name = propertyDescriptor.getName();
-        //将属性的getter方法添加到映射表中
-        addMethodConflict(conflictingGetters, name, propertyDescriptor.getReadMethod());
+        //将属性的getter方法添加到映射表中，只读或只写属性缺少的方法为null，不能添加
+        if (propertyDescriptor.getReadMethod() != null) {
+          addMethodConflict(conflictingGetters, name, propertyDescriptor.getReadMethod());
+        }
         //将属性的setter方法添加到映射表中
-        addMethodConflict(conflictingSetters,name,propertyDescriptor.getWriteMethod());
+        if (propertyDescriptor.getWriteMethod() != null) {
+          addMethodConflict(conflictingSetters, name, propertyDescriptor.getWriteMethod());
+        }
 
       }
       //解决getter方法冲突，所谓解决冲突就是如果存在多个getter方法选择一个最优方法
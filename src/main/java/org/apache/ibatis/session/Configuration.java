@@ -15,6 +15,9 @@
  */
 package org.apache.ibatis.session;
 
+import java.io.File;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
@@ -24,18 +27,30 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.ibatis.binding.MapperRegistry;
 import org.apache.ibatis.builder.CacheRefResolver;
 import org.apache.ibatis.builder.ResultMapResolver;
+import org.apache.ibatis.builder.StaticSqlSource;
 import org.apache.ibatis.builder.annotation.MethodResolver;
 import org.apache.ibatis.builder.xml.XMLStatementBuilder;
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheSnapshot;
+import org.apache.ibatis.cache.CacheStatistics;
+import org.apache.ibatis.cache.InvalidationBus;
+import org.apache.ibatis.cache.TableVersions;
 import org.apache.ibatis.cache.decorators.FifoCache;
 import org.apache.ibatis.cache.decorators.LruCache;
 import org.apache.ibatis.cache.decorators.SoftCache;
+import org.apache.ibatis.cache.decorators.TinyLfuCache;
 import org.apache.ibatis.cache.decorators.WeakCache;
+import org.apache.ibatis.cache.decorators.WeightedCache;
+import org.apache.ibatis.cache.impl.ConcurrentCache;
+import org.apache.ibatis.cache.impl.OffHeapCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.cache.serializer.CompactSerializer;
 import org.apache.ibatis.datasource.jndi.JndiDataSourceFactory;
 import org.apache.ibatis.datasource.pooled.PooledDataSourceFactory;
 import org.apache.ibatis.datasource.unpooled.UnpooledDataSourceFactory;
@@ -68,6 +83,7 @@ import org.apache.ibatis.mapping.Environment;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.ParameterMap;
 import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
 import org.apache.ibatis.mapping.VendorDatabaseIdProvider;
 import org.apache.ibatis.parsing.XNode;
 import org.apache.ibatis.plugin.Interceptor;
@@ -82,6 +98,7 @@ import org.apache.ibatis.reflection.wrapper.ObjectWrapperFactory;
 import org.apache.ibatis.scripting.LanguageDriver;
 import org.apache.ibatis.scripting.LanguageDriverRegistry;
 import org.apache.ibatis.scripting.defaults.RawLanguageDriver;
+import org.apache.ibatis.scripting.defaults.RawSqlSource;
 import org.apache.ibatis.scripting.xmltags.XMLLanguageDriver;
 import org.apache.ibatis.transaction.Transaction;
 import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
@@ -119,6 +136,12 @@ public class Configuration {
   protected Class <? extends VFS> vfsImpl;
   //本地缓存作用域
   protected LocalCacheScope localCacheScope = LocalCacheScope.SESSION;
+  //本地缓存条目数上限，null表示不限制
+  protected Integer localCacheSize;
+  //本地缓存估算字节数上限，null表示不限制
+  protected Long localCacheMaxBytes;
+  //二级缓存失效方式
+  protected CacheInvalidation cacheInvalidation = CacheInvalidation.NAMESPACE;
   protected JdbcType jdbcTypeForNull = JdbcType.OTHER;
   protected Set<String> lazyLoadTriggerMethods = new HashSet<String>(Arrays.asList(new String[] { "equals", "clone", "hashCode", "toString" }));
   protected Integer defaultStatementTimeout;
@@ -160,6 +183,16 @@ public class Configuration {
 
   protected final Map<String, MappedStatement> mappedStatements = new StrictMap<MappedStatement>("Mapped Statements collection");
   protected final Map<String, Cache> caches = new StrictMap<Cache>("Caches collection");
+  protected final TableVersions tableVersions = new TableVersions();
+  //重启时保存和恢复的二级缓存
+  protected final CacheSnapshot cacheSnapshot = new CacheSnapshot();
+  protected String cacheSnapshotFile;
+  //二级缓存统计
+  protected boolean cacheStatisticsEnabled;
+  protected boolean cacheStatisticsJmxEnabled;
+  protected final Map<String, CacheStatistics> cacheStatistics = new ConcurrentHashMap<String, CacheStatistics>();
+  //集群中通知其他节点缓存失效
+  protected InvalidationBus invalidationBus;
   protected final Map<String, ResultMap> resultMaps = new StrictMap<ResultMap>("Result Maps collection");
   protected final Map<String, ParameterMap> parameterMaps = new StrictMap<ParameterMap>("Parameter Maps collection");
   protected final Map<String, KeyGenerator> keyGenerators = new StrictMap<KeyGenerator>("Key Generators collection");
@@ -193,10 +226,14 @@ public class Configuration {
     typeAliasRegistry.registerAlias("UNPOOLED", UnpooledDataSourceFactory.class);
 
     typeAliasRegistry.registerAlias("PERPETUAL", PerpetualCache.class);
+    typeAliasRegistry.registerAlias("CONCURRENT", ConcurrentCache.class);
+    typeAliasRegistry.registerAlias("OFF_HEAP", OffHeapCache.class);
     typeAliasRegistry.registerAlias("FIFO", FifoCache.class);
     typeAliasRegistry.registerAlias("LRU", LruCache.class);
     typeAliasRegistry.registerAlias("SOFT", SoftCache.class);
     typeAliasRegistry.registerAlias("WEAK", WeakCache.class);
+    typeAliasRegistry.registerAlias("TINYLFU", TinyLfuCache.class);
+    typeAliasRegistry.registerAlias("WEIGHTED", WeightedCache.class);
 
     typeAliasRegistry.registerAlias("DB_VENDOR", VendorDatabaseIdProvider.class);
 
@@ -455,6 +492,215 @@ public class Configuration {
     this.localCacheScope = localCacheScope;
   }
 
+  public Integer getLocalCacheSize() {
+    return localCacheSize;
+  }
+
+  /**
+   * Limits the number of entries of the local cache of each session. The least recently used entries are evicted
+   * once a statement has finished.
+   */
+  public void setLocalCacheSize(Integer localCacheSize) {
+    this.localCacheSize = localCacheSize;
+  }
+
+  public Long getLocalCacheMaxBytes() {
+    return localCacheMaxBytes;
+  }
+
+  /**
+   * Limits the estimated memory of the local cache of each session, counting 512 bytes per cached row.
+   */
+  public void setLocalCacheMaxBytes(Long localCacheMaxBytes) {
+    this.localCacheMaxBytes = localCacheMaxBytes;
+  }
+
+  public CacheInvalidation getCacheInvalidation() {
+    return cacheInvalidation;
+  }
+
+  public void setCacheInvalidation(CacheInvalidation cacheInvalidation) {
+    this.cacheInvalidation = cacheInvalidation;
+  }
+
+  public TableVersions getTableVersions() {
+    return tableVersions;
+  }
+
+  public CacheSnapshot getCacheSnapshot() {
+    return cacheSnapshot;
+  }
+
+  public String getCacheSnapshotFile() {
+    return cacheSnapshotFile;
+  }
+
+  /**
+   * Sets the file the caches declared with <code>snapshot="true"</code> are saved to on shutdown and loaded from
+   * when the {@link SqlSessionFactory} is built.
+   */
+  public void setCacheSnapshotFile(String cacheSnapshotFile) {
+    this.cacheSnapshotFile = cacheSnapshotFile;
+  }
+
+  /**
+   * Loads the cache snapshot file, if any, and saves it again when the JVM shuts down.
+   *
+   * @return The number of restored cache entries
+   */
+  public int loadCacheSnapshot() {
+    File file = new File(cacheSnapshotFile);
+    Map<String, Long> fingerprints = getCacheFingerprints();
+    int restored = cacheSnapshot.load(file, fingerprints, tableVersions);
+    cacheSnapshot.saveOnShutdown(file, fingerprints, tableVersions);
+    return restored;
+  }
+
+  /**
+   * @return The number of saved cache entries
+   */
+  public int saveCacheSnapshot() {
+    return cacheSnapshot.save(new File(cacheSnapshotFile), getCacheFingerprints(), tableVersions);
+  }
+
+  /*
+   * A snapshot of a cache is only loaded back if its serializer, the statements that use the cache and the
+   * fields of their result types did not change
+   */
+  protected Map<String, Long> getCacheFingerprints() {
+    Map<String, StringBuilder> descriptions = new HashMap<String, StringBuilder>();
+    for (String cacheId : cacheSnapshot.getCacheIds()) {
+      descriptions.put(cacheId, new StringBuilder().append(cacheSnapshot.getCache(cacheId).getSerializerName()).append('\n'));
+    }
+    //同一个语句以全名和简称注册了两次，按全名去重并排序
+    Map<String, MappedStatement> statements = new TreeMap<String, MappedStatement>();
+    for (MappedStatement ms : getMappedStatements()) {
+      if (ms.getCache() != null && descriptions.containsKey(ms.getCache().getId())) {
+        statements.put(ms.getId(), ms);
+      }
+    }
+    for (MappedStatement ms : statements.values()) {
+      StringBuilder description = descriptions.get(ms.getCache().getId());
+      description.append(ms.getId()).append('|').append(ms.getSqlCommandType()).append('|').append(ms.getDatabaseId());
+      if (ms.getSqlSource() instanceof RawSqlSource || ms.getSqlSource() instanceof StaticSqlSource) {
+        description.append('|').append(ms.getBoundSql(null).getSql());
+      }
+      for (ResultMap resultMap : ms.getResultMaps()) {
+        description.append('|').append(resultMap.getId()).append(':').append(resultMap.getType().getName())
+            .append(':').append(CompactSerializer.layoutOf(resultMap.getType()));
+        if (Serializable.class.isAssignableFrom(resultMap.getType())) {
+          ObjectStreamClass streamClass = ObjectStreamClass.lookup(resultMap.getType());
+          if (streamClass != null) {
+            description.append(':').append(streamClass.getSerialVersionUID());
+          }
+        }
+        for (ResultMapping mapping : resultMap.getResultMappings()) {
+          description.append(',').append(mapping.getProperty()).append('=').append(mapping.getColumn());
+          //嵌套结果映射的类型同样会被缓存
+          if (mapping.getNestedResultMapId() != null && hasResultMap(mapping.getNestedResultMapId())) {
+            Class<?> nestedType = getResultMap(mapping.getNestedResultMapId()).getType();
+            description.append(':').append(nestedType.getName()).append(':').append(CompactSerializer.layoutOf(nestedType));
+          }
+        }
+      }
+      description.append('\n');
+    }
+    Map<String, Long> fingerprints = new HashMap<String, Long>();
+    for (Map.Entry<String, StringBuilder> description : descriptions.entrySet()) {
+      fingerprints.put(description.getKey(), fingerprint(description.getValue()));
+    }
+    return fingerprints;
+  }
+
+  private static long fingerprint(CharSequence description) {
+    long hash = 1125899906842597L;
+    for (int i = 0; i < description.length(); i++) {
+      hash = 31 * hash + description.charAt(i);
+    }
+    return hash;
+  }
+
+  public boolean isCacheStatisticsEnabled() {
+    return cacheStatisticsEnabled;
+  }
+
+  /**
+   * Enables the statistics of the caches built afterwards, see {@link #getCacheStatistics(String)}.
+   */
+  public void setCacheStatisticsEnabled(boolean cacheStatisticsEnabled) {
+    this.cacheStatisticsEnabled = cacheStatisticsEnabled;
+  }
+
+  public boolean isCacheStatisticsJmxEnabled() {
+    return cacheStatisticsJmxEnabled;
+  }
+
+  /**
+   * Registers the cache statistics with the platform MBean server.
+   */
+  public void setCacheStatisticsJmxEnabled(boolean cacheStatisticsJmxEnabled) {
+    this.cacheStatisticsJmxEnabled = cacheStatisticsJmxEnabled;
+  }
+
+  public void addCacheStatistics(CacheStatistics statistics) {
+    CacheStatistics previous = cacheStatistics.put(statistics.getId(), statistics);
+    if (previous != null) {
+      previous.unregisterMBeans();
+    }
+    if (cacheStatisticsJmxEnabled) {
+      statistics.registerMBeans();
+    }
+  }
+
+  /**
+   * Unregisters the cache statistics MBeans of this configuration, for an application that builds a new
+   * configuration without restarting the JVM.
+   */
+  public void unregisterCacheStatistics() {
+    for (CacheStatistics statistics : cacheStatistics.values()) {
+      statistics.unregisterMBeans();
+    }
+  }
+
+  /**
+   * @return The statistics of the cache with the given id, or null if statistics were not enabled when it was built
+   */
+  public CacheStatistics getCacheStatistics(String cacheId) {
+    return cacheStatistics.get(cacheId);
+  }
+
+  public Collection<CacheStatistics> getCacheStatistics() {
+    return cacheStatistics.values();
+  }
+
+  public InvalidationBus getInvalidationBus() {
+    return invalidationBus;
+  }
+
+  /**
+   * Sets the bus that sends the second level cache invalidations of this node to the other nodes, and subscribes
+   * to the invalidations of the other nodes.
+   */
+  public void setInvalidationBus(InvalidationBus invalidationBus) {
+    this.invalidationBus = invalidationBus;
+    if (invalidationBus != null) {
+      invalidationBus.subscribe(new InvalidationBus.Listener() {
+        @Override
+        public void cleared(String cacheId) {
+          //其他节点的写操作清空了缓存
+          if (caches.containsKey(cacheId)) {
+            caches.get(cacheId).clear();
+          }
+        }
+
+        @Override
+        public void incremented(Collection<String> names) {
+          tableVersions.increment(names);
+        }
+      });
+    }
+  }
+
   public JdbcType getJdbcTypeForNull() {
     return jdbcTypeForNull;
   }
@@ -599,7 +845,7 @@ public class Configuration {
       executor = new SimpleExecutor(this, transaction);
     }
     if (cacheEnabled) {
-      executor = new CachingExecutor(executor);
+      executor = new CachingExecutor(executor, invalidationBus);
     }
     executor = (Executor) interceptorChain.pluginAll(executor);
     return executor;
@@ -262,6 +262,13 @@ public interface SqlSession extends Closeable {
    */
   void clearCache();
 
+  /**
+   * Retrieves the number of entries evicted from the local session cache because it
+   * exceeded the localCacheSize or localCacheMaxBytes settings
+   * @return the eviction count
+   */
+  long getLocalCacheEvictionCount();
+
   /**
    * Retrieves current configuration
    * @return Configuration
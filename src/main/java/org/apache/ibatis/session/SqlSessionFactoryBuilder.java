@@ -94,6 +94,10 @@ public class SqlSessionFactoryBuilder {
     
   public SqlSessionFactory build(Configuration config) {
     log.trace("SqlSessionFactoryBuilder  build new DefaultSqlSessionFactory ,config="+config);
+    //从快照中恢复二级缓存
+    if (config.getCacheSnapshotFile() != null) {
+      config.loadCacheSnapshot();
+    }
     return new DefaultSqlSessionFactory(config);
   }
 
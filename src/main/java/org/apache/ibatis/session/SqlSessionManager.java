@@ -279,6 +279,15 @@ public class SqlSessionManager implements SqlSessionFactory, SqlSession {
     sqlSession.clearCache();
   }
 
+  @Override
+  public long getLocalCacheEvictionCount() {
+    final SqlSession sqlSession = localSqlSession.get();
+    if (sqlSession == null) {
+      throw new SqlSessionException("Error:  Cannot get the local cache eviction count.  No managed session is started.");
+    }
+    return sqlSession.getLocalCacheEvictionCount();
+  }
+
   @Override
   public void commit() {
     final SqlSession sqlSession = localSqlSession.get();
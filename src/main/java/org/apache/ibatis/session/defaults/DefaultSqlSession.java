@@ -319,6 +319,11 @@ public class DefaultSqlSession implements SqlSession {
     executor.clearLocalCache();
   }
 
+  @Override
+  public long getLocalCacheEvictionCount() {
+    return executor.getLocalCacheEvictionCount();
+  }
+
   private <T> void registerCursor(Cursor<T> cursor) {
     if (cursorList == null) {
       cursorList = new ArrayList<Cursor<?>>();
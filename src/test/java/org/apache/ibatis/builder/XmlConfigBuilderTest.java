@@ -46,6 +46,7 @@ import org.apache.ibatis.scripting.defaults.RawLanguageDriver;
 import org.apache.ibatis.scripting.xmltags.XMLLanguageDriver;
 import org.apache.ibatis.session.AutoMappingBehavior;
 import org.apache.ibatis.session.AutoMappingUnknownColumnBehavior;
+import org.apache.ibatis.session.CacheInvalidation;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ExecutorType;
 import org.apache.ibatis.session.LocalCacheScope;
@@ -91,6 +92,10 @@ public class XmlConfigBuilderTest {
     assertThat(config.isMapUnderscoreToCamelCase()).isFalse();
     assertThat(config.isSafeRowBoundsEnabled()).isFalse();
     assertThat(config.getLocalCacheScope()).isEqualTo(LocalCacheScope.SESSION);
+    assertThat(config.getCacheInvalidation()).isEqualTo(CacheInvalidation.NAMESPACE);
+    assertThat(config.getLocalCacheSize()).isNull();
+    assertThat(config.getLocalCacheMaxBytes()).isNull();
+    assertThat(config.isCacheStatisticsEnabled()).isFalse();
     assertThat(config.getJdbcTypeForNull()).isEqualTo(JdbcType.OTHER);
     assertThat(config.getLazyLoadTriggerMethods()).isEqualTo((Set<String>) new HashSet<String>(Arrays.asList("equals", "clone", "hashCode", "toString")));
     assertThat(config.isSafeResultHandlerEnabled()).isTrue();
@@ -184,6 +189,9 @@ public class XmlConfigBuilderTest {
       assertThat(config.isMapUnderscoreToCamelCase()).isTrue();
       assertThat(config.isSafeRowBoundsEnabled()).isTrue();
       assertThat(config.getLocalCacheScope()).isEqualTo(LocalCacheScope.STATEMENT);
+      assertThat(config.getCacheInvalidation()).isEqualTo(CacheInvalidation.TABLE);
+      assertThat(config.getLocalCacheSize()).isEqualTo(1000);
+      assertThat(config.getLocalCacheMaxBytes()).isEqualTo(1048576L);
       assertThat(config.getJdbcTypeForNull()).isEqualTo(JdbcType.NULL);
       assertThat(config.getLazyLoadTriggerMethods()).isEqualTo((Set<String>) new HashSet<String>(Arrays.asList("equals", "clone", "hashCode", "toString", "xxx")));
       assertThat(config.isSafeResultHandlerEnabled()).isFalse();
@@ -0,0 +1,120 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.cache.decorators.BlockingCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.junit.After;
+import org.junit.Test;
+
+public class BlockingCacheTest {
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  @After
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void shouldWaitForValueLoadedByOtherThread() throws Exception {
+    final BlockingCache cache = new BlockingCache(new PerpetualCache("default"));
+    assertNull(cache.getObject(0));
+    Future<Object> waiter = executor.submit(get(cache, 0));
+    Thread.sleep(200);
+    assertFalse(waiter.isDone());
+    cache.putObject(0, "loaded");
+    assertEquals("loaded", waiter.get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void shouldLetWaiterLoadWhenLoadIsGivenUp() throws Exception {
+    final BlockingCache cache = new BlockingCache(new PerpetualCache("default"));
+    cache.setTimeout(60000);
+    assertNull(cache.getObject(0));
+    Future<Object> waiter = executor.submit(get(cache, 0));
+    Thread.sleep(200);
+    cache.removeObject(0);
+    // the waiter is released at once and loads the value itself
+    assertNull(waiter.get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void shouldFailWaitersWhenLoadFails() throws Exception {
+    final BlockingCache cache = new BlockingCache(new PerpetualCache("default"));
+    assertNull(cache.getObject(0));
+    Future<Object> waiter = executor.submit(get(cache, 0));
+    Thread.sleep(200);
+    IllegalStateException failure = new IllegalStateException("query failed");
+    cache.failLoad(0, failure);
+    try {
+      waiter.get(5, TimeUnit.SECONDS);
+      fail();
+    } catch (java.util.concurrent.ExecutionException e) {
+      assertTrue(e.getCause() instanceof CacheException);
+      assertSame(failure, e.getCause().getCause());
+    }
+    // the next caller loads the key again
+    assertNull(executor.submit(get(cache, 0)).get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void shouldNotBlockThreadLoadingTheKey() {
+    BlockingCache cache = new BlockingCache(new PerpetualCache("default"));
+    assertNull(cache.getObject(0));
+    assertNull(cache.getObject(0));
+    cache.putObject(0, 0);
+    assertEquals(0, cache.getObject(0));
+  }
+
+  @Test
+  public void shouldTimeOutWaitingForLoad() throws Exception {
+    final BlockingCache cache = new BlockingCache(new PerpetualCache("default"));
+    cache.setTimeout(100);
+    assertNull(cache.getObject(0));
+    try {
+      executor.submit(get(cache, 0)).get(5, TimeUnit.SECONDS);
+      fail();
+    } catch (java.util.concurrent.ExecutionException e) {
+      assertTrue(e.getCause() instanceof CacheException);
+    }
+  }
+
+  @Test
+  public void shouldNotBlockOtherKeys() throws Exception {
+    final BlockingCache cache = new BlockingCache(new PerpetualCache("default"));
+    assertNull(cache.getObject(0));
+    assertNull(executor.submit(get(cache, 1)).get(5, TimeUnit.SECONDS));
+  }
+
+  private static Callable<Object> get(final Cache cache, final Object key) {
+    return new Callable<Object>() {
+      @Override
+      public Object call() {
+        return cache.getObject(key);
+      }
+    };
+  }
+
+}
@@ -0,0 +1,182 @@
+/**
+ *    Copyright 2009-2026 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.ibatis.reflection.ArrayUtil;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.test.SlowTests;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Compares the bytes allocated to build and combine CacheKeys with the earlier list based keys.
+ * Run with <code>mvn test -Dtest=CacheKeyBenchmarkTest -Dmaven.surefire.excludeGroups=</code>.
+ */
+@Category(SlowTests.class)
+public class CacheKeyBenchmarkTest {
+
+  private static final int ITERATIONS = 200000;
+
+  private final Object[] sink = new Object[1024];
+
+  @Test
+  public void compareAllocationsOfQueryKeys() {
+    assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+    final RowBounds rowBounds = RowBounds.DEFAULT;
+    Runnable arrayKeys = new Runnable() {
+      @Override
+      public void run() {
+        for (int i = 0; i < ITERATIONS; i++) {
+          CacheKey key = new CacheKey();
+          key.update("org.apache.ibatis.domain.blog.mappers.BlogMapper.selectBlog");
+          key.update(rowBounds.getOffset());
+          key.update(rowBounds.getLimit());
+          key.update("select * from blog where id = ? and author_id = ?");
+          key.update(i);
+          key.update("author");
+          key.update("development");
+          sink[i & 1023] = key;
+        }
+      }
+    };
+    Runnable listKeys = new Runnable() {
+      @Override
+      public void run() {
+        for (int i = 0; i < ITERATIONS; i++) {
+          ListCacheKey key = new ListCacheKey();
+          key.update("org.apache.ibatis.domain.blog.mappers.BlogMapper.selectBlog");
+          key.update(rowBounds.getOffset());
+          key.update(rowBounds.getLimit());
+          key.update("select * from blog where id = ? and author_id = ?");
+          key.update(i);
+          key.update("author");
+          key.update("development");
+          sink[i & 1023] = key;
+        }
+      }
+    };
+    compare("query keys", arrayKeys, listKeys);
+  }
+
+  @Test
+  public void compareAllocationsOfCombinedRowKeys() {
+    assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+    // 与DefaultResultSetHandler.combineKeys一样，复制行的key再加入父行的key
+    Runnable arrayKeys = new Runnable() {
+      @Override
+      public void run() {
+        CacheKey parentRowKey = new CacheKey(new Object[] { "blogResultMap", "id", 1 });
+        for (int i = 0; i < ITERATIONS; i++) {
+          CacheKey rowKey = new CacheKey(new Object[] { "postResultMap", "id", i });
+          try {
+            CacheKey combinedKey = rowKey.clone();
+            combinedKey.update(parentRowKey);
+            sink[i & 1023] = combinedKey;
+          } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      }
+    };
+    Runnable listKeys = new Runnable() {
+      @Override
+      public void run() {
+        ListCacheKey parentRowKey = new ListCacheKey(new Object[] { "blogResultMap", "id", 1 });
+        for (int i = 0; i < ITERATIONS; i++) {
+          ListCacheKey rowKey = new ListCacheKey(new Object[] { "postResultMap", "id", i });
+          ListCacheKey combinedKey = rowKey.copy();
+          combinedKey.update(parentRowKey);
+          sink[i & 1023] = combinedKey;
+        }
+      }
+    };
+    compare("combined row keys", arrayKeys, listKeys);
+  }
+
+  private void compare(String name, Runnable arrayKeys, Runnable listKeys) {
+    // 预热，让两种实现都经过JIT编译
+    for (int i = 0; i < 5; i++) {
+      arrayKeys.run();
+      listKeys.run();
+    }
+    long arrayBytes = allocatedBytes(arrayKeys);
+    long listBytes = allocatedBytes(listKeys);
+    System.out.println(String.format("%s: CacheKey %d bytes/op, ArrayList based key %d bytes/op", name,
+        arrayBytes / ITERATIONS, listBytes / ITERATIONS));
+    assertTrue(arrayBytes < listBytes);
+  }
+
+  private static long allocatedBytes(Runnable runnable) {
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    long before = threads.getThreadAllocatedBytes(threadId);
+    runnable.run();
+    return threads.getThreadAllocatedBytes(threadId) - before;
+  }
+
+  /**
+   * The layout of CacheKey before its updates were kept in an array.
+   */
+  private static class ListCacheKey {
+
+    private final int multiplier = 37;
+    private int hashcode = 17;
+    private long checksum;
+    private int count;
+    private List<Object> updateList = new ArrayList<Object>();
+
+    ListCacheKey() {
+    }
+
+    ListCacheKey(Object[] objects) {
+      for (Object o : objects) {
+        update(o);
+      }
+    }
+
+    void update(Object object) {
+      int baseHashCode = object == null ? 1 : ArrayUtil.hashCode(object);
+      count++;
+      checksum += baseHashCode;
+      baseHashCode *= count;
+      hashcode = multiplier * hashcode + baseHashCode;
+      updateList.add(object);
+    }
+
+    ListCacheKey copy() {
+      ListCacheKey copy = new ListCacheKey();
+      copy.hashcode = hashcode;
+      copy.checksum = checksum;
+      copy.count = count;
+      copy.updateList = new ArrayList<Object>(updateList);
+      return copy;
+    }
+
+    @Override
+    public int hashCode() {
+      return hashcode;
+    }
+
+  }
+
+}
@@ -90,6 +90,45 @@ public class CacheKeyTest {
     assertTrue(key1.equals(key2));
   }
 
+  @Test
+  public void shouldTestCacheKeysWithManyUpdates() {
+    CacheKey key1 = new CacheKey();
+    CacheKey key2 = new CacheKey();
+    for (int i = 0; i < 100; i++) {
+      key1.update("value" + i);
+      key2.update("value" + i);
+    }
+    assertEquals(100, key1.getUpdateCount());
+    assertEquals(key1, key2);
+    key2.update(null);
+    assertFalse(key1.equals(key2));
+  }
+
+  @Test
+  public void shouldTestIntUpdatesEqualToBoxedUpdates() {
+    CacheKey key1 = new CacheKey();
+    key1.update(0);
+    key1.update(Integer.MAX_VALUE);
+    CacheKey key2 = new CacheKey(new Object[] { 0, Integer.MAX_VALUE });
+    assertEquals(key1, key2);
+    assertEquals(key1.hashCode(), key2.hashCode());
+    assertEquals(key1.toString(), key2.toString());
+  }
+
+  @Test
+  public void shouldNotShareUpdatesWithClone() throws Exception {
+    CacheKey key = new CacheKey(new Object[] { 1, "hello" });
+    CacheKey clone1 = key.clone();
+    CacheKey clone2 = key.clone();
+    assertEquals(key, clone1);
+    clone1.update("one");
+    clone2.update("two");
+    key.update("three");
+    assertEquals(new CacheKey(new Object[] { 1, "hello", "one" }), clone1);
+    assertEquals(new CacheKey(new Object[] { 1, "hello", "two" }), clone2);
+    assertEquals(new CacheKey(new Object[] { 1, "hello", "three" }), key);
+  }
+
   @Test (expected = NotSerializableException.class)
   public void serializationExceptionTest() throws Exception {
     CacheKey cacheKey = new CacheKey();
@@ -104,6 +143,34 @@ public class CacheKeyTest {
     Assert.assertEquals(cacheKey, serialize(cacheKey));
   }
 
+  // new CacheKey(new Object[] { "selectUser", 0, Integer.MAX_VALUE, "select * from users where id = ?", 1, null })
+  // serialized by the CacheKey that kept its updates in an ArrayList
+  private static final String LIST_FORM =
+      "aced0005737200206f72672e6170616368652e6962617469732e63616368652e43616368654b65790fe9d5b4cd33a882"
+      + "0200054a0008636865636b73756d490005636f756e7449000868617368636f646549000a6d756c7469706c6965724c00"
+      + "0a7570646174654c6973747400104c6a6176612f7574696c2f4c6973743b7870000000000d69dc0c00000006694db6c4"
+      + "00000025737200136a6176612e7574696c2e41727261794c6973747881d21d99c7619d03000149000473697a65787000"
+      + "00000677040000000674000a73656c65637455736572737200116a6176612e6c616e672e496e746567657212e2a0a4f7"
+      + "81873802000149000576616c7565787200106a6176612e6c616e672e4e756d62657286ac951d0b94e08b020000787000"
+      + "0000007371007e00067fffffff74002073656c656374202a2066726f6d207573657273207768657265206964203d203f"
+      + "7371007e0006000000017078";
+
+  @Test
+  public void shouldReadTheSerializedFormOfEarlierVersions() throws Exception {
+    CacheKey cacheKey = new CacheKey(new Object[] { "selectUser", 0, Integer.MAX_VALUE, "select * from users where id = ?", 1, null });
+    byte[] bytes = new byte[LIST_FORM.length() / 2];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) Integer.parseInt(LIST_FORM.substring(i * 2, i * 2 + 2), 16);
+    }
+    CacheKey read = (CacheKey) new ObjectInputStream(new ByteArrayInputStream(bytes)).readObject();
+    assertEquals(cacheKey, read);
+    assertEquals(cacheKey.hashCode(), read.hashCode());
+    read.update("more");
+    cacheKey.update("more");
+    assertEquals(cacheKey, read);
+    assertEquals(cacheKey, serialize(read));
+  }
+
   private static <T> T serialize(T object) throws Exception {
       ByteArrayOutputStream baos = new ByteArrayOutputStream();
       new ObjectOutputStream(baos).writeObject(object);
@@ -0,0 +1,160 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.ibatis.cache.decorators.FifoCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.cache.serializer.JavaSerializer;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CacheSnapshotTest {
+
+  private File file;
+
+  @Before
+  public void createFile() throws Exception {
+    file = File.createTempFile("cache", ".snapshot");
+    file.delete();
+    file.deleteOnExit();
+  }
+
+  @Test
+  public void shouldRestoreEntriesAfterRestart() {
+    CacheSnapshot snapshot = new CacheSnapshot();
+    Cache cache = newCache(snapshot, "ns", true);
+    cache.putObject(key(1), new ArrayList<Object>(Arrays.asList("a", "b")));
+    cache.putObject(key(2), new ArrayList<Object>(Arrays.asList("c")));
+    TableVersions versions = new TableVersions();
+    versions.increment(Collections.singleton("author"));
+    assertEquals(2, snapshot.save(file, fingerprints("ns", 1L), versions));
+
+    CacheSnapshot restarted = new CacheSnapshot();
+    Cache restartedCache = newCache(restarted, "ns", true);
+    TableVersions restartedVersions = new TableVersions();
+    assertEquals(2, restarted.load(file, fingerprints("ns", 1L), restartedVersions));
+    assertEquals(Arrays.asList("a", "b"), restartedCache.getObject(key(1)));
+    assertEquals(Arrays.asList("c"), restartedCache.getObject(key(2)));
+    assertEquals(1, restartedVersions.getVersion("author"));
+  }
+
+  @Test
+  public void shouldRestoreReadOnlyCaches() {
+    CacheSnapshot snapshot = new CacheSnapshot();
+    newCache(snapshot, "ns", false).putObject(key(1), "value");
+    snapshot.save(file, fingerprints("ns", 1L), new TableVersions());
+
+    CacheSnapshot restarted = new CacheSnapshot();
+    Cache restartedCache = newCache(restarted, "ns", false);
+    assertEquals(1, restarted.load(file, fingerprints("ns", 1L), new TableVersions()));
+    assertEquals("value", restartedCache.getObject(key(1)));
+  }
+
+  @Test
+  public void shouldDiscardCachesWhoseStatementsChanged() {
+    CacheSnapshot snapshot = new CacheSnapshot();
+    newCache(snapshot, "changed", true).putObject(key(1), "old");
+    newCache(snapshot, "same", true).putObject(key(1), "kept");
+    Map<String, Long> fingerprints = fingerprints("changed", 1L);
+    fingerprints.put("same", 2L);
+    snapshot.save(file, fingerprints, new TableVersions());
+
+    CacheSnapshot restarted = new CacheSnapshot();
+    Cache changed = newCache(restarted, "changed", true);
+    Cache same = newCache(restarted, "same", true);
+    fingerprints.put("changed", 3L);
+    assertEquals(1, restarted.load(file, fingerprints, new TableVersions()));
+    assertNull(changed.getObject(key(1)));
+    assertEquals("kept", same.getObject(key(1)));
+  }
+
+  @Test
+  public void shouldNotSaveEvictedEntries() {
+    CacheSnapshot snapshot = new CacheSnapshot();
+    Cache cache = new CacheBuilder("ns").implementation(PerpetualCache.class).addDecorator(FifoCache.class)
+        .size(2).readWrite(true).snapshot(snapshot).build();
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(key(i), i);
+    }
+    assertEquals(2, snapshot.save(file, fingerprints("ns", 1L), new TableVersions()));
+  }
+
+  @Test
+  public void shouldKeepPutTimesOfRestoredEntries() throws Exception {
+    CacheSnapshot snapshot = new CacheSnapshot();
+    Cache cache = new CacheBuilder("ns").clearInterval(200L).readWrite(true).snapshot(snapshot).build();
+    cache.putObject(key(1), "value");
+    Long putTime = snapshot.getCache("ns").getPutTime(key(1));
+    snapshot.save(file, fingerprints("ns", 1L), new TableVersions());
+    Thread.sleep(250);
+
+    CacheSnapshot restarted = new CacheSnapshot();
+    Cache restartedCache = new CacheBuilder("ns").clearInterval(200L).readWrite(true).snapshot(restarted).build();
+    assertEquals(1, restarted.load(file, fingerprints("ns", 1L), new TableVersions()));
+    assertEquals(putTime, restarted.getCache("ns").getPutTime(key(1)));
+    // expired as if the application had not been restarted
+    assertNull(restartedCache.getObject(key(1)));
+  }
+
+  @Test
+  public void shouldRecordSerializerOfReadWriteCaches() {
+    CacheSnapshot snapshot = new CacheSnapshot();
+    newCache(snapshot, "readWrite", true);
+    newCache(snapshot, "readOnly", false);
+    assertEquals(JavaSerializer.class.getName(), snapshot.getCache("readWrite").getSerializerName());
+    assertNull(snapshot.getCache("readOnly").getSerializerName());
+  }
+
+  @Test
+  public void shouldIgnoreMissingOrCorruptSnapshots() throws Exception {
+    CacheSnapshot snapshot = new CacheSnapshot();
+    newCache(snapshot, "ns", true);
+    assertEquals(0, snapshot.load(file, fingerprints("ns", 1L), new TableVersions()));
+    FileOutputStream out = new FileOutputStream(file);
+    out.write(new byte[] { 1, 2, 3 });
+    out.close();
+    assertEquals(0, snapshot.load(file, fingerprints("ns", 1L), new TableVersions()));
+  }
+
+  private static Cache newCache(CacheSnapshot snapshot, String id, boolean readWrite) {
+    return new CacheBuilder(id).readWrite(readWrite).snapshot(snapshot).build();
+  }
+
+  private static CacheKey key(int value) {
+    CacheKey key = new CacheKey();
+    key.update("statement");
+    key.update(value);
+    return key;
+  }
+
+  private static Map<String, Long> fingerprints(String id, long fingerprint) {
+    Map<String, Long> fingerprints = new HashMap<String, Long>();
+    fingerprints.put(id, fingerprint);
+    return fingerprints;
+  }
+
+}
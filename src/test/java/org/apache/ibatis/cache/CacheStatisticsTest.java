@@ -0,0 +1,143 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import org.apache.ibatis.cache.decorators.FifoCache;
+import org.apache.ibatis.cache.decorators.StatisticsCache;
+import org.apache.ibatis.cache.impl.ConcurrentCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.junit.Test;
+
+public class CacheStatisticsTest {
+
+  @Test
+  public void shouldCountHitsAndMissesPerStatement() {
+    CacheStatistics statistics = new CacheStatistics("ns");
+    statistics.recordMiss("ns.a", 2000000);
+    statistics.recordHit("ns.a");
+    statistics.recordHit("ns.a");
+    statistics.recordMiss("ns.b", 4000000);
+    assertEquals(2, statistics.getHitCount());
+    assertEquals(2, statistics.getMissCount());
+    assertEquals(0.5, statistics.getHitRatio(), 0);
+    assertEquals(6, statistics.getTotalLoadTime());
+    assertEquals(3.0, statistics.getAverageLoadTime(), 0);
+    CacheStatistics a = statistics.getStatementStatistics("ns.a");
+    assertEquals(2, a.getHitCount());
+    assertEquals(1, a.getMissCount());
+    assertEquals(2.0, a.getAverageLoadTime(), 0);
+    assertEquals(2, statistics.getStatementStatistics().size());
+    assertNull(statistics.getStatementStatistics("ns.c"));
+  }
+
+  @Test
+  public void shouldCountPutsAndEvictionsOfTheStatementOfTheKey() {
+    CacheStatistics statistics = new CacheStatistics("ns");
+    Cache cache = new CacheBuilder("ns").implementation(PerpetualCache.class).addDecorator(FifoCache.class)
+        .size(2).statistics(statistics).build();
+    cache.putObject(key("ns.a", 1), "1");
+    cache.putObject(key("ns.a", 1), "1");
+    cache.putObject(key("ns.a", 2), "2");
+    cache.putObject(key("ns.b", 1), "3");
+    assertEquals(4, statistics.getPutCount());
+    assertEquals(1, statistics.getEvictionCount());
+    assertEquals(2, statistics.getEntryCount());
+    CacheStatistics a = statistics.getStatementStatistics("ns.a");
+    assertEquals(3, a.getPutCount());
+    assertEquals(1, a.getEvictionCount());
+    assertEquals(1, a.getEntryCount());
+    assertEquals(1, statistics.getStatementStatistics("ns.b").getEntryCount());
+    cache.clear();
+    assertEquals(0, statistics.getEntryCount());
+    assertEquals(0, a.getEntryCount());
+  }
+
+  @Test
+  public void shouldCountEntriesOfConcurrentCacheUpdatedByManyThreads() throws Exception {
+    CacheStatistics statistics = new CacheStatistics("ns");
+    final Cache cache = new StatisticsCache(new ConcurrentCache("ns"), statistics);
+    Thread[] threads = new Thread[8];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 2000; j++) {
+            cache.putObject(key("ns.a", j), j);
+            if (j % 2 == 0) {
+              cache.removeObject(key("ns.a", j));
+            }
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(cache.getSize(), statistics.getStatementStatistics("ns.a").getEntryCount());
+  }
+
+  @Test
+  public void shouldUnregisterMBeansOfNamespaceAndStatements() throws Exception {
+    ObjectName pattern = new ObjectName("org.apache.ibatis.cache:type=CacheStatistics,namespace="
+        + ObjectName.quote("shouldUnregisterMBeans") + ",*");
+    CacheStatistics statistics = new CacheStatistics("shouldUnregisterMBeans");
+    statistics.recordHit("shouldUnregisterMBeans.a");
+    statistics.registerMBeans();
+    statistics.recordHit("shouldUnregisterMBeans.b");
+    assertEquals(3, ManagementFactory.getPlatformMBeanServer().queryNames(pattern, null).size());
+    statistics.unregisterMBeans();
+    assertEquals(0, ManagementFactory.getPlatformMBeanServer().queryNames(pattern, null).size());
+  }
+
+  @Test
+  public void shouldSumUpdatesOfAllThreads() throws Exception {
+    final StripedCounter counter = new StripedCounter();
+    Thread[] threads = new Thread[8];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 10000; j++) {
+            counter.increment();
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(80000, counter.sum());
+    counter.reset();
+    assertEquals(0, counter.sum());
+  }
+
+  private static CacheKey key(String statementId, int value) {
+    CacheKey key = new CacheKey();
+    key.update(statementId);
+    key.update(value);
+    return key;
+  }
+
+}
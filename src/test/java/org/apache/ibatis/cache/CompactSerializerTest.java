@@ -0,0 +1,205 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.cache.serializer.CompactSerializer;
+import org.apache.ibatis.cache.serializer.JavaSerializer;
+import org.junit.Test;
+
+public class CompactSerializerTest {
+
+  private final CacheSerializer serializer = new CompactSerializer();
+
+  @Test
+  public void shouldCopyCommonValues() {
+    Timestamp timestamp = new Timestamp(1234567890123L);
+    timestamp.setNanos(123456789);
+    List<Object> values = new ArrayList<Object>(Arrays.<Object>asList("text", 1, 2L, (short) 3, (byte) 4, true, 'c',
+        1.5f, 2.5d, new BigDecimal("12345.678"), new Date(1000L), new java.sql.Date(2000L), timestamp,
+        Kind.SECOND, new int[] { 1, 2 }, null));
+    @SuppressWarnings("unchecked")
+    List<Object> copy = (List<Object>) copy(values);
+    assertNotSame(values, copy);
+    assertEquals(values.subList(0, 14), copy.subList(0, 14));
+    assertArrayEquals(new int[] { 1, 2 }, (int[]) copy.get(14));
+    assertNull(copy.get(15));
+  }
+
+  @Test
+  public void shouldCopyObjectsFieldByField() {
+    Author author = new Author(101, "jim", Kind.FIRST);
+    author.getTags().put("role", "writer");
+    Author copy = (Author) copy(author);
+    assertNotSame(author, copy);
+    assertEquals(101, copy.getId());
+    assertEquals("jim", copy.getName());
+    assertEquals(Kind.FIRST, copy.getKind());
+    assertEquals("writer", copy.getTags().get("role"));
+    assertNotSame(author.getCache(), copy.getCache());
+  }
+
+  @Test
+  public void shouldKeepSharedAndCircularReferences() {
+    Author author = new Author(101, "jim", Kind.FIRST);
+    Post first = new Post(author);
+    Post second = new Post(author);
+    author.getPosts().add(first);
+    author.getPosts().add(second);
+    @SuppressWarnings("unchecked")
+    List<Post> copy = (List<Post>) copy(new ArrayList<Post>(Arrays.asList(first, second)));
+    assertSame(copy.get(0).getAuthor(), copy.get(1).getAuthor());
+    assertSame(copy.get(0), copy.get(0).getAuthor().getPosts().get(0));
+  }
+
+  @Test
+  public void shouldEmbedOtherJdkTypesWithJavaSerialization() {
+    Map<String, Object> map = new TreeMap<String, Object>();
+    map.put("b", Collections.singletonList(1));
+    map.put("a", null);
+    assertEquals(map, copy(map));
+  }
+
+  @Test
+  public void shouldBeSmallerThanJavaSerialization() {
+    List<Author> authors = new ArrayList<Author>();
+    for (int i = 0; i < 100; i++) {
+      authors.add(new Author(i, "author" + i, Kind.SECOND));
+    }
+    int compact = serializer.serialize(authors).length;
+    int java = new JavaSerializer().serialize(authors).length;
+    assertTrue("compact " + compact + " java " + java, compact < java);
+  }
+
+  @Test
+  public void shouldBeSetOnSerializedCache() {
+    SerializedCache cache = new SerializedCache(new PerpetualCache("default"));
+    cache.setSerializer(CompactSerializer.class.getName());
+    Author author = new Author(1, "jim", Kind.FIRST);
+    cache.putObject(0, author);
+    Author copy = (Author) cache.getObject(0);
+    assertNotSame(author, copy);
+    assertEquals("jim", copy.getName());
+  }
+
+  @Test(expected = CacheException.class)
+  public void shouldRejectValueWrittenBeforeFieldsOfItsClassChanged() throws Exception {
+    byte[] serialized = serializer.serialize(new Renamed1("jim"));
+    // as if Renamed1 had been changed to the fields of Renamed2 since
+    String written = new String(serialized, "ISO-8859-1");
+    String changed = written.replace(Renamed1.class.getName(), Renamed2.class.getName());
+    serializer.deserialize(changed.getBytes("ISO-8859-1"));
+  }
+
+  private Object copy(Object value) {
+    return serializer.deserialize(serializer.serialize(value));
+  }
+
+  enum Kind {
+    FIRST, SECOND
+  }
+
+  static class Author implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private final int id;
+    private String name;
+    private Kind kind;
+    private Map<String, String> tags = new HashMap<String, String>();
+    private List<Post> posts = new ArrayList<Post>();
+    private transient Object cache = new Object();
+
+    Author() {
+      this(0, null, null);
+    }
+
+    Author(int id, String name, Kind kind) {
+      this.id = id;
+      this.name = name;
+      this.kind = kind;
+    }
+
+    public int getId() {
+      return id;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public Kind getKind() {
+      return kind;
+    }
+
+    public Map<String, String> getTags() {
+      return tags;
+    }
+
+    public List<Post> getPosts() {
+      return posts;
+    }
+
+    public Object getCache() {
+      return cache;
+    }
+  }
+
+  static class Post implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private Author author;
+
+    Post() {
+    }
+
+    Post(Author author) {
+      this.author = author;
+    }
+
+    public Author getAuthor() {
+      return author;
+    }
+  }
+
+  static class Renamed1 {
+    private String name;
+
+    Renamed1() {
+    }
+
+    Renamed1(String name) {
+      this.name = name;
+    }
+  }
+
+  static class Renamed2 {
+    private String title;
+  }
+
+}
@@ -0,0 +1,136 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.cache.decorators.ConcurrentLruCache;
+import org.apache.ibatis.cache.decorators.LoggingCache;
+import org.apache.ibatis.cache.impl.ConcurrentCache;
+import org.junit.Test;
+
+public class ConcurrentCacheTest {
+
+  @Test
+  public void shouldDemonstrateHowAllObjectsAreKept() {
+    Cache cache = new ConcurrentCache("default");
+    for (int i = 0; i < 100000; i++) {
+      cache.putObject(i, i);
+      assertEquals(i, cache.getObject(i));
+    }
+    assertEquals(100000, cache.getSize());
+  }
+
+  @Test
+  public void shouldKeepNullValues() {
+    Cache cache = new ConcurrentCache("default");
+    cache.putObject(0, null);
+    assertNull(cache.getObject(0));
+    assertEquals(1, cache.getSize());
+    assertNull(cache.removeObject(0));
+    assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  public void shouldFlushAllItemsOnDemand() {
+    Cache cache = new ConcurrentCache("default");
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, i);
+    }
+    cache.clear();
+    assertNull(cache.getObject(0));
+    assertNull(cache.getObject(4));
+  }
+
+  @Test
+  public void shouldStayWithinSizeWhenUsedConcurrently() throws Exception {
+    final ConcurrentLruCache cache = new ConcurrentLruCache(new ConcurrentCache("default"));
+    cache.setSize(100);
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    for (int t = 0; t < 8; t++) {
+      final int offset = t * 1000;
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          for (int i = 0; i < 1000; i++) {
+            cache.putObject(offset + i, i);
+            cache.getObject(offset + i / 2);
+          }
+        }
+      });
+    }
+    start.countDown();
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+    assertEquals(100, cache.getSize());
+  }
+
+  @Test
+  public void shouldCountEveryLookupOfUnsynchronizedLoggingCache() throws Exception {
+    final CountingLoggingCache cache = new CountingLoggingCache(new ConcurrentCache("default"));
+    cache.putObject(0, 0);
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    for (int t = 0; t < 8; t++) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          for (int i = 0; i < 100000; i++) {
+            cache.getObject(i % 2);
+          }
+        }
+      });
+    }
+    start.countDown();
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+    assertEquals(800000, cache.getRequests());
+    assertEquals(400000, cache.getHits());
+  }
+
+  private static class CountingLoggingCache extends LoggingCache {
+
+    CountingLoggingCache(Cache delegate) {
+      super(delegate);
+    }
+
+    int getRequests() {
+      return requests;
+    }
+
+    int getHits() {
+      return hits;
+    }
+
+  }
+
+}
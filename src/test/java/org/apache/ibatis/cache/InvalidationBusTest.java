@@ -0,0 +1,157 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.io.DataOutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.cache.bus.LocalInvalidationBus;
+import org.apache.ibatis.cache.bus.SocketInvalidationBus;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.session.Configuration;
+import org.junit.Test;
+
+public class InvalidationBusTest {
+
+  @Test
+  public void shouldClearCachesOfOtherNodesOnCommit() {
+    Configuration node1 = newNode("shouldClearCachesOfOtherNodesOnCommit");
+    Configuration node2 = newNode("shouldClearCachesOfOtherNodesOnCommit");
+    try {
+      node1.getCache("users").putObject("key", "value");
+      node2.getCache("users").putObject("key", "value");
+      TransactionalCacheManager tcm = new TransactionalCacheManager(node1.getInvalidationBus());
+      tcm.clear(node1.getCache("users"));
+      assertEquals("value", node2.getCache("users").getObject("key"));
+      tcm.commit();
+      assertNull(node1.getCache("users").getObject("key"));
+      assertNull(node2.getCache("users").getObject("key"));
+    } finally {
+      node1.getInvalidationBus().close();
+      node2.getInvalidationBus().close();
+    }
+  }
+
+  @Test
+  public void shouldIncrementVersionsOfOtherNodesOnCommit() {
+    Configuration node1 = newNode("shouldIncrementVersionsOfOtherNodesOnCommit");
+    Configuration node2 = newNode("shouldIncrementVersionsOfOtherNodesOnCommit");
+    try {
+      TransactionalCacheManager tcm = new TransactionalCacheManager(node1.getInvalidationBus());
+      tcm.invalidate(node1.getTableVersions(), Arrays.asList("users"));
+      tcm.rollback();
+      assertEquals(0, node2.getTableVersions().getVersion("users"));
+      tcm.invalidate(node1.getTableVersions(), Arrays.asList("users"));
+      tcm.commit();
+      assertEquals(1, node1.getTableVersions().getVersion("users"));
+      assertEquals(1, node2.getTableVersions().getVersion("users"));
+    } finally {
+      node1.getInvalidationBus().close();
+      node2.getInvalidationBus().close();
+    }
+  }
+
+  @Test
+  public void shouldSendInvalidationsOverSockets() throws Exception {
+    SocketInvalidationBus bus1 = new SocketInvalidationBus(0);
+    SocketInvalidationBus bus2 = new SocketInvalidationBus(0);
+    try {
+      bus1.addPeer(new InetSocketAddress("localhost", bus2.getPort()));
+      bus2.addPeer(new InetSocketAddress("localhost", bus1.getPort()));
+      RecordingListener listener1 = new RecordingListener();
+      RecordingListener listener2 = new RecordingListener();
+      bus1.subscribe(listener1);
+      bus2.subscribe(listener2);
+      bus1.publishClear("users");
+      bus1.publishIncrement(Arrays.asList("users", "orders"));
+      bus2.publishClear("orders");
+      assertEquals("cleared users", listener2.received.poll(5, TimeUnit.SECONDS));
+      assertEquals("incremented [users, orders]", listener2.received.poll(5, TimeUnit.SECONDS));
+      assertEquals("cleared orders", listener1.received.poll(5, TimeUnit.SECONDS));
+      assertNull(listener1.received.poll(200, TimeUnit.MILLISECONDS));
+    } finally {
+      bus1.close();
+      bus2.close();
+    }
+  }
+
+  @Test
+  public void shouldSkipUnreachablePeers() throws Exception {
+    SocketInvalidationBus bus1 = new SocketInvalidationBus(0);
+    SocketInvalidationBus bus2 = new SocketInvalidationBus(0);
+    int unusedPort = bus2.getPort();
+    bus2.close();
+    bus2 = new SocketInvalidationBus(0);
+    try {
+      bus1.addPeer(new InetSocketAddress("localhost", unusedPort));
+      bus1.addPeer(new InetSocketAddress("localhost", bus2.getPort()));
+      RecordingListener listener2 = new RecordingListener();
+      bus2.subscribe(listener2);
+      bus1.publishClear("users");
+      assertEquals("cleared users", listener2.received.poll(5, TimeUnit.SECONDS));
+    } finally {
+      bus1.close();
+      bus2.close();
+    }
+  }
+
+  @Test
+  public void shouldDropConnectionSendingTooManyNames() throws Exception {
+    SocketInvalidationBus bus = new SocketInvalidationBus(0);
+    Socket socket = new Socket("localhost", bus.getPort());
+    try {
+      socket.setSoTimeout(5000);
+      DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+      out.writeByte(2);
+      out.writeInt(1000000);
+      out.flush();
+      assertEquals(-1, socket.getInputStream().read());
+    } finally {
+      socket.close();
+      bus.close();
+    }
+  }
+
+  private static Configuration newNode(String channel) {
+    Configuration configuration = new Configuration();
+    configuration.addCache(new PerpetualCache("users"));
+    configuration.setInvalidationBus(new LocalInvalidationBus(channel));
+    return configuration;
+  }
+
+  private static class RecordingListener implements InvalidationBus.Listener {
+    private final BlockingQueue<String> received = new LinkedBlockingQueue<String>();
+
+    @Override
+    public void cleared(String cacheId) {
+      received.add("cleared " + cacheId);
+    }
+
+    @Override
+    public void incremented(Collection<String> names) {
+      received.add("incremented " + names);
+    }
+  }
+
+}
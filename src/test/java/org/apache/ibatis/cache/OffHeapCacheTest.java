@@ -0,0 +1,171 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.ibatis.builder.MapperBuilderAssistant;
+import org.apache.ibatis.cache.decorators.PutTimeCache;
+import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.cache.decorators.StatisticsCache;
+import org.apache.ibatis.cache.impl.OffHeapCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.apache.ibatis.session.Configuration;
+import org.junit.Test;
+
+public class OffHeapCacheTest {
+
+  @Test
+  public void shouldReturnCopiesOfCachedObjects() {
+    OffHeapCache cache = new OffHeapCache("default");
+    List<String> value = new ArrayList<String>(Arrays.asList("a", "b"));
+    cache.putObject(0, value);
+    Object copy = cache.getObject(0);
+    assertEquals(value, copy);
+    assertNotSame(value, copy);
+  }
+
+  @Test
+  public void shouldStoreSerializedValuesAsIs() {
+    Cache cache = new SerializedCache(new OffHeapCache("default"));
+    for (int i = 0; i < 1000; i++) {
+      cache.putObject(i, "value" + i);
+    }
+    for (int i = 0; i < 1000; i++) {
+      assertEquals("value" + i, cache.getObject(i));
+    }
+    assertEquals(1000, cache.getSize());
+  }
+
+  @Test
+  public void shouldKeepNullValues() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.putObject(0, null);
+    assertNull(cache.getObject(0));
+    assertEquals(1, cache.getSize());
+  }
+
+  @Test
+  public void shouldEmptyOldestSlabWhenFull() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setSlabSize(1024);
+    cache.setMaxMemory(4096);
+    for (int i = 0; i < 100; i++) {
+      cache.putObject(i, new byte[100]);
+    }
+    // 10 values per slab, 4 slabs
+    assertEquals(40, cache.getSize());
+    assertNull(cache.getObject(0));
+    assertNotNull(cache.getObject(99));
+  }
+
+  @Test
+  public void shouldRemoveKeysOfEmptiedSlabThroughEntrance() {
+    OffHeapCache offHeapCache = new OffHeapCache("default");
+    offHeapCache.setSlabSize(1024);
+    offHeapCache.setMaxMemory(4096);
+    CacheStatistics statistics = new CacheStatistics("default");
+    PutTimeCache cache = new PutTimeCache(new StatisticsCache(offHeapCache, statistics));
+    offHeapCache.setEntrance(cache);
+    for (int i = 0; i < 100; i++) {
+      cache.putObject(i, new byte[100]);
+    }
+    assertEquals(40, cache.getSize());
+    assertNull(cache.getPutTime(0));
+    assertNull(cache.getPutTime(59));
+    assertNotNull(cache.getPutTime(60));
+    assertEquals(60, statistics.getEvictionCount());
+  }
+
+  @Test
+  public void shouldCountSlabEvictionsOfBuiltCache() {
+    Properties properties = new Properties();
+    properties.setProperty("slabSize", "1024");
+    properties.setProperty("maxMemory", "4096");
+    CacheStatistics statistics = new CacheStatistics("default");
+    Cache cache = new CacheBuilder("default").implementation(OffHeapCache.class).statistics(statistics)
+        .properties(properties).build();
+    for (int i = 0; i < 100; i++) {
+      cache.putObject(new CacheKey(new Object[] { "select", i }), new byte[100]);
+    }
+    assertEquals(40, cache.getSize());
+    assertEquals(60, statistics.getEvictionCount());
+    assertEquals(100, statistics.getStatementStatistics("select").getPutCount());
+    assertEquals(40, statistics.getStatementStatistics("select").getEntryCount());
+  }
+
+  @Test
+  public void shouldNotAddDefaultEvictionToOffHeapCache() {
+    MapperBuilderAssistant assistant = new MapperBuilderAssistant(new Configuration(), "resource");
+    assistant.setCurrentNamespace("default");
+    Cache cache = assistant.useNewCache(OffHeapCache.class, null, null, null, true, false, new Properties());
+    for (int i = 0; i < 2000; i++) {
+      cache.putObject(i, i);
+    }
+    assertEquals(2000, cache.getSize());
+    assertEquals(0, cache.getObject(0));
+  }
+
+  @Test
+  public void shouldNotCacheValueLargerThanSlab() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setSlabSize(1024);
+    cache.putObject(0, new byte[2000]);
+    assertNull(cache.getObject(0));
+  }
+
+  @Test
+  public void shouldServeFrequentlyReadObjectsFromHeap() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.putObject(0, "value");
+    Object first = cache.getObject(0);
+    Object second = cache.getObject(0);
+    assertNotSame(first, second);
+    assertSame(second, cache.getObject(0));
+    cache.putObject(0, "other");
+    assertEquals("other", cache.getObject(0));
+  }
+
+  @Test
+  public void shouldRemoveItemOnDemand() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.putObject(0, 0);
+    assertNotNull(cache.getObject(0));
+    cache.removeObject(0);
+    assertNull(cache.getObject(0));
+  }
+
+  @Test
+  public void shouldFlushAllItemsOnDemand() {
+    OffHeapCache cache = new OffHeapCache("default");
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, i);
+    }
+    assertNotNull(cache.getObject(0));
+    assertNotNull(cache.getObject(4));
+    cache.clear();
+    assertNull(cache.getObject(0));
+    assertNull(cache.getObject(4));
+    cache.putObject(0, 0);
+    assertEquals(0, cache.getObject(0));
+  }
+
+}
@@ -0,0 +1,120 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.cache.decorators.FifoCache;
+import org.apache.ibatis.cache.decorators.RefreshAheadCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.junit.Test;
+
+public class RefreshAheadCacheTest {
+
+  @Test
+  public void shouldNeedRefreshOnlyAfterInterval() throws Exception {
+    RefreshAheadCache cache = new RefreshAheadCache(new PerpetualCache("default"));
+    cache.setRefreshInterval(200);
+    cache.putObject(0, "old");
+    assertFalse(cache.needsRefresh(0));
+    Thread.sleep(400);
+    assertTrue(cache.needsRefresh(0));
+    assertEquals("old", cache.getObject(0));
+    assertFalse(cache.needsRefresh(1));
+  }
+
+  @Test
+  public void shouldForgetPutTimeOfEvictedItem() throws Exception {
+    RefreshAheadCache cache = (RefreshAheadCache) new CacheBuilder("default").implementation(PerpetualCache.class)
+        .addDecorator(FifoCache.class).size(1).refreshInterval(1L).build();
+    cache.putObject(0, "evicted");
+    cache.putObject(1, "cached");
+    Thread.sleep(50);
+    assertFalse(cache.needsRefresh(0));
+    assertTrue(cache.needsRefresh(1));
+  }
+
+  @Test
+  public void shouldReplaceValueInBackground() throws Exception {
+    RefreshAheadCache cache = new RefreshAheadCache(new PerpetualCache("default"));
+    cache.setRefreshInterval(200);
+    cache.putObject(0, "old");
+    Thread.sleep(300);
+    final CountDownLatch loaded = new CountDownLatch(1);
+    cache.refresh(0, new Callable<Object>() {
+      @Override
+      public Object call() {
+        loaded.countDown();
+        return "new";
+      }
+    });
+    assertTrue(loaded.await(5, TimeUnit.SECONDS));
+    for (int i = 0; i < 50 && !"new".equals(cache.getObject(0)); i++) {
+      Thread.sleep(100);
+    }
+    assertEquals("new", cache.getObject(0));
+    assertFalse(cache.needsRefresh(0));
+  }
+
+  @Test
+  public void shouldRefreshKeyOnlyOnceAtATime() throws Exception {
+    RefreshAheadCache cache = new RefreshAheadCache(new PerpetualCache("default"));
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger loads = new AtomicInteger();
+    Callable<Object> loader = new Callable<Object>() {
+      @Override
+      public Object call() throws Exception {
+        loads.incrementAndGet();
+        release.await();
+        return "new";
+      }
+    };
+    cache.refresh(0, loader);
+    cache.refresh(0, loader);
+    Thread.sleep(200);
+    release.countDown();
+    Thread.sleep(200);
+    assertEquals(1, loads.get());
+  }
+
+  @Test
+  public void shouldDropRefreshWhenClearedMeanwhile() throws Exception {
+    RefreshAheadCache cache = new RefreshAheadCache(new PerpetualCache("default"));
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    cache.putObject(0, "old");
+    cache.refresh(0, new Callable<Object>() {
+      @Override
+      public Object call() throws Exception {
+        started.countDown();
+        release.await();
+        return "stale";
+      }
+    });
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    cache.clear();
+    release.countDown();
+    Thread.sleep(200);
+    assertNull(cache.getObject(0));
+  }
+
+}
@@ -17,6 +17,7 @@ package org.apache.ibatis.cache;
 
 import org.apache.ibatis.cache.decorators.LoggingCache;
 import org.apache.ibatis.cache.decorators.ScheduledCache;
+import org.apache.ibatis.cache.decorators.WeightedCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import static org.junit.Assert.*;
 import org.junit.Test;
@@ -37,6 +38,69 @@ public class ScheduledCacheTest {
     assertEquals(0, cache.getSize());
   }
 
+  @Test
+  public void shouldExpireEachItemOnItsOwn() {
+    ManualClockCache cache = new ManualClockCache(new PerpetualCache("DefaultCache"));
+    cache.setClearInterval(1000);
+    cache.putObject(0, 0);
+    cache.advance(600);
+    cache.putObject(1, 1);
+    cache.advance(600);
+    assertNull(cache.getObject(0));
+    assertEquals(1, cache.getObject(1));
+    assertEquals(1, cache.getSize());
+  }
+
+  @Test
+  public void shouldExpireItemsEarlierWithJitter() {
+    ManualClockCache cache = new ManualClockCache(new PerpetualCache("DefaultCache"));
+    cache.setClearInterval(1000);
+    cache.setClearJitter(1000);
+    for (int i = 0; i < 100; i++) {
+      cache.putObject(i, i);
+    }
+    cache.advance(500);
+    int size = 0;
+    for (int i = 0; i < 100; i++) {
+      if (cache.getObject(i) != null) {
+        size++;
+      }
+    }
+    assertTrue(size > 0 && size < 100);
+  }
+
+  @Test
+  public void shouldRemoveExpiredItemsInBackground() throws Exception {
+    Cache delegate = new PerpetualCache("DefaultCache");
+    ManualClockCache cache = new ManualClockCache(delegate);
+    cache.setClearInterval(50);
+    cache.putObject(0, 0);
+    cache.advance(50);
+    long deadline = System.currentTimeMillis() + 5000;
+    while (delegate.getSize() > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(0, delegate.getSize());
+  }
+
+  @Test
+  public void shouldRemoveExpiredItemsThroughEntrance() throws Exception {
+    ManualClockCache cache = new ManualClockCache(new PerpetualCache("DefaultCache"));
+    WeightedCache weighted = new WeightedCache(cache);
+    cache.setEntrance(weighted);
+    cache.setClearInterval(50);
+    weighted.putObject(0, 0);
+    weighted.putObject(1, 1);
+    assertTrue(weighted.getWeight() > 0);
+    cache.advance(50);
+    long deadline = System.currentTimeMillis() + 5000;
+    while (weighted.getWeight() > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(0, weighted.getWeight());
+    assertEquals(0, cache.getSize());
+  }
+
   @Test
   public void shouldRemoveItemOnDemand() {
     Cache cache = new PerpetualCache("DefaultCache");
@@ -65,4 +129,23 @@ public class ScheduledCacheTest {
     assertNull(cache.getObject(4));
   }
 
-}
\ No newline at end of file
+  private static class ManualClockCache extends ScheduledCache {
+
+    private volatile long now = System.currentTimeMillis();
+
+    ManualClockCache(Cache delegate) {
+      super(delegate);
+    }
+
+    void advance(long millis) {
+      now += millis;
+    }
+
+    @Override
+    protected long currentTimeMillis() {
+      return now;
+    }
+
+  }
+
+}
@@ -0,0 +1,91 @@
+/**
+ *    Copyright 2009-2026 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.cache.serializer.CompactSerializer;
+import org.apache.ibatis.cache.serializer.JavaSerializer;
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.domain.blog.Section;
+import org.apache.ibatis.test.SlowTests;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Compares the cost of putting and getting a cached list through SerializedCache with each serializer.
+ * Run with <code>mvn test -Dtest=SerializedCacheBenchmarkTest -Dmaven.surefire.excludeGroups=</code>.
+ */
+@Category(SlowTests.class)
+public class SerializedCacheBenchmarkTest {
+
+  private static final int ITERATIONS = 2000;
+
+  @Test
+  public void compareCompactSerializerWithJavaSerialization() {
+    List<Author> authors = new ArrayList<Author>();
+    for (int i = 0; i < 100; i++) {
+      authors.add(new Author(i, "author" + i, "******", "author" + i + "@example.com", "bio of author " + i,
+          Section.values()[i % Section.values().length]));
+    }
+    SerializedCache java = new SerializedCache(new PerpetualCache("default"));
+    java.setSerializer(JavaSerializer.class.getName());
+    SerializedCache compact = new SerializedCache(new PerpetualCache("default"));
+    compact.setSerializer(CompactSerializer.class.getName());
+    // 预热，让两种实现都经过JIT编译
+    run(java, authors);
+    run(compact, authors);
+    long javaNanos = run(java, authors);
+    long compactNanos = run(compact, authors);
+    long javaBytes = allocatedBytes(java, authors);
+    long compactBytes = allocatedBytes(compact, authors);
+    System.out.println(String.format("put and get of 100 authors: JavaSerializer %d ns/op %s, "
+        + "CompactSerializer %d ns/op %s",
+        javaNanos / ITERATIONS, format(javaBytes), compactNanos / ITERATIONS, format(compactBytes)));
+    assertEquals(authors.size(), ((List<?>) compact.getObject(0)).size());
+  }
+
+  private static long run(Cache cache, List<Author> authors) {
+    long begin = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      cache.putObject(0, authors);
+      assertNotNull(cache.getObject(0));
+    }
+    return System.nanoTime() - begin;
+  }
+
+  private static long allocatedBytes(Cache cache, List<Author> authors) {
+    if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+      return -1;
+    }
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    long before = threads.getThreadAllocatedBytes(threadId);
+    run(cache, authors);
+    return threads.getThreadAllocatedBytes(threadId) - before;
+  }
+
+  private static String format(long bytes) {
+    return bytes < 0 ? "" : bytes / ITERATIONS + " bytes/op";
+  }
+
+}
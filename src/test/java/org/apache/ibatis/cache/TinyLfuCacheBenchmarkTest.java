@@ -0,0 +1,104 @@
+/**
+ *    Copyright 2009-2026 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.apache.ibatis.cache.decorators.FifoCache;
+import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.decorators.TinyLfuCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.test.SlowTests;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Compares the hit ratio and throughput of TinyLfuCache with LruCache and FifoCache on skewed traces.
+ * Run with <code>mvn test -Dtest=TinyLfuCacheBenchmarkTest -Dmaven.surefire.excludeGroups=</code>.
+ */
+@Category(SlowTests.class)
+public class TinyLfuCacheBenchmarkTest {
+
+  private static final int SIZE = 1024;
+  private static final int REQUESTS = 2000000;
+
+  @Test
+  public void compareOnSkewedTrace() {
+    int[] trace = skewedTrace(0);
+    double lfu = run("TINYLFU", new TinyLfuCache(new PerpetualCache("default")), trace);
+    double lru = run("LRU", new LruCache(new PerpetualCache("default")), trace);
+    double fifo = run("FIFO", new FifoCache(new PerpetualCache("default")), trace);
+    assertTrue(lfu >= lru && lfu >= fifo);
+  }
+
+  @Test
+  public void compareOnSkewedTraceWithScans() {
+    // 四分之一的请求来自只读一次的扫描
+    int[] trace = skewedTrace(4);
+    double lfu = run("TINYLFU", new TinyLfuCache(new PerpetualCache("default")), trace);
+    double lru = run("LRU", new LruCache(new PerpetualCache("default")), trace);
+    double fifo = run("FIFO", new FifoCache(new PerpetualCache("default")), trace);
+    assertTrue(lfu > lru && lfu > fifo);
+  }
+
+  private static int[] skewedTrace(int scanEvery) {
+    Random random = new Random(1);
+    int[] trace = new int[REQUESTS];
+    for (int i = 0; i < REQUESTS; i++) {
+      if (scanEvery > 0 && random.nextInt(scanEvery) == 0) {
+        trace[i] = 10000000 + i;
+      } else {
+        trace[i] = (int) (Math.pow(random.nextDouble(), 3) * SIZE * 50);
+      }
+    }
+    return trace;
+  }
+
+  private static double run(String name, Cache cache, int[] trace) {
+    if (cache instanceof TinyLfuCache) {
+      ((TinyLfuCache) cache).setSize(SIZE);
+    } else if (cache instanceof LruCache) {
+      ((LruCache) cache).setSize(SIZE);
+    } else {
+      ((FifoCache) cache).setSize(SIZE);
+    }
+    // 预热一遍，再计时统计第二遍
+    replay(cache, trace);
+    long begin = System.nanoTime();
+    int hits = replay(cache, trace);
+    long elapsed = System.nanoTime() - begin;
+    double hitRatio = (double) hits / trace.length;
+    System.out.println(String.format("%-8s hit ratio %.3f, %.0f requests/s", name, hitRatio,
+        trace.length * 1e9 / elapsed));
+    return hitRatio;
+  }
+
+  private static int replay(Cache cache, int[] trace) {
+    int hits = 0;
+    for (int key : trace) {
+      Integer boxed = Integer.valueOf(key);
+      if (cache.getObject(boxed) != null) {
+        hits++;
+      } else {
+        cache.putObject(boxed, boxed);
+      }
+    }
+    return hits;
+  }
+
+}
@@ -0,0 +1,124 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.decorators.TinyLfuCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class TinyLfuCacheTest {
+
+  @Test
+  public void shouldNotExceedSize() {
+    TinyLfuCache cache = new TinyLfuCache(new PerpetualCache("default"));
+    cache.setSize(100);
+    for (int i = 0; i < 1000; i++) {
+      cache.putObject(i, i);
+    }
+    assertEquals(100, cache.getSize());
+  }
+
+  @Test
+  public void shouldKeepFrequentlyUsedItemsDuringScan() {
+    TinyLfuCache cache = new TinyLfuCache(new PerpetualCache("default"));
+    cache.setSize(100);
+    for (int round = 0; round < 5; round++) {
+      for (int i = 0; i < 50; i++) {
+        if (cache.getObject(i) == null) {
+          cache.putObject(i, i);
+        }
+      }
+    }
+    for (int i = 1000; i < 3000; i++) {
+      cache.getObject(i);
+      cache.putObject(i, i);
+      cache.getObject(i % 50);
+    }
+    for (int i = 0; i < 50; i++) {
+      assertEquals(i, cache.getObject(i));
+    }
+  }
+
+  @Test
+  public void shouldCountMissFollowedByPutOnce() {
+    TinyLfuCache cache = new TinyLfuCache(new PerpetualCache("default"));
+    cache.setSize(100);
+    for (int i = 0; i < 100; i++) {
+      cache.putObject(i, i);
+    }
+    // keys missed and loaded once are not used more often than the cached ones
+    for (int i = 1000; i < 1100; i++) {
+      request(cache, i);
+    }
+    int hits = 0;
+    for (int i = 0; i < 99; i++) {
+      if (cache.getObject(i) != null) {
+        hits++;
+      }
+    }
+    // the sketch may overestimate a few keys
+    assertTrue("hits " + hits, hits > 90);
+  }
+
+  @Test
+  public void shouldHitMoreOftenThanLruOnSkewedTrace() {
+    Cache lfu = new TinyLfuCache(new PerpetualCache("default"));
+    Cache lru = new LruCache(new PerpetualCache("default"));
+    java.util.Random random = new java.util.Random(1);
+    int lfuHits = 0;
+    int lruHits = 0;
+    for (int i = 0; i < 200000; i++) {
+      // a quarter of the requests scan through keys that are never used again
+      int key = random.nextInt(4) == 0 ? 1000000 + i : (int) (Math.pow(random.nextDouble(), 3) * 20000);
+      lfuHits += request(lfu, key);
+      lruHits += request(lru, key);
+    }
+    assertTrue("TinyLFU " + lfuHits + " LRU " + lruHits, lfuHits > lruHits);
+  }
+
+  @Test
+  public void shouldRemoveItemOnDemand() {
+    Cache cache = new TinyLfuCache(new PerpetualCache("default"));
+    cache.putObject(0, 0);
+    assertNotNull(cache.getObject(0));
+    cache.removeObject(0);
+    assertNull(cache.getObject(0));
+  }
+
+  @Test
+  public void shouldFlushAllItemsOnDemand() {
+    Cache cache = new TinyLfuCache(new PerpetualCache("default"));
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, i);
+    }
+    assertNotNull(cache.getObject(0));
+    assertNotNull(cache.getObject(4));
+    cache.clear();
+    assertNull(cache.getObject(0));
+    assertNull(cache.getObject(4));
+  }
+
+  private static int request(Cache cache, int key) {
+    if (cache.getObject(key) != null) {
+      return 1;
+    }
+    cache.putObject(key, key);
+    return 0;
+  }
+
+}
@@ -0,0 +1,76 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.junit.Test;
+
+public class TransactionalCacheManagerTest {
+
+  @Test
+  public void shouldIncrementVersionsOfWrittenTablesOnCommit() {
+    TableVersions versions = new TableVersions();
+    TransactionalCacheManager tcm = new TransactionalCacheManager();
+    tcm.invalidate(versions, Arrays.asList("users", "orders"));
+    assertTrue(tcm.isInvalidated(new String[] { "items", "users" }));
+    assertFalse(tcm.isInvalidated(new String[] { "items" }));
+    assertEquals(0, versions.getVersion("users"));
+    tcm.commit();
+    assertEquals(1, versions.getVersion("users"));
+    assertEquals(1, versions.getVersion("orders"));
+    assertEquals(0, versions.getVersion("items"));
+    assertFalse(tcm.isInvalidated(new String[] { "users" }));
+  }
+
+  @Test
+  public void shouldForgetWrittenTablesOnRollback() {
+    TableVersions versions = new TableVersions();
+    TransactionalCacheManager tcm = new TransactionalCacheManager();
+    tcm.invalidate(versions, Arrays.asList("users"));
+    tcm.rollback();
+    tcm.commit();
+    assertEquals(0, versions.getVersion("users"));
+    assertFalse(tcm.isInvalidated(new String[] { "users" }));
+  }
+
+  @Test
+  public void shouldKeepEntriesOfOtherTables() {
+    Cache cache = new PerpetualCache("default");
+    TableVersions versions = new TableVersions();
+    TransactionalCacheManager tcm = new TransactionalCacheManager();
+    CacheKey usersKey = versionedKey("selectUsers", "users", versions);
+    CacheKey ordersKey = versionedKey("selectOrders", "orders", versions);
+    tcm.putObject(cache, usersKey, "users");
+    tcm.putObject(cache, ordersKey, "orders");
+    tcm.commit();
+    tcm.invalidate(versions, Arrays.asList("users"));
+    tcm.commit();
+    assertNull(tcm.getObject(cache, versionedKey("selectUsers", "users", versions)));
+    assertEquals("orders", tcm.getObject(cache, versionedKey("selectOrders", "orders", versions)));
+  }
+
+  private static CacheKey versionedKey(String statement, String table, TableVersions versions) {
+    CacheKey key = new CacheKey();
+    key.update(statement);
+    key.update(versions.getVersion(table));
+    return key;
+  }
+
+}
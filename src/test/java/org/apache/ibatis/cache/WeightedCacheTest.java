@@ -0,0 +1,143 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.ibatis.cache.decorators.WeightedCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class WeightedCacheTest {
+
+  @Test
+  public void shouldStayUnderMaxWeight() {
+    WeightedCache cache = new WeightedCache(new PerpetualCache("default"));
+    cache.setRowWeight(100);
+    cache.setMaxWeight(10000);
+    for (int i = 0; i < 100; i++) {
+      cache.putObject(i, rows(i % 20));
+      assertTrue(cache.getWeight() <= 10000);
+    }
+    assertNotNull(cache.getObject(99));
+  }
+
+  @Test
+  public void shouldRemoveLeastRecentlyUsedItemFirst() {
+    WeightedCache cache = new WeightedCache(new PerpetualCache("default"));
+    cache.setWeigher(RowCountWeigher.class.getName());
+    cache.setMaxWeight(30);
+    cache.putObject(0, rows(10));
+    cache.putObject(1, rows(10));
+    cache.putObject(2, rows(10));
+    assertNotNull(cache.getObject(0));
+    cache.putObject(3, rows(5));
+    assertNull(cache.getObject(1));
+    assertNotNull(cache.getObject(0));
+    assertEquals(25, cache.getWeight());
+  }
+
+  @Test
+  public void shouldNotKeepItemHeavierThanMaxWeight() {
+    WeightedCache cache = new WeightedCache(new PerpetualCache("default"));
+    cache.setWeigher(RowCountWeigher.class.getName());
+    cache.setMaxWeight(30);
+    cache.putObject(0, rows(10));
+    cache.putObject(1, rows(31));
+    assertNull(cache.getObject(1));
+    assertEquals(0, cache.getWeight());
+  }
+
+  @Test
+  public void shouldReplaceWeightOfUpdatedItem() {
+    WeightedCache cache = new WeightedCache(new PerpetualCache("default"));
+    cache.setWeigher(RowCountWeigher.class.getName());
+    cache.putObject(0, rows(10));
+    cache.putObject(0, rows(3));
+    assertEquals(3, cache.getWeight());
+    cache.removeObject(0);
+    assertEquals(0, cache.getWeight());
+  }
+
+  @Test
+  public void shouldWeighSerializedValuesOfReadWriteCacheByLength() {
+    Properties properties = new Properties();
+    properties.setProperty("maxWeight", "1000");
+    Cache cache = new CacheBuilder("default").implementation(PerpetualCache.class).addDecorator(WeightedCache.class)
+        .properties(properties).readWrite(true).build();
+    cache.putObject(0, new ArrayList<String>(Collections.nCopies(2, "row")));
+    cache.putObject(1, new ArrayList<String>(Collections.nCopies(2, "row")));
+    assertNotNull(cache.getObject(0));
+    assertNotNull(cache.getObject(1));
+    List<String> large = new ArrayList<String>();
+    for (int i = 0; i < 200; i++) {
+      large.add("row " + i);
+    }
+    cache.putObject(2, large);
+    assertNull(cache.getObject(2));
+  }
+
+  @Test
+  public void shouldWeighValuesByRowsOrBytes() {
+    Weigher weigher = new DefaultWeigher(100);
+    assertEquals(DefaultWeigher.ENTRY_OVERHEAD + 300, weigher.weigh(0, rows(3)));
+    assertEquals(DefaultWeigher.ENTRY_OVERHEAD + 10, weigher.weigh(0, new byte[10]));
+    assertEquals(DefaultWeigher.ENTRY_OVERHEAD + 100, weigher.weigh(0, "placeholder"));
+  }
+
+  @Test
+  public void shouldKeepWeigherWhenRowWeightIsSetAfterIt() {
+    WeightedCache cache = new WeightedCache(new PerpetualCache("default"));
+    cache.setWeigher(RowCountWeigher.class.getName());
+    cache.setRowWeight(100);
+    cache.putObject(0, rows(10));
+    assertEquals(10, cache.getWeight());
+  }
+
+  @Test(expected = CacheException.class)
+  public void shouldFailOnUnknownWeigher() {
+    new WeightedCache(new PerpetualCache("default")).setWeigher("com.example.NoSuchWeigher");
+  }
+
+  @Test
+  public void shouldFlushAllItemsOnDemand() {
+    WeightedCache cache = new WeightedCache(new PerpetualCache("default"));
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, i);
+    }
+    assertNotNull(cache.getObject(0));
+    cache.clear();
+    assertNull(cache.getObject(0));
+    assertEquals(0, cache.getWeight());
+  }
+
+  private static List<Object> rows(int count) {
+    return new ArrayList<Object>(Collections.nCopies(count, new Object()));
+  }
+
+  public static class RowCountWeigher implements Weigher {
+    @Override
+    public long weigh(Object key, Object value) {
+      return ((List<?>) value).size();
+    }
+  }
+
+}
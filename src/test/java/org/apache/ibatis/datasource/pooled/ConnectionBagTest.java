@@ -0,0 +1,125 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+
+import org.junit.Test;
+
+public class ConnectionBagTest {
+
+  private final PooledDataSource dataSource = new PooledDataSource();
+
+  @Test
+  public void shouldGiveTheReturningThreadItsConnectionBack() {
+    ConnectionBag bag = new ConnectionBag();
+    PooledConnection first = newConnection(fakeConnection());
+    PooledConnection second = newConnection(fakeConnection());
+    bag.offer(first);
+    bag.offer(second);
+    assertSame(second, bag.poll());
+    assertSame(first, bag.poll());
+    assertNull(bag.poll());
+    assertEquals(0, bag.getIdleCount());
+  }
+
+  @Test
+  public void shouldNotAccumulateConnectionsClaimedByTheReturningThread() {
+    ConnectionBag bag = new ConnectionBag();
+    Connection real = fakeConnection();
+    for (int i = 0; i < 1000; i++) {
+      // the pool wraps the physical connection again each time it is returned
+      bag.offer(newConnection(real));
+      assertNotNull(bag.poll());
+    }
+    assertTrue(bag.getIdleConnections().isEmpty());
+    assertEquals(0, bag.getIdleCount());
+  }
+
+  @Test
+  public void shouldHandConnectionsToWaitingThreads() throws Exception {
+    final ConnectionBag bag = new ConnectionBag();
+    final PooledConnection[] received = new PooledConnection[1];
+    Thread waiter = new Thread() {
+      @Override
+      public void run() {
+        try {
+          received[0] = bag.poll(5000);
+        } catch (InterruptedException e) {
+          // fails below
+        }
+      }
+    };
+    waiter.start();
+    while (!bag.hasWaiters()) {
+      Thread.sleep(1);
+    }
+    PooledConnection conn = newConnection(fakeConnection());
+    bag.offer(conn);
+    waiter.join(5000);
+    assertSame(conn, received[0]);
+  }
+
+  @Test
+  public void shouldNotLetNewcomersTakeConnectionsAheadOfWaitingThreads() throws Exception {
+    final ConnectionBag bag = new ConnectionBag();
+    final PooledConnection[] received = new PooledConnection[1];
+    Thread waiter = new Thread() {
+      @Override
+      public void run() {
+        try {
+          received[0] = bag.poll(5000);
+        } catch (InterruptedException e) {
+          // fails below
+        }
+      }
+    };
+    waiter.start();
+    while (!bag.hasWaiters()) {
+      Thread.sleep(1);
+    }
+    PooledConnection conn = newConnection(fakeConnection());
+    bag.offer(conn);
+    assertNull(bag.poll());
+    waiter.join(5000);
+    assertSame(conn, received[0]);
+  }
+
+  private PooledConnection newConnection(Connection real) {
+    return new PooledConnection(real, dataSource);
+  }
+
+  private static Connection fakeConnection() {
+    return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+        new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            if ("hashCode".equals(method.getName())) {
+              return System.identityHashCode(proxy);
+            } else if ("equals".equals(method.getName())) {
+              return proxy == args[0];
+            }
+            return null;
+          }
+        });
+  }
+
+}
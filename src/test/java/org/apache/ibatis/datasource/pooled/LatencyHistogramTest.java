@@ -0,0 +1,59 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void shouldReportZeroWhenEmpty() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getPercentile(99));
+    assertEquals(0, histogram.getMaximum());
+  }
+
+  @Test
+  public void shouldReportSmallValuesExactly() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 10; i++) {
+      histogram.record(i);
+    }
+    assertEquals(10, histogram.getCount());
+    assertEquals(5, histogram.getPercentile(50));
+    assertEquals(10, histogram.getPercentile(100));
+    assertEquals(10, histogram.getMaximum());
+  }
+
+  @Test
+  public void shouldReportLargeValuesWithinBucketPrecision() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 0; i < 99; i++) {
+      histogram.record(20);
+    }
+    histogram.record(5000);
+    long median = histogram.getPercentile(50);
+    assertTrue(median >= 20 && median <= 20 * 1.125);
+    long p99 = histogram.getPercentile(99);
+    assertTrue(p99 >= 20 && p99 <= 20 * 1.125);
+    assertEquals(5000, histogram.getPercentile(100));
+    assertEquals(5000, histogram.getMaximum());
+  }
+
+}
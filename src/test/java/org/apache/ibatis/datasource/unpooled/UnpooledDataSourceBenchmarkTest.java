@@ -0,0 +1,113 @@
+/**
+ *    Copyright 2009-2026 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.unpooled;
+
+import static org.junit.Assert.*;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.ibatis.test.SlowTests;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Compares the connect throughput of the cached driver with DriverManager under concurrency.
+ * Run with <code>mvn test -Dtest=UnpooledDataSourceBenchmarkTest -Dmaven.surefire.excludeGroups=</code>.
+ */
+@Category(SlowTests.class)
+public class UnpooledDataSourceBenchmarkTest {
+
+  private static final String DRIVER = "org.hsqldb.jdbcDriver";
+  private static final String URL = "jdbc:hsqldb:mem:connectbenchmark";
+  private static final int THREADS = 8;
+  private static final int CONNECTS = 20000;
+
+  @Test
+  public void compareConnectThroughputWithDriverManager() throws Exception {
+    final UnpooledDataSource dataSource = new UnpooledDataSource(DRIVER, URL, "sa", "");
+    final Properties properties = new Properties();
+    properties.setProperty("user", "sa");
+    properties.setProperty("password", "");
+    Connector cachedDriver = new Connector() {
+      @Override
+      public Connection connect() throws SQLException {
+        return dataSource.getConnection();
+      }
+    };
+    Connector driverManager = new Connector() {
+      @Override
+      public Connection connect() throws SQLException {
+        return DriverManager.getConnection(URL, properties);
+      }
+    };
+    // 预热，并保持内存数据库在测试期间不被关闭
+    Connection keepAlive = dataSource.getConnection();
+    try {
+      measure(cachedDriver);
+      measure(driverManager);
+      double cachedDriverRate = measure(cachedDriver);
+      double driverManagerRate = measure(driverManager);
+      System.out.println(String.format("connects/s with %d threads: cached driver %.0f, DriverManager %.0f",
+          THREADS, cachedDriverRate, driverManagerRate));
+      assertTrue(cachedDriverRate > 0 && driverManagerRate > 0);
+    } finally {
+      keepAlive.close();
+    }
+  }
+
+  private double measure(final Connector connector) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try {
+      final CountDownLatch start = new CountDownLatch(1);
+      List<Future<Void>> futures = new ArrayList<Future<Void>>();
+      for (int t = 0; t < THREADS; t++) {
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            start.await();
+            for (int i = 0; i < CONNECTS / THREADS; i++) {
+              connector.connect().close();
+            }
+            return null;
+          }
+        }));
+      }
+      long begin = System.nanoTime();
+      start.countDown();
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+      return CONNECTS * 1e9 / (System.nanoTime() - begin);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private interface Connector {
+    Connection connect() throws SQLException;
+  }
+
+}
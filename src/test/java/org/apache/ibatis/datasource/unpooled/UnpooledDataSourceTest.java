@@ -21,6 +21,7 @@ import java.net.URL;
 import java.net.URLClassLoader;
 import java.sql.Driver;
 import java.sql.DriverManager;
+import java.sql.SQLException;
 import java.util.Enumeration;
 
 import org.junit.Ignore;
@@ -40,6 +41,19 @@ public class UnpooledDataSourceTest {
     assertEquals(before, countRegisteredDrivers());
   }
 
+  @Test
+  public void shouldResolveDriverAgainWhenUrlChanges() throws Exception {
+    UnpooledDataSource dataSource = new UnpooledDataSource("org.hsqldb.jdbcDriver", "jdbc:hsqldb:mem:cacheddriver", "sa", "");
+    dataSource.getConnection().close();
+    dataSource.setUrl("jdbc:unknown:cacheddriver");
+    try {
+      dataSource.getConnection();
+      fail("No driver should accept the url.");
+    } catch (SQLException e) {
+      // expected
+    }
+  }
+
   @Ignore("Requires MySQL server and a driver.")
   @Test
   public void shouldRegisterDynamicallyLoadedDriver() throws Exception {
@@ -0,0 +1,68 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class BoundedLocalCacheTest {
+
+  @Test
+  public void shouldEvictLeastRecentlyUsedEntriesOnTrim() {
+    BoundedLocalCache cache = new BoundedLocalCache("local", 2, 0);
+    cache.putObject("a", "a");
+    cache.putObject("b", "b");
+    cache.putObject("c", "c");
+    // nothing is evicted until the statement has finished
+    assertEquals(3, cache.getSize());
+    cache.getObject("a");
+    assertEquals(1, cache.trim());
+    assertEquals(2, cache.getSize());
+    assertNotNull(cache.getObject("a"));
+    assertNull(cache.getObject("b"));
+    assertNotNull(cache.getObject("c"));
+    assertEquals(1, cache.getEvictionCount());
+  }
+
+  @Test
+  public void shouldEvictByEstimatedBytes() {
+    BoundedLocalCache cache = new BoundedLocalCache("local", 0, 4096);
+    cache.putObject("small", Arrays.asList(1, 2));
+    cache.putObject("large", Arrays.asList(1, 2, 3, 4, 5, 6, 7));
+    assertEquals(1, cache.trim());
+    assertNull(cache.getObject("small"));
+    assertNotNull(cache.getObject("large"));
+    assertTrue(cache.getWeight() <= 4096);
+  }
+
+  @Test
+  public void shouldForgetWeightsOfRemovedEntries() {
+    BoundedLocalCache cache = new BoundedLocalCache("local", 0, 1024);
+    cache.putObject("a", Arrays.asList(1));
+    cache.putObject("a", Arrays.asList(1));
+    cache.removeObject("a");
+    assertEquals(0, cache.getWeight());
+    cache.putObject("b", Arrays.asList(1));
+    cache.clear();
+    assertEquals(0, cache.getWeight());
+    assertEquals(0, cache.trim());
+    assertEquals(0, cache.getEvictionCount());
+  }
+
+}
@@ -0,0 +1,314 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import static org.junit.Assert.*;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.decorators.BlockingCache;
+import org.apache.ibatis.cache.decorators.PutTimeCache;
+import org.apache.ibatis.cache.decorators.RefreshAheadCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.CacheInvalidation;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.LocalCacheScope;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.defaults.DefaultSqlSession;
+import org.apache.ibatis.transaction.jdbc.JdbcTransaction;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CachingExecutorTest {
+
+  private Configuration configuration;
+  private CountingExecutor database;
+  private CachingExecutor executor;
+  private MappedStatement selectUsers;
+  private MappedStatement selectOrders;
+  private MappedStatement updateUsers;
+
+  @Before
+  public void setup() {
+    configuration = new Configuration();
+    configuration.setLocalCacheScope(LocalCacheScope.STATEMENT);
+    Cache cache = new PerpetualCache("shop");
+    configuration.addCache(cache);
+    selectUsers = select("selectUsers", "select * from app.users", cache);
+    selectOrders = select("selectOrders", "select * from orders", cache);
+    updateUsers = new MappedStatement.Builder(configuration, "updateUsers",
+        new StaticSqlSource(configuration, "update users set name = 'jim'"), SqlCommandType.UPDATE)
+        .cache(cache).flushCacheRequired(true).build();
+    database = new CountingExecutor(configuration);
+    executor = new CachingExecutor(database);
+  }
+
+  @Test
+  public void shouldLookUpEntriesOfNewTableVersionAfterWriteCommitted() throws Exception {
+    configuration.setCacheInvalidation(CacheInvalidation.TABLE);
+    query(selectUsers);
+    executor.commit(true);
+    query(selectUsers);
+    assertEquals(1, database.queries);
+
+    executor.update(updateUsers, null);
+    executor.commit(true);
+    assertEquals(1, configuration.getTableVersions().getVersion("users"));
+    query(selectUsers);
+    assertEquals(2, database.queries);
+    executor.commit(true);
+    query(selectUsers);
+    assertEquals(2, database.queries);
+  }
+
+  @Test
+  public void shouldNotUseCacheForTablesWrittenInTransaction() throws Exception {
+    configuration.setCacheInvalidation(CacheInvalidation.TABLE);
+    query(selectUsers);
+    executor.commit(true);
+    executor.update(updateUsers, null);
+    query(selectUsers);
+    query(selectUsers);
+    assertEquals(3, database.queries);
+    executor.rollback(true);
+    query(selectUsers);
+    assertEquals(3, database.queries);
+  }
+
+  @Test
+  public void shouldKeepEntriesOfOtherTables() throws Exception {
+    configuration.setCacheInvalidation(CacheInvalidation.TABLE);
+    query(selectUsers);
+    query(selectOrders);
+    executor.commit(true);
+    executor.update(updateUsers, null);
+    query(selectOrders);
+    executor.commit(true);
+    query(selectOrders);
+    assertEquals(2, database.queries);
+  }
+
+  @Test
+  public void shouldInvalidateOnlyTheKeyOfKeyedUpdate() throws Exception {
+    Cache cache = configuration.getCache("shop");
+    List<ParameterMapping> id = Collections.singletonList(
+        new ParameterMapping.Builder(configuration, "id", Object.class).build());
+    configuration.addMappedStatement(new MappedStatement.Builder(configuration, "selectUser",
+        new StaticSqlSource(configuration, "select * from users where id = ?", id), SqlCommandType.SELECT)
+        .cache(cache).useCache(true).invalidationKey("#{id}").build());
+    configuration.addMappedStatement(new MappedStatement.Builder(configuration, "selectAll",
+        new StaticSqlSource(configuration, "select * from users"), SqlCommandType.SELECT)
+        .cache(cache).useCache(true).build());
+    configuration.addMappedStatement(new MappedStatement.Builder(configuration, "updateUser",
+        new StaticSqlSource(configuration, "update users set name = ? where id = ?"), SqlCommandType.UPDATE)
+        .cache(cache).flushCacheRequired(true).invalidationKey("#{id}").build());
+    SqlSession session = new DefaultSqlSession(configuration, executor);
+    session.selectList("selectUser", 1);
+    session.selectList("selectUser", 2);
+    session.selectList("selectAll");
+    session.commit();
+    session.selectList("selectUser", 1);
+    session.selectList("selectUser", 2);
+    session.selectList("selectAll");
+    assertEquals(3, database.queries);
+
+    Map<String, Object> user = new HashMap<String, Object>();
+    user.put("id", 1L);
+    user.put("name", "jim");
+    session.update("updateUser", user);
+    // the Integer id of the select matches the Long id of the update
+    session.selectList("selectUser", 1);
+    assertEquals(4, database.queries);
+    session.commit();
+    session.selectList("selectUser", 1);
+    session.selectList("selectUser", 2);
+    session.selectList("selectAll");
+    assertEquals(6, database.queries);
+  }
+
+  @Test
+  public void shouldReportLocalCacheEvictionsThroughSqlSession() throws Exception {
+    configuration.setLocalCacheScope(LocalCacheScope.SESSION);
+    configuration.setLocalCacheSize(1);
+    List<ParameterMapping> id = Collections.singletonList(
+        new ParameterMapping.Builder(configuration, "id", Object.class).build());
+    configuration.addMappedStatement(new MappedStatement.Builder(configuration, "selectLocal",
+        new StaticSqlSource(configuration, "select * from users where id = ?", id), SqlCommandType.SELECT).build());
+    CountingExecutor local = new CountingExecutor(configuration);
+    SqlSession session = new DefaultSqlSession(configuration, new CachingExecutor(local));
+    session.selectList("selectLocal", 1);
+    session.selectList("selectLocal", 1);
+    assertEquals(0, session.getLocalCacheEvictionCount());
+    session.selectList("selectLocal", 2);
+    session.selectList("selectLocal", 1);
+    assertEquals(3, local.queries);
+    assertEquals(2, session.getLocalCacheEvictionCount());
+  }
+
+  @Test(timeout = 10000)
+  public void shouldFailWaitersOfBlockingCacheWhenQueryFails() throws Exception {
+    final MappedStatement selectBlocking = select("selectBlocking", "select * from users",
+        new BlockingCache(new PerpetualCache("blocking")));
+    final CountingExecutor failing = new CountingExecutor(configuration);
+    failing.failAfter = 300;
+    ExecutorService threads = Executors.newSingleThreadExecutor();
+    try {
+      Future<Object> loader = threads.submit(new Callable<Object>() {
+        @Override
+        public Object call() throws Exception {
+          return new CachingExecutor(failing).query(selectBlocking, null, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+        }
+      });
+      Thread.sleep(100);
+      try {
+        executor.query(selectBlocking, null, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+        fail();
+      } catch (CacheException e) {
+        assertTrue(e.getCause() instanceof IllegalStateException);
+      }
+      assertEquals(0, database.queries);
+      try {
+        loader.get(5, TimeUnit.SECONDS);
+        fail();
+      } catch (java.util.concurrent.ExecutionException e) {
+        assertTrue(e.getCause() instanceof IllegalStateException);
+      }
+    } finally {
+      threads.shutdownNow();
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void shouldApplyPluginsToRefreshQueries() throws Exception {
+    configuration.setEnvironment(new Environment("refresh", new JdbcTransactionFactory(), new UnpooledDataSource()));
+    configuration.addInterceptor(new RefreshedResultPlugin());
+    PutTimeCache putTimes = new PutTimeCache(new PerpetualCache("refreshed"));
+    RefreshAheadCache cache = new RefreshAheadCache(putTimes, putTimes);
+    cache.setRefreshInterval(1);
+    MappedStatement selectRefreshed = select("selectRefreshed", "select * from users", cache);
+    query(selectRefreshed);
+    executor.commit(true);
+    Thread.sleep(10);
+    assertEquals(Collections.singletonList("selectRefreshed1"), query(selectRefreshed));
+    while (!Collections.singletonList("refreshed").equals(query(selectRefreshed))) {
+      Thread.sleep(10);
+    }
+    assertEquals(1, database.queries);
+  }
+
+  private MappedStatement select(String id, String sql, Cache cache) {
+    return new MappedStatement.Builder(configuration, id, new StaticSqlSource(configuration, sql), SqlCommandType.SELECT)
+        .cache(cache).useCache(true).build();
+  }
+
+  private List<Object> query(MappedStatement ms) throws SQLException {
+    return executor.query(ms, null, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+  }
+
+  @Intercepts({ @Signature(type = Executor.class, method = "query",
+      args = { MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class, BoundSql.class }) })
+  public static class RefreshedResultPlugin implements Interceptor {
+
+    @Override
+    public Object intercept(Invocation invocation) {
+      return Collections.singletonList("refreshed");
+    }
+
+    @Override
+    public Object plugin(Object target) {
+      return Plugin.wrap(target, this);
+    }
+
+    @Override
+    public void setProperties(Properties properties) {
+    }
+
+  }
+
+  private static class CountingExecutor extends BaseExecutor {
+
+    private int queries;
+    // fails each query after that many milliseconds if positive
+    private long failAfter;
+
+    CountingExecutor(Configuration configuration) {
+      super(configuration, new JdbcTransaction((Connection) null));
+    }
+
+    @Override
+    protected int doUpdate(MappedStatement ms, Object parameter) {
+      return 1;
+    }
+
+    @Override
+    protected List<BatchResult> doFlushStatements(boolean isRollback) {
+      return Collections.emptyList();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected <E> List<E> doQuery(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler,
+        BoundSql boundSql) {
+      if (failAfter > 0) {
+        try {
+          Thread.sleep(failAfter);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        throw new IllegalStateException("query failed");
+      }
+      queries++;
+      return (List<E>) Collections.singletonList(ms.getId() + queries);
+    }
+
+    @Override
+    protected <E> Cursor<E> doQueryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds, BoundSql boundSql) {
+      throw new UnsupportedOperationException();
+    }
+
+  }
+
+}
@@ -17,17 +17,29 @@ package org.apache.ibatis.jdbc;
 
 import static org.junit.Assert.*;
 
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.apache.ibatis.BaseDataTest;
 import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.datasource.pooled.PooledDataSourceFactory;
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.apache.ibatis.io.Resources;
 import org.hsqldb.jdbc.JDBCConnection;
 import org.junit.Ignore;
 import org.junit.Test;
@@ -75,6 +87,410 @@ public class PooledDataSourceTest extends BaseDataTest {
     }
   }
 
+  @Test
+  public void shouldProperlyMaintainPoolInConcurrentMode() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolConcurrent(true);
+      ds.setPoolMaximumActiveConnections(3);
+      ds.setPoolMaximumIdleConnections(2);
+      List<Connection> connections = new ArrayList<Connection>();
+      for (int i = 0; i < 3; i++) {
+        connections.add(ds.getConnection());
+      }
+      assertEquals(3, ds.getPoolState().getActiveConnectionCount());
+      for (Connection c : connections) {
+        c.close();
+      }
+      assertEquals(0, ds.getPoolState().getActiveConnectionCount());
+      assertEquals(2, ds.getPoolState().getIdleConnectionCount());
+      assertEquals(3, ds.getPoolState().getRequestCount());
+      assertEquals(0, ds.getPoolState().getBadConnectionCount());
+      assertEquals(0, ds.getPoolState().getHadToWaitCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldHandOutConnectionsToManyThreadsInConcurrentMode() throws Exception {
+    final PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolConcurrent(true);
+      ds.setPoolMaximumActiveConnections(3);
+      ds.setPoolMaximumIdleConnections(3);
+      ds.setPoolTimeToWait(100);
+      final AtomicInteger failures = new AtomicInteger();
+      Thread[] threads = new Thread[8];
+      for (int i = 0; i < threads.length; i++) {
+        threads[i] = new Thread() {
+          @Override
+          public void run() {
+            for (int j = 0; j < 100; j++) {
+              try {
+                Connection c = ds.getConnection();
+                assertTrue(ds.getPoolState().getActiveConnectionCount() <= 3);
+                c.close();
+              } catch (Throwable e) {
+                failures.incrementAndGet();
+              }
+            }
+          }
+        };
+        threads[i].start();
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      assertEquals(0, failures.get());
+      assertEquals(800, ds.getPoolState().getRequestCount());
+      assertEquals(0, ds.getPoolState().getActiveConnectionCount());
+      assertTrue(ds.getPoolState().getIdleConnectionCount() <= 3);
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldHandReturnedConnectionToWaitingCaller() throws Exception {
+    final PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolMaximumActiveConnections(1);
+      ds.setPoolTimeToWait(10000);
+      Connection c = ds.getConnection();
+      final List<Connection> received = new ArrayList<Connection>();
+      Thread waiter = new Thread() {
+        @Override
+        public void run() {
+          try {
+            received.add(ds.getConnection());
+          } catch (SQLException e) {
+            // received stays empty
+          }
+        }
+      };
+      waiter.start();
+      Thread.sleep(200);
+      c.close();
+      waiter.join(5000);
+      assertEquals(1, received.size());
+      assertEquals(1, ds.getPoolState().getHandoffCount());
+      assertEquals(1, ds.getPoolState().getHadToWaitCount());
+      assertEquals(0, ds.getPoolState().getIdleConnectionCount());
+      received.get(0).close();
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldFailCheckoutAfterMaximumWaitTime() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolMaximumActiveConnections(1);
+      ds.setPoolTimeToWait(50);
+      ds.setPoolMaximumWaitTime(300);
+      Connection c = ds.getConnection();
+      long start = System.currentTimeMillis();
+      try {
+        ds.getConnection();
+        fail("Checkout should have timed out.");
+      } catch (SQLException e) {
+        assertTrue(System.currentTimeMillis() - start >= 300);
+      }
+      assertEquals(1, ds.getPoolState().getTimeoutCount());
+      c.close();
+      assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldPublishPoolStateThroughJmx() throws Exception {
+    Properties props = Resources.getResourceAsProperties(JPETSTORE_PROPERTIES);
+    props.setProperty("poolJmxEnabled", "true");
+    PooledDataSourceFactory factory = new PooledDataSourceFactory();
+    factory.setProperties(props);
+    PooledDataSource ds = (PooledDataSource) factory.getDataSource();
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName("org.apache.ibatis.datasource.pooled:type=PooledDataSource,id="
+        + Integer.toHexString(System.identityHashCode(ds)));
+    try {
+      Connection c = ds.getConnection();
+      Thread.sleep(20);
+      c.close();
+      assertEquals(1L, server.getAttribute(name, "RequestCount"));
+      assertEquals(0, server.getAttribute(name, "ActiveConnectionCount"));
+      assertEquals(1, server.getAttribute(name, "IdleConnectionCount"));
+      assertEquals(0, server.getAttribute(name, "WaitingCount"));
+      assertTrue((Long) server.getAttribute(name, "MaximumCheckoutTime") >= 20);
+      assertTrue((Long) server.getAttribute(name, "CheckoutTime99thPercentile") >= 20);
+      // reconfiguring the pool keeps it published
+      ds.setPoolMaximumActiveConnections(5);
+      assertTrue(server.isRegistered(name));
+    } finally {
+      ds.close();
+    }
+    assertFalse(server.isRegistered(name));
+  }
+
+  @Test
+  public void shouldReportConnectionHeldBeyondLeakDetectionThreshold() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolLeakDetectionSampling(1);
+      ds.setPoolLeakDetectionThreshold(100);
+      Connection returned = ds.getConnection();
+      returned.close();
+      Connection leaked = ds.getConnection();
+      Thread.sleep(500);
+      assertEquals(1, ds.getPoolState().getSuspectedLeakCount());
+      leaked.close();
+    } finally {
+      ds.setPoolLeakDetectionThreshold(0);
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldReusePreparedStatementsAcrossCheckouts() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolPreparedStatementCacheSize(1);
+      for (int i = 0; i < 3; i++) {
+        Connection c = ds.getConnection();
+        PreparedStatement st = c.prepareStatement("SELECT 1 FROM (VALUES(0))");
+        assertSame(c, st.getConnection());
+        ResultSet rs = st.executeQuery();
+        assertTrue(rs.next());
+        assertEquals(1, rs.getInt(1));
+        rs.close();
+        st.close();
+        assertTrue(st.isClosed());
+        c.close();
+      }
+      assertEquals(2, ds.getPoolState().getStatementCacheHitCount());
+      assertEquals(1, ds.getPoolState().getStatementCacheMissCount());
+
+      Connection c = ds.getConnection();
+      c.prepareStatement("SELECT 2 FROM (VALUES(0))").close();
+      c.prepareStatement("SELECT 1 FROM (VALUES(0))").close();
+      c.close();
+      assertEquals(2, ds.getPoolState().getStatementCacheHitCount());
+      assertEquals(3, ds.getPoolState().getStatementCacheMissCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldCloseOpenResultSetWhenCachedStatementIsClosed() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolPreparedStatementCacheSize(1);
+      Connection c = ds.getConnection();
+      PreparedStatement st = c.prepareStatement("SELECT 1 FROM (VALUES(0))");
+      ResultSet rs = st.executeQuery();
+      st.close();
+      assertTrue(rs.isClosed());
+      st = c.prepareStatement("SELECT 1 FROM (VALUES(0))");
+      rs = st.executeQuery();
+      assertTrue(rs.next());
+      st.close();
+      c.close();
+      assertEquals(1, ds.getPoolState().getStatementCacheHitCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldRestoreOrDiscardCachedStatementSettings() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolPreparedStatementCacheSize(1);
+      Connection c = ds.getConnection();
+      PreparedStatement st = c.prepareStatement("SELECT 1 FROM (VALUES(0))");
+      int fetchDirection = st.getFetchDirection();
+      int maxFieldSize = st.getMaxFieldSize();
+      st.setFetchDirection(ResultSet.FETCH_REVERSE);
+      st.setMaxFieldSize(maxFieldSize + 16);
+      st.close();
+      st = c.prepareStatement("SELECT 1 FROM (VALUES(0))");
+      assertEquals(fetchDirection, st.getFetchDirection());
+      assertEquals(maxFieldSize, st.getMaxFieldSize());
+      st.setEscapeProcessing(false);
+      st.close();
+      c.prepareStatement("SELECT 1 FROM (VALUES(0))").close();
+      c.close();
+      assertEquals(1, ds.getPoolState().getStatementCacheHitCount());
+      assertEquals(2, ds.getPoolState().getStatementCacheMissCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldOnlyCallDriverForActualConnectionStateChanges() throws Exception {
+    final Properties props = Resources.getResourceAsProperties(JPETSTORE_PROPERTIES);
+    final List<String> driverCalls = new ArrayList<String>();
+    UnpooledDataSource unpooled = new UnpooledDataSource(props.getProperty("driver"), props.getProperty("url"),
+        props.getProperty("username"), props.getProperty("password")) {
+      @Override
+      public Connection getConnection() throws SQLException {
+        final Connection connection = super.getConnection();
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class },
+            new InvocationHandler() {
+              @Override
+              public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                driverCalls.add(method.getName());
+                return method.invoke(connection, args);
+              }
+            });
+      }
+    };
+    PooledDataSource ds = new PooledDataSource(unpooled);
+    try {
+      Connection c = ds.getConnection();
+      boolean autoCommit = c.getAutoCommit();
+      c.setAutoCommit(!autoCommit);
+      c.setAutoCommit(autoCommit);
+      c.setReadOnly(false);
+      c.setReadOnly(false);
+      c.commit();
+      c.close();
+      assertEquals(0, Collections.frequency(driverCalls, "setAutoCommit"));
+      assertEquals(1, Collections.frequency(driverCalls, "setReadOnly"));
+      assertEquals(0, Collections.frequency(driverCalls, "commit"));
+      assertEquals(0, Collections.frequency(driverCalls, "rollback"));
+
+      c = ds.getConnection();
+      c.setAutoCommit(false);
+      c.prepareStatement("SELECT 1 FROM (VALUES(0))").close();
+      c.close();
+      assertEquals(1, Collections.frequency(driverCalls, "setAutoCommit"));
+      assertEquals(1, Collections.frequency(driverCalls, "rollback"));
+
+      c = ds.getConnection();
+      c.setAutoCommit(false);
+      PreparedStatement st = c.prepareStatement("SELECT 1 FROM (VALUES(0))");
+      st.executeQuery().close();
+      st.close();
+      c.commit();
+      c.close();
+      assertEquals(2, Collections.frequency(driverCalls, "setAutoCommit"));
+      assertEquals(1, Collections.frequency(driverCalls, "commit"));
+      assertEquals(1, Collections.frequency(driverCalls, "rollback"));
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldRollBackWorkOfStatementReusedAcrossCommit() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      Connection c = ds.getConnection();
+      c.createStatement().execute("CREATE TABLE reused_statement (id INT)");
+      c.setAutoCommit(false);
+      PreparedStatement insert = c.prepareStatement("INSERT INTO reused_statement VALUES (?)");
+      insert.setInt(1, 1);
+      insert.executeUpdate();
+      c.commit();
+      insert.setInt(1, 2);
+      insert.executeUpdate();
+      c.rollback();
+      insert.setInt(1, 3);
+      insert.executeUpdate();
+      insert.getConnection().createStatement().executeUpdate("INSERT INTO reused_statement VALUES (4)");
+      c.close();
+
+      c = ds.getConnection();
+      c.setAutoCommit(true);
+      ResultSet rs = c.createStatement().executeQuery("SELECT COUNT(*) FROM reused_statement");
+      assertTrue(rs.next());
+      assertEquals(1, rs.getInt(1));
+      rs.close();
+      c.createStatement().execute("DROP TABLE reused_statement");
+      c.close();
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldKeepMinimumIdleConnectionsOpen() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolMinimumIdleConnections(3);
+      ds.setPoolMaintenanceInterval(50);
+      Thread.sleep(500);
+      assertEquals(3, ds.getPoolState().getIdleConnectionCount());
+      ds.setPoolConcurrent(true);
+      Thread.sleep(500);
+      assertEquals(3, ds.getPoolState().getIdleConnectionCount());
+    } finally {
+      ds.setPoolMaintenanceInterval(0);
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldRetireConnectionsOlderThanMaximumLifetime() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolMaximumConnectionLifetime(200);
+      ds.setPoolMaintenanceInterval(50);
+      Connection c = ds.getConnection();
+      Connection realConnection = PooledDataSource.unwrapConnection(c);
+      c.close();
+      assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+      Thread.sleep(500);
+      assertEquals(0, ds.getPoolState().getIdleConnectionCount());
+      assertTrue(realConnection.isClosed());
+    } finally {
+      ds.setPoolMaintenanceInterval(0);
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldPrewarmPool() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolMaximumIdleConnections(4);
+      ds.setPoolPrewarmConnections(6);
+      assertEquals(4, ds.prewarm());
+      assertEquals(4, ds.getPoolState().getIdleConnectionCount());
+      ds.setPoolConcurrent(true);
+      assertEquals(4, ds.prewarm());
+      assertEquals(4, ds.getPoolState().getIdleConnectionCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldPingWithIsValidWithoutPingQuery() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolPingEnabled(true);
+      ds.setPoolPingUseIsValid(true);
+      ds.setPoolPingConnectionsNotUsedFor(0);
+      Connection c = ds.getConnection();
+      Connection realConnection = PooledDataSource.unwrapConnection(c);
+      c.close();
+      Thread.sleep(10);
+      c = ds.getConnection();
+      assertSame(realConnection, PooledDataSource.unwrapConnection(c));
+      c.close();
+      assertEquals(0, ds.getPoolState().getBadConnectionCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
   @Test
   public void shouldNotFailCallingToStringOverAnInvalidConnection() throws Exception {
     PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
@@ -18,11 +18,21 @@ package org.apache.ibatis.mapping;
 import org.apache.ibatis.builder.InitializingObject;
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.decorators.ConcurrentLruCache;
+import org.apache.ibatis.cache.decorators.LoggingCache;
+import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.decorators.ScheduledCache;
+import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.cache.decorators.SoftCache;
+import org.apache.ibatis.cache.decorators.SynchronizedCache;
+import org.apache.ibatis.cache.impl.ConcurrentCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.cache.serializer.CompactSerializer;
 import org.assertj.core.api.Assertions;
 import org.junit.Test;
 
 import java.lang.reflect.Field;
+import java.util.Properties;
 
 import static com.googlecode.catchexception.apis.BDDCatchException.*;
 import static org.assertj.core.api.BDDAssertions.then;
@@ -43,6 +53,42 @@ public class CacheBuilderTest {
       .hasMessage("Failed cache initialization for 'test' on 'org.apache.ibatis.mapping.CacheBuilderTest$InitializingFailureCache'");
   }
 
+  @Test
+  public void testConcurrentCacheIsNotSynchronized() throws Exception {
+    Cache cache = new CacheBuilder("test").implementation(ConcurrentCache.class).addDecorator(LruCache.class).build();
+
+    Assertions.assertThat(cache).isInstanceOf(LoggingCache.class);
+    Assertions.assertThat((Object) unwrap(cache)).isInstanceOf(ConcurrentLruCache.class);
+  }
+
+  @Test
+  public void testConcurrentCacheIsSynchronizedBehindUnsafeDecorator() throws Exception {
+    Cache cache = new CacheBuilder("test").implementation(ConcurrentCache.class).addDecorator(SoftCache.class).build();
+
+    Assertions.assertThat(cache).isInstanceOf(SynchronizedCache.class);
+  }
+
+  @Test
+  public void testScheduledCacheIsBelowEvictionDecorator() throws Exception {
+    Cache cache = new CacheBuilder("test").addDecorator(LruCache.class).clearInterval(60000L).build();
+
+    Cache eviction = unwrap(unwrap(cache));
+    Assertions.assertThat(eviction).isInstanceOf(LruCache.class);
+    Assertions.assertThat((Object) unwrap(eviction)).isInstanceOf(ScheduledCache.class);
+  }
+
+  @Test
+  public void testSerializerProperty() throws Exception {
+    Properties properties = new Properties();
+    properties.setProperty("serializer", CompactSerializer.class.getName());
+    Cache cache = new CacheBuilder("test").readWrite(true).properties(properties).build();
+
+    SerializedCache serializedCache = unwrap(unwrap(cache));
+    Assertions.assertThat(serializedCache.getSerializerName()).isEqualTo(CompactSerializer.class.getName());
+    cache.putObject("key", "value");
+    Assertions.assertThat(cache.getObject("key")).isEqualTo("value");
+  }
+
   @SuppressWarnings("unchecked")
   private <T> T unwrap(Cache cache){
     Field field;
@@ -0,0 +1,57 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.mapping;
+
+import static org.junit.Assert.*;
+
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.session.Configuration;
+import org.junit.Test;
+
+public class MappedStatementTest {
+
+  @Test
+  public void shouldParseInvalidationKey() {
+    Configuration configuration = new Configuration();
+    MappedStatement ms = new MappedStatement.Builder(configuration, "update", new StaticSqlSource(configuration, "update users"), SqlCommandType.UPDATE)
+        .invalidationKey("#{tenant}, #{id,jdbcType=BIGINT}")
+        .build();
+    assertArrayEquals(new String[] { "tenant", "id" }, ms.getInvalidationKey());
+  }
+
+  @Test
+  public void shouldHaveNoInvalidationKeyByDefault() {
+    Configuration configuration = new Configuration();
+    MappedStatement ms = new MappedStatement.Builder(configuration, "update", new StaticSqlSource(configuration, "update users"), SqlCommandType.UPDATE)
+        .invalidationKey("")
+        .build();
+    assertNull(ms.getInvalidationKey());
+  }
+
+  @Test
+  public void shouldFindTablesInSqlUnlessDeclared() {
+    Configuration configuration = new Configuration();
+    MappedStatement ms = new MappedStatement.Builder(configuration, "select", new StaticSqlSource(configuration, "select * from users"), SqlCommandType.SELECT)
+        .build();
+    assertEquals(0, ms.getTables().length);
+    assertArrayEquals(new String[] { "users" }, ms.getTables(ms.getBoundSql(null)));
+    ms = new MappedStatement.Builder(configuration, "select", new StaticSqlSource(configuration, "select * from user_view"), SqlCommandType.SELECT)
+        .tables("users, orders")
+        .build();
+    assertArrayEquals(new String[] { "users", "orders" }, ms.getTables(ms.getBoundSql(null)));
+  }
+
+}
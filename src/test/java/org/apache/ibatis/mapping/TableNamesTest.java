@@ -0,0 +1,66 @@
+/**
+ *    Copyright 2009-2017 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.mapping;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TableNamesTest {
+
+  @Test
+  public void shouldFindTablesOfSelect() {
+    assertArrayEquals(new String[] { "users", "orders" },
+        TableNames.parse("select * from Users u join ORDERS o on o.user_id = u.id where u.id = ?"));
+    assertArrayEquals(new String[] { "users", "orders", "items" },
+        TableNames.parse("SELECT * FROM users u, orders AS o, items WHERE u.id = o.user_id"));
+  }
+
+  @Test
+  public void shouldFindTablesOfSubqueries() {
+    assertArrayEquals(new String[] { "users", "orders" },
+        TableNames.parse("select * from users where id in (select user_id from orders)"));
+    assertArrayEquals(new String[] { "orders" },
+        TableNames.parse("select count(*) from (select * from orders) t"));
+  }
+
+  @Test
+  public void shouldFindTablesOfWrites() {
+    assertArrayEquals(new String[] { "users" }, TableNames.parse("insert into users (id, name) values (?, ?)"));
+    assertArrayEquals(new String[] { "users" }, TableNames.parse("update users set name = ? where id = ?"));
+    assertArrayEquals(new String[] { "users" }, TableNames.parse("delete from users where id = ?"));
+    assertArrayEquals(new String[] { "archive", "users" }, TableNames.parse("insert into archive select * from users"));
+  }
+
+  @Test
+  public void shouldIgnoreUpdateClauses() {
+    assertArrayEquals(new String[] { "users" }, TableNames.parse("select * from users where id = ? for update"));
+    assertArrayEquals(new String[] { "counters" },
+        TableNames.parse("insert into counters (id, hits) values (?, 1) on duplicate key update hits = hits + 1"));
+  }
+
+  @Test
+  public void shouldNormalizeNames() {
+    assertArrayEquals(new String[] { "users", "orders" },
+        TableNames.parse("select * from \"APP\".\"USERS\" join `orders` on 1 = 1"));
+    assertArrayEquals(new String[] { "users", "orders" },
+        TableNames.parse("select * from app.users join [dbo].[orders] on 1 = 1"));
+    assertArrayEquals(new String[] { "users", "orders" }, TableNames.split(" Users, orders ,,users"));
+    assertArrayEquals(new String[] { "users" }, TableNames.split("app.users, users"));
+    assertEquals(0, TableNames.split(null).length);
+  }
+
+}
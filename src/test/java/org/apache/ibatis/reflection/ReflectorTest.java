@@ -210,4 +210,23 @@ public class ReflectorTest {
     Reflector reflector = reflectorFactory.findForClass(Bean.class);
     assertTrue((Boolean)reflector.getGetInvoker("bool").invoke(new Bean(), new Byte[0]));
   }
+
+  @Test
+  public void shouldKeepAccessorsOfClassWithReadOnlyAndWriteOnlyProperties() throws Exception {
+    @SuppressWarnings("unused")
+    class Bean {
+      public String getId() {return "id";}
+      public void setSecret(String secret) {}
+      public String getName() {return null;}
+      public void setName(String name) {}
+    }
+    ReflectorFactory reflectorFactory = new DefaultReflectorFactory();
+    Reflector reflector = reflectorFactory.findForClass(Bean.class);
+    assertTrue(reflector.hasGetter("id"));
+    assertFalse(reflector.hasSetter("id"));
+    assertTrue(reflector.hasSetter("secret"));
+    assertFalse(reflector.hasGetter("secret"));
+    assertTrue(reflector.hasSetter("name"));
+    assertEquals(String.class, reflector.getSetterType("name"));
+  }
 }